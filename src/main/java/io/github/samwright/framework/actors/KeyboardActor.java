@@ -3,9 +3,13 @@ package io.github.samwright.framework.actors;
 import com.sun.glass.ui.Application;
 import io.github.samwright.framework.model.AbstractElement;
 import io.github.samwright.framework.model.Processor;
+import io.github.samwright.framework.model.common.ReadsTrainingPayloads;
+import io.github.samwright.framework.model.common.SinkElement;
+import io.github.samwright.framework.model.common.Versioned;
 import io.github.samwright.framework.model.datatypes.Classification;
 import io.github.samwright.framework.model.helper.CompletedTrainingBatch;
 import io.github.samwright.framework.model.helper.Mediator;
+import io.github.samwright.framework.model.helper.TrainingSession;
 import io.github.samwright.framework.model.helper.TypeData;
 import io.github.samwright.framework.model.helper.XMLHelper;
 import javafx.scene.input.KeyCode;
@@ -18,12 +22,12 @@ import java.util.*;
 /**
  * User: Sam Wright Date: 13/09/2013 Time: 11:49
  */
-public class KeyboardActor extends AbstractElement {
+public class KeyboardActor extends AbstractElement implements SinkElement, ReadsTrainingPayloads {
 
     private static com.sun.glass.ui.Robot robot = Application.GetApplication().createRobot();
 
-    @Getter private Map<String, String> keyCodes;
-    @Getter private List<String> allTags = new ArrayList<>();
+    @Getter private volatile Map<String, String> keyCodes;
+    @Getter private volatile List<String> allTags = Collections.emptyList();
     @Setter @Getter private boolean active;
 
     public KeyboardActor() {
@@ -35,6 +39,7 @@ public class KeyboardActor extends AbstractElement {
     public KeyboardActor(KeyboardActor oldElement) {
         super(oldElement);
         keyCodes = oldElement.getKeyCodes();
+        allTags = oldElement.getAllTags();
         setActive(oldElement.isActive());
     }
 
@@ -42,7 +47,8 @@ public class KeyboardActor extends AbstractElement {
     public Mediator process(Mediator input) {
         Classification classification = (Classification) input.getData();
         String keyToPress = keyCodes.get(classification.getTag());
-        if (isActive() && !keyToPress.isEmpty()) {
+        // Shadow frames (from a candidate version of the model) mustn't press keys.
+        if (isActive() && !keyToPress.isEmpty() && !input.getContext().isShadow()) {
             int key = KeyCode.getKeyCode(keyToPress).impl_getCode();
             robot.keyPress(key);
             robot.keyRelease(key);
@@ -58,19 +64,36 @@ public class KeyboardActor extends AbstractElement {
 
     @Override
     public CompletedTrainingBatch processCompletedTrainingBatch(CompletedTrainingBatch completedTrainingBatch) {
-        allTags.clear();
-
-        Map<String,String> newKeyCodes = new HashMap<>(keyCodes);
+        final Map<String,String> oldKeyCodes = keyCodes;
+        final List<String> newAllTags = new ArrayList<>();
+        final Map<String,String> newKeyCodes = new HashMap<>(oldKeyCodes);
 
         for (Mediator mediator : completedTrainingBatch.getAll()) {
             Classification classification = (Classification) mediator.getData();
             String tag = classification.getTag();
-            allTags.add(tag);
+            newAllTags.add(tag);
             if (!newKeyCodes.containsKey(tag))
                 newKeyCodes.put(tag, "");
         }
 
-        this.keyCodes = Collections.unmodifiableMap(newKeyCodes);
+        TrainingSession.publish(this, new Runnable() {
+            @Override
+            public void run() {
+                List<String> publishedTags = Collections.unmodifiableList(newAllTags);
+                Map<String, String> publishedKeyCodes = Collections.unmodifiableMap(newKeyCodes);
+
+                // Versions made while this was being trained copied the old state (unless their
+                // key codes were changed, in which case they are retrained).
+                for (Versioned version = KeyboardActor.this; version instanceof KeyboardActor;
+                     version = version.getNext()) {
+                    KeyboardActor actor = (KeyboardActor) version;
+                    if (actor != KeyboardActor.this && actor.keyCodes != oldKeyCodes)
+                        break;
+                    actor.allTags = publishedTags;
+                    actor.keyCodes = publishedKeyCodes;
+                }
+            }
+        });
         return super.processCompletedTrainingBatch(completedTrainingBatch);
     }
 
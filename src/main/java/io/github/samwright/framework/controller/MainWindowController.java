@@ -10,11 +10,15 @@ import io.github.samwright.framework.controller.example.StartElementController;
 import io.github.samwright.framework.controller.helper.Controllers;
 import io.github.samwright.framework.controller.helper.PreviewPane;
 import io.github.samwright.framework.javacv.*;
+import io.github.samwright.framework.javacv.helper.TaggedImageCodec;
 import io.github.samwright.framework.javacv.viewers.*;
 import io.github.samwright.framework.model.Element;
 import io.github.samwright.framework.model.Processor;
 import io.github.samwright.framework.model.TopWorkflowContainer;
 import io.github.samwright.framework.model.helper.ModelLoader;
+import io.github.samwright.framework.model.helper.ProcessingMemo;
+import io.github.samwright.framework.model.helper.TrainingCache;
+import io.github.samwright.framework.model.helper.TrainingRecord;
 import io.github.samwright.framework.model.helper.XMLHelper;
 import io.github.samwright.framework.model.mock.TopProcessor;
 import javafx.event.ActionEvent;
@@ -49,7 +53,7 @@ public class MainWindowController extends VBox {
 
     @FXML
     private Button undoButton, redoButton, trainButton,
-                   processButton, saveButton, saveAsButton, openButton;
+                   processButton, streamButton, saveButton, saveAsButton, openButton;
 
     @FXML
     @Getter private Label messageBox;
@@ -83,11 +87,21 @@ public class MainWindowController extends VBox {
                 updateButtons();
             }
         });
+        streamButton.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                if (topController.getModel().isStreaming())
+                    topController.getModel().stopStreaming();
+                else
+                    topController.getModel().startStreaming();
+                updateButtons();
+            }
+        });
         trainButton.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent actionEvent) {
 //                trainButton.setDisable(true);
-                topController.getModel().train();
+                topController.getModel().trainChanges();
                 updateButtons();
             }
         });
@@ -156,6 +170,8 @@ public class MainWindowController extends VBox {
             PreviewPane.registerDataViewer(new PalmViewer());
             PreviewPane.registerDataViewer(new FingertipViewer());
             PreviewPane.registerDataViewer(new HandViewer());
+
+            TrainingCache.registerCodec(new TaggedImageCodec());
         } else {
             ModelLoader.registerPrototypeModel(new ExElementController().getModel());
             ModelLoader.registerPrototypeModel(new ExContainerController().getModel());
@@ -170,6 +186,11 @@ public class MainWindowController extends VBox {
 
         PreviewPane.registerDataViewer(new ClassificationViewer());
 
+        TrainingCache.setShared(new TrainingCache(new File(System.getProperty("user.home"),
+                ".gesture-framework" + File.separator + "training-cache")));
+        ProcessingMemo.setShared(new ProcessingMemo(256L * 1024 * 1024));
+        TrainingRecord.setShared(new TrainingRecord());
+
 
         for (Processor p : ModelLoader.getAllProtoypeModels())
             if (p instanceof Element && !(p instanceof TopWorkflowContainer))
@@ -194,6 +215,8 @@ public class MainWindowController extends VBox {
         undoButton.setDisable(!topController.canUndo());
         processButton.setDisable(!topController.canProcess());
         trainButton.setDisable(!topController.canTrain());
+        streamButton.setDisable(!topController.canStream());
+        streamButton.setText(topController.getModel().isStreaming() ? "Stop" : "Stream");
 
         requestLayout();
     }
@@ -202,7 +202,11 @@ public class TopContainerController
     }
 
     public boolean canTrain() {
-        return !getModel().isBusy();
+        return !getModel().isTraining();
+    }
+
+    public boolean canStream() {
+        return getModel().isStreaming() || canProcess();
     }
 
     @Override
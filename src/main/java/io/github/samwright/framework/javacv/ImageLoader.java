@@ -5,6 +5,7 @@ import io.github.samwright.framework.javacv.helper.LoadedImage;
 import io.github.samwright.framework.model.AbstractElement;
 import io.github.samwright.framework.model.Element;
 import io.github.samwright.framework.model.Processor;
+import io.github.samwright.framework.model.common.StaticSource;
 import io.github.samwright.framework.model.datatypes.StartType;
 import io.github.samwright.framework.model.helper.Mediator;
 import io.github.samwright.framework.model.helper.TypeData;
@@ -23,7 +24,7 @@ import static com.googlecode.javacv.cpp.opencv_highgui.cvSaveImage;
 /**
  * User: Sam Wright Date: 05/09/2013 Time: 17:23
  */
-public class ImageLoader extends AbstractElement {
+public class ImageLoader extends AbstractElement implements StaticSource {
 
     @Getter private String directory;
     @Getter private LoadedImage activeImage;
@@ -73,6 +74,14 @@ public class ImageLoader extends AbstractElement {
         return input.createNext(this, activeImage);
     }
 
+    /**
+     * @return true if an image is selected (rather than each frame being taken from the camera).
+     */
+    @Override
+    public boolean hasStaticOutput() {
+        return activeImage != null;
+    }
+
     @Override
     public List<Mediator> processTrainingData(Mediator input) {
         if (images.isEmpty())
@@ -2,13 +2,17 @@ package io.github.samwright.framework.javacv;
 
 import io.github.samwright.framework.model.AbstractElement;
 import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.common.BatchProcessor;
+import io.github.samwright.framework.model.common.ReadsTrainingPayloads;
+import io.github.samwright.framework.model.common.Versioned;
 import io.github.samwright.framework.model.datatypes.Classification;
 import io.github.samwright.framework.model.datatypes.Features;
 import io.github.samwright.framework.model.helper.CompletedTrainingBatch;
 import io.github.samwright.framework.model.helper.History;
+import io.github.samwright.framework.model.helper.HistoryMap;
 import io.github.samwright.framework.model.helper.Mediator;
+import io.github.samwright.framework.model.helper.TrainingSession;
 import io.github.samwright.framework.model.helper.TypeData;
-import lombok.Getter;
 
 import java.util.*;
 
@@ -18,13 +22,27 @@ import static com.googlecode.javacv.cpp.opencv_ml.CvANN_MLP_TrainParams;
 
 /**
  * Adapted from: http://projectagv.blogspot.co.uk/2008/12/sample-code-for-cvannmlp.html
+ * <p/>
+ * Batches of features are classified with one call to the net per {@link History} (rather than
+ * one per features).
+ * <p/>
+ * Training builds a new set of nets, which replaces the old set when training completes (see
+ * {@link TrainingSession}), so features can be classified while the nets are being trained.
  */
-public class NNClassifier extends AbstractElement {
+public class NNClassifier extends AbstractElement
+        implements BatchProcessor, ReadsTrainingPayloads {
 
-    private Map<History,CvANN_MLP> nets = new HashMap<>();
-    private int featuresSize = -1;
-    private List<String> classIndex = new ArrayList<>();
-    @Getter private Map<History,Double> successRates;
+    /**
+     * Everything learnt from a training batch.  It isn't changed once it has been published.
+     */
+    private static class Trained {
+        private final Map<History,CvANN_MLP> nets = new HistoryMap<>();
+        private int featuresSize = -1;
+        private final List<String> classIndex = new ArrayList<>();
+        private Map<History,Double> successRates;
+    }
+
+    private volatile Trained trained = new Trained();
 
     public NNClassifier() {
         super(new TypeData(Features.class, Classification.class));
@@ -32,17 +50,40 @@ public class NNClassifier extends AbstractElement {
 
     public NNClassifier(NNClassifier oldElement) {
         super(oldElement);
+        // A new version that hasn't changed isn't retrained (see TrainingRecord), so it keeps
+        // the old version's nets.
+        trained = oldElement.trained;
+    }
+
+    /**
+     * @return the success rate of the net for each history, from the last time this was trained
+     *         (or null if it hasn't been trained).
+     */
+    public Map<History,Double> getSuccessRates() {
+        return trained.successRates;
     }
 
     @Override
     public Mediator process(Mediator input) {
         Features features = (Features) input.getData();
-        CvANN_MLP net = nets.get(input.getHistory());
-        String predictedTag = predict(net, features);
+        Trained state = trained;
+        CvANN_MLP net = state.nets.get(input.getHistory());
+        String predictedTag = predict(state, net, features);
 
         return input.createNext(this, new Classification(predictedTag));
     }
 
+    @Override
+    public List<Mediator> processBatch(List<Mediator> inputs) {
+        List<String> predictedTags = predictAll(trained, inputs);
+        List<Mediator> outputs = new ArrayList<>(inputs.size());
+
+        for (int i = 0; i < inputs.size(); ++i)
+            outputs.add(inputs.get(i).createNext(this, new Classification(predictedTags.get(i))));
+
+        return outputs;
+    }
+
     @Override
     public List<Mediator> processTrainingData(Mediator input) {
         Features features = (Features) input.getData();
@@ -54,18 +95,16 @@ public class NNClassifier extends AbstractElement {
 
     @Override
     public CompletedTrainingBatch processCompletedTrainingBatch(CompletedTrainingBatch completedTrainingBatch) {
-        // Clean up
-        classIndex.clear();
-        featuresSize = -1;
-        classIndex.clear();
-        successRates = null;
-        nets.clear();
+        // Start again from scratch
+        Trained newState = new Trained();
         Map<History, List<Features>> trainingSet = new HashMap<>();
         Set<String> classSet = new HashSet<>();
 
         // Make sure there's at least 1 output mediator
-        if (completedTrainingBatch.getAll().isEmpty())
+        if (completedTrainingBatch.getAll().isEmpty()) {
+            publish(newState);
             return completedTrainingBatch;
+        }
 
         // Roll back the batch
         CompletedTrainingBatch inputBatch = super.processCompletedTrainingBatch(completedTrainingBatch);
@@ -75,9 +114,9 @@ public class NNClassifier extends AbstractElement {
             Features features = (Features) input.getData();
 
             // Check featuresSize is equal across all features
-            if (featuresSize == -1)
-                featuresSize = features.getFeatures().size();
-            else if (featuresSize != features.getFeatures().size())
+            if (newState.featuresSize == -1)
+                newState.featuresSize = features.getFeatures().size();
+            else if (newState.featuresSize != features.getFeatures().size())
                 throw new RuntimeException("Each training data must have same number of features!");
 
             // Add tag if not already in classSet
@@ -91,8 +130,8 @@ public class NNClassifier extends AbstractElement {
             featuresList.add(features);
         }
 
-        classIndex.addAll(classSet);
-        successRates = new HashMap<>();
+        newState.classIndex.addAll(classSet);
+        newState.successRates = new HistoryMap<>();
 
         // Setup a network for each unique mediator history:
         for (Map.Entry<History,List<Features>> e : trainingSet.entrySet()) {
@@ -100,74 +139,153 @@ public class NNClassifier extends AbstractElement {
             List<Features> featuresList = e.getValue();
 
             // Create new or load existing net
-            CvANN_MLP net = createNet(featuresSize, classIndex.size());
-            nets.put(history, net);
+            CvANN_MLP net = createNet(newState.featuresSize, newState.classIndex.size());
+            newState.nets.put(history, net);
 
             // Train net
-            double successRate = trainLeavingOneOut(net, featuresList);
+            double successRate = trainLeavingOneOut(newState, net, featuresList);
 
-            successRates.put(history, successRate);
+            newState.successRates.put(history, successRate);
         }
 
         Set<Mediator> successful = new HashSet<>();
+        List<Mediator> successfulInputs = new ArrayList<>(inputBatch.getSuccessful());
+        List<String> predictedTags = predictAll(newState, successfulInputs);
 
-        for (Mediator inputMediator : inputBatch.getSuccessful()) {
+        for (int i = 0; i < successfulInputs.size(); ++i) {
+            Mediator inputMediator = successfulInputs.get(i);
             Features features = (Features) inputMediator.getData();
-            CvANN_MLP net = nets.get(inputMediator.getHistory());
 
-            if (predict(net, features).equals(features.getTag()))
+            if (predictedTags.get(i).equals(features.getTag()))
                 successful.add(inputMediator);
         }
 
+        publish(newState);
         return new CompletedTrainingBatch(inputBatch.getAll(), successful);
     }
 
-    private String predict(CvANN_MLP net, Features features) {
-        if (!isValid())
-            return "Not trained";
-        // Setup the features in the correct format
-        CvMat inputData = cvCreateMat(1, featuresSize, CV_32FC1);
+    /**
+     * Replaces the trained state when training completes.
+     */
+    private void publish(final Trained newState) {
+        TrainingSession.publish(this, new Runnable() {
+            @Override
+            public void run() {
+                // Versions made while this was being trained copied the old nets.
+                for (Versioned version = NNClassifier.this; version instanceof NNClassifier;
+                     version = version.getNext())
+                    ((NNClassifier) version).trained = newState;
+            }
+        });
+    }
 
-        for (int i = 0; i < featuresSize; ++i)
-            cvSetReal2D(inputData, 0, i, features.getFeatures().get(i));
+    private String predict(Trained state, CvANN_MLP net, Features features) {
+        return predict(state, net, Arrays.asList(features)).get(0);
+    }
+
+    /**
+     * Predicts the tag of each input's features, using the net for the input's history.  The
+     * inputs are grouped by history, so each net is only called once.
+     *
+     * @param state the trained state to classify the features with.
+     * @param inputs the mediators containing the features to classify.
+     * @return the predicted tag for each input, in the same order as the inputs.
+     */
+    private List<String> predictAll(Trained state, List<Mediator> inputs) {
+        Map<History, List<Integer>> indicesByHistory = new HistoryMap<>();
+        for (int i = 0; i < inputs.size(); ++i) {
+            History history = inputs.get(i).getHistory();
+            List<Integer> indices = indicesByHistory.get(history);
+            if (indices == null) {
+                indices = new ArrayList<>();
+                indicesByHistory.put(history, indices);
+            }
+            indices.add(i);
+        }
+
+        String[] predictedTags = new String[inputs.size()];
+
+        for (Map.Entry<History, List<Integer>> e : indicesByHistory.entrySet()) {
+            List<Features> featuresList = new ArrayList<>(e.getValue().size());
+            for (int i : e.getValue())
+                featuresList.add((Features) inputs.get(i).getData());
+
+            List<String> tags = predict(state, state.nets.get(e.getKey()), featuresList);
+            for (int i = 0; i < tags.size(); ++i)
+                predictedTags[e.getValue().get(i)] = tags.get(i);
+        }
+
+        return Arrays.asList(predictedTags);
+    }
+
+    /**
+     * Predicts the tag of each of the features with a single call to the net.
+     *
+     * @param state the trained state the net belongs to.
+     * @param net the net to classify the features with.
+     * @param featuresList the features to classify.
+     * @return the predicted tag for each features, in the same order.
+     */
+    private List<String> predict(Trained state, CvANN_MLP net, List<Features> featuresList) {
+        List<String> predictedTags = new ArrayList<>(featuresList.size());
+
+        if (state.nets.isEmpty()) {
+            for (int i = 0; i < featuresList.size(); ++i)
+                predictedTags.add("Not trained");
+            return predictedTags;
+        }
+
+        // Setup the features in the correct format, one row per features
+        CvMat inputData = cvCreateMat(featuresList.size(), state.featuresSize, CV_32FC1);
+
+        for (int row = 0; row < featuresList.size(); ++row) {
+            List<Double> features = featuresList.get(row).getFeatures();
+            for (int i = 0; i < state.featuresSize; ++i)
+                cvSetReal2D(inputData, row, i, features.get(i));
+        }
 
         // Prepare output variable
-        CvMat outputData = cvCreateMat(1, classIndex.size(), CV_32FC1);
+        CvMat outputData = cvCreateMat(featuresList.size(), state.classIndex.size(), CV_32FC1);
 
         // Predict, and populate outputData.
         net.predict(inputData, outputData);
 
-        // Find index of largest output:
-        double maxVal = -100;
-        int maxIndex = -1;
-        for (int i = 0; i < classIndex.size(); ++i) {
-            double classOutput = cvGet2D(outputData, 0, i).getDoublePointerVal().get();
-            if (classOutput > maxVal) {
-                maxVal = classOutput;
-                maxIndex = i;
+        // Find index of largest output in each row:
+        for (int row = 0; row < featuresList.size(); ++row) {
+            double maxVal = -100;
+            int maxIndex = -1;
+            for (int i = 0; i < state.classIndex.size(); ++i) {
+                double classOutput = cvGet2D(outputData, row, i).getDoublePointerVal().get();
+                if (classOutput > maxVal) {
+                    maxVal = classOutput;
+                    maxIndex = i;
+                }
             }
+
+            predictedTags.add(state.classIndex.get(maxIndex));
         }
 
-        return classIndex.get(maxIndex);
+        return predictedTags;
     }
 
     /**
      * Trains the given net on the given training set using the leave-1-out strategy,
      * returning the average training success rate as a fraction (ie. 0 -> 1).
      *
+     * @param state the trained state the net belongs to.
      * @param net the net to train.
      * @param trainingSet the training set to train the net with.
      * @return the success rate as a fraction (ie. 0 -> 1).
      */
-    private double trainLeavingOneOut(CvANN_MLP net, List<Features> trainingSet) {
+    private double trainLeavingOneOut(Trained state, CvANN_MLP net, List<Features> trainingSet) {
         LinkedList<Features> partialTrainingSet = new LinkedList<>(trainingSet);
         int successes = 0;
 
         for (int i = 0; i < trainingSet.size(); ++i) {
             Features removed = partialTrainingSet.removeFirst();
 
-            trainNet(net, partialTrainingSet);
-            if (predict(net, removed).equals(removed.getTag()))
+            trainNet(state, net, partialTrainingSet);
+            if (predict(state, net, removed).equals(removed.getTag()))
                 ++successes;
 
             partialTrainingSet.addLast(removed);
@@ -206,15 +324,17 @@ public class NNClassifier extends AbstractElement {
     /**
      * Train the given net with the given training set.
      *
+     * @param state the trained state the net belongs to.
      * @param net the net to train.
      * @param trainingSet the training set to train the net with.
      */
-    private void trainNet(CvANN_MLP net, List<Features> trainingSet) {
+    private void trainNet(Trained state, CvANN_MLP net, List<Features> trainingSet) {
         // Create matrix of training set
-        CvMat trainingData = cvCreateMat(trainingSet.size(), featuresSize, CV_32FC1);
+        CvMat trainingData = cvCreateMat(trainingSet.size(), state.featuresSize, CV_32FC1);
 
         // Create matrix of classifications
-        CvMat classificationData = cvCreateMat(trainingSet.size(), classIndex.size(), CV_32FC1);
+        CvMat classificationData = cvCreateMat(trainingSet.size(), state.classIndex.size(),
+                CV_32FC1);
 
         // Create training data weighting matrix
         CvMat trainingWeights = cvCreateMat(trainingSet.size(), 1, CV_32FC1);
@@ -224,13 +344,13 @@ public class NNClassifier extends AbstractElement {
             Features features = trainingSet.get(i);
 
             // Training data:
-            for (int j = 0; j < featuresSize; ++j)
+            for (int j = 0; j < state.featuresSize; ++j)
                 cvSetReal2D(trainingData, i, j, features.getFeatures().get(j));
 
             // Classification:
-            for (int j = 0; j < classIndex.size(); ++j) {
-                double isCorrectClass = classIndex.get(j).equals(features.getTag()) ? 1. : -1.;
-                cvSetReal2D(classificationData, i, j, isCorrectClass);
+            for (int j = 0; j < state.classIndex.size(); ++j) {
+                boolean isCorrectClass = state.classIndex.get(j).equals(features.getTag());
+                cvSetReal2D(classificationData, i, j, isCorrectClass ? 1. : -1.);
             }
 
             // Weights (all set to 1)
@@ -248,6 +368,6 @@ public class NNClassifier extends AbstractElement {
 
     @Override
     public boolean isValid() {
-        return !nets.isEmpty();
+        return !trained.nets.isEmpty();
     }
 }
@@ -50,7 +50,7 @@ public class SkinDetector extends SplitJoinWorkflowContainer {
         cvSmooth(bwImage, bwImage, CV_MEDIAN, 13);
 
 
-        return new TaggedImage(bwImage, taggedImage.getTag());
+        return new TaggedImage(bwImage, taggedImage);
     }
 
     @Override
@@ -3,9 +3,11 @@ package io.github.samwright.framework.javacv.helper;
 import com.googlecode.javacv.FrameGrabber;
 import com.googlecode.javacv.cpp.opencv_core;
 import io.github.samwright.framework.controller.MainWindowController;
+import io.github.samwright.framework.model.helper.SharedExecutors;
 import lombok.Getter;
 
 import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
 
 /**
  * User: Sam Wright Date: 15/09/2013 Time: 08:44
@@ -39,19 +41,12 @@ public class Camera {
         } while(grabber == null);
 
         valid = true;
-        new Thread(new Runnable() {
+        SharedExecutors.getScheduler().scheduleWithFixedDelay(new Runnable() {
             @Override
             public void run() {
-                while(true) {
-                    try {
-                        Thread.sleep(timeout);
-                    } catch (InterruptedException e) {
-                        MainWindowController.getTopController().handleException(e);
-                    }
-                    disableCameraAfterTimeout();
-                }
+                disableCameraAfterTimeout();
             }
-        }).start();
+        }, timeout, timeout, TimeUnit.MILLISECONDS);
     }
 
     public opencv_core.IplImage grabImage() {
@@ -66,8 +61,8 @@ public class Camera {
                     throw new RuntimeException(e);
                 }
                 grabberIsActive = true;
-                lastAccessTimestamp = Calendar.getInstance().getTimeInMillis();
             }
+            lastAccessTimestamp = Calendar.getInstance().getTimeInMillis();
 
             opencv_core.IplImage toReturn;
             int attempts = 0;
@@ -80,8 +75,6 @@ public class Camera {
                 }
             } while(toReturn == null && attempts < 10);
 
-            lock.notifyAll();
-
             if (toReturn == null)
                 throw new RuntimeException("Could not capture image (grabber kept returning null)");
 
@@ -96,8 +89,7 @@ public class Camera {
                 try {
                     grabber.stop();
                     grabberIsActive = false;
-                    lock.wait();
-                } catch (FrameGrabber.Exception | InterruptedException e) {
+                } catch (FrameGrabber.Exception e) {
                     MainWindowController.getTopController().handleException(e);
                 }
             }
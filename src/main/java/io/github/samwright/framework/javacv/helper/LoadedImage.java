@@ -1,17 +1,23 @@
 package io.github.samwright.framework.javacv.helper;
 
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 import com.googlecode.javacv.cpp.opencv_core;
+import io.github.samwright.framework.model.common.ContentAddressable;
+import io.github.samwright.framework.model.helper.TrainingCache;
 import lombok.Getter;
 
 import java.io.File;
+import java.io.IOException;
 
 import static com.googlecode.javacv.cpp.opencv_highgui.cvLoadImage;
 
 /**
  * User: Sam Wright Date: 12/09/2013 Time: 18:59
  */
-public class LoadedImage extends TaggedImage {
+public class LoadedImage extends TaggedImage implements ContentAddressable {
     @Getter private final String filename;
+    private volatile String fileHash;
 
     public LoadedImage(opencv_core.IplImage image, String tag, String filename) {
         super(image, tag);
@@ -36,4 +42,24 @@ public class LoadedImage extends TaggedImage {
 
         return new LoadedImage(image, tag, filename);
     }
+
+    /**
+     * Gets the hash of the file the image was loaded from (which is only read the first time)
+     * and the image's tag (which was taken from the filename).
+     *
+     * @return the hash of the image's file and tag, or null if it wasn't loaded from (or saved
+     *         to) a file.
+     */
+    @Override
+    public String getContentHash() {
+        if (fileHash == null && filename != null) {
+            try {
+                fileHash = Files.hash(new File(filename), Hashing.sha1()).toString();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        return fileHash == null ? null : TrainingCache.getContentHash(fileHash, getTag());
+    }
 }
@@ -1,13 +1,14 @@
 package io.github.samwright.framework.javacv.helper;
 
 import com.googlecode.javacv.cpp.opencv_core;
+import io.github.samwright.framework.model.common.NativeMemoryUser;
 import lombok.Getter;
 import lombok.Setter;
 
 /**
  * User: Sam Wright Date: 06/09/2013 Time: 20:50
  */
-public class TaggedImage implements Comparable<TaggedImage> {
+public class TaggedImage implements Comparable<TaggedImage>, NativeMemoryUser {
 
     @Setter @Getter private String tag;
     @Getter private final opencv_core.IplImage image;
@@ -17,6 +18,23 @@ public class TaggedImage implements Comparable<TaggedImage> {
         setTag(tag);
     }
 
+    /**
+     * Creates an image derived from the source image (eg. a thresholded copy), with the same tag
+     * as the source.
+     *
+     * @param image the derived image.
+     * @param source the image it was derived from.
+     */
+    public TaggedImage(opencv_core.IplImage image, TaggedImage source) {
+        this.image = image;
+        setTag(source.getTag());
+    }
+
+    @Override
+    public long getNativeBytes() {
+        return image == null ? 0 : image.imageSize();
+    }
+
     @Override
     public String toString() {
         return tag;
@@ -0,0 +1,47 @@
+package io.github.samwright.framework.javacv.helper;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import io.github.samwright.framework.model.helper.TrainingCache;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.googlecode.javacv.cpp.opencv_core.IplImage;
+import static com.googlecode.javacv.cpp.opencv_highgui.*;
+
+/**
+ * Writes {@link TaggedImage} objects to the {@link TrainingCache} as a (lossless) PNG file, with
+ * the tag in a separate file.
+ */
+public class TaggedImageCodec implements TrainingCache.Codec {
+
+    @Override
+    public boolean canWrite(Object data) {
+        // Subclasses (eg. LoadedImage) would be read back as a plain TaggedImage.
+        return data != null && data.getClass() == TaggedImage.class;
+    }
+
+    @Override
+    public void write(Object data, File file) throws IOException {
+        TaggedImage taggedImage = (TaggedImage) data;
+
+        if (cvSaveImage(getImageFile(file).getPath(), taggedImage.getImage()) == 0)
+            throw new IOException("Couldn't save image to " + getImageFile(file));
+
+        Files.write(taggedImage.getTag(), file, Charsets.UTF_8);
+    }
+
+    @Override
+    public Object read(File file) throws IOException {
+        IplImage image = cvLoadImage(getImageFile(file).getPath(), CV_LOAD_IMAGE_UNCHANGED);
+        if (image == null)
+            throw new IOException("Couldn't load image from " + getImageFile(file));
+
+        return new TaggedImage(image, Files.toString(file, Charsets.UTF_8));
+    }
+
+    private static File getImageFile(File file) {
+        return new File(file.getPath() + ".png");
+    }
+}
@@ -153,7 +153,8 @@ public abstract class AbstractElement extends AbstractProcessor implements Eleme
 
     @Override
     public Workflow getParent() {
-        return parentManager.getParent();
+        // The superclass constructor can mutate this (eg. set its UUID) before it has a parent.
+        return parentManager == null ? null : parentManager.getParent();
     }
 
     @Override
@@ -1,6 +1,7 @@
 package io.github.samwright.framework.model;
 
 import io.github.samwright.framework.model.helper.CompletedTrainingBatch;
+import io.github.samwright.framework.model.helper.History;
 import io.github.samwright.framework.model.helper.Mediator;
 import io.github.samwright.framework.model.helper.ModelLoader;
 import io.github.samwright.framework.model.helper.MutabilityHelper;
@@ -70,8 +71,10 @@ public abstract class AbstractProcessor implements Processor {
 
         Mediator first = completedTrainingBatch.getAll().iterator().next();
         if (first.getData() != null) {
+            // The batch may have been created by an earlier version of this (if the outputs were
+            // reused by a TrainingRecord).
             Processor creator = first.getHistory().getCreator();
-            if (creator != this) {
+            if (!History.getCreatorKey(creator).equals(History.getCreatorKey(this))) {
                 throw new RuntimeException("Training batch was created by: " + creator
                                         + " instead of this: " + this);
             }
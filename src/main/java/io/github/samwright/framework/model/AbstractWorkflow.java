@@ -40,7 +40,8 @@ public abstract class AbstractWorkflow extends AbstractProcessor implements Work
 
     @Override
     public WorkflowContainer getParent() {
-        return parentManager.getParent();
+        // The superclass constructor can mutate this (eg. set its UUID) before it has a parent.
+        return parentManager == null ? null : parentManager.getParent();
     }
 
     @Override
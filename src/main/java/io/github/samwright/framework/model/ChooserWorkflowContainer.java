@@ -1,12 +1,10 @@
 package io.github.samwright.framework.model;
 
 import io.github.samwright.framework.controller.ModelController;
-import io.github.samwright.framework.model.helper.CompletedTrainingBatch;
-import io.github.samwright.framework.model.helper.History;
-import io.github.samwright.framework.model.helper.Mediator;
-import io.github.samwright.framework.model.helper.TypeData;
+import io.github.samwright.framework.model.helper.*;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * A {@link WorkflowContainer} where one of its {@link Workflow} objects will be chosen for
@@ -17,9 +15,16 @@ import java.util.*;
  * it will decide on a strategy for choosing a {@code Workflow}.  The choice is made when
  * {@code process(..)} is called, so the choosing strategy can involve information from the
  * supplied {@link Mediator} (eg. its {@link History}).
+ * <p/>
+ * The workflows are independent while training, so they process training data (and the
+ * completed training batches) concurrently, on the training {@link BranchExecutor}.  If several
+ * workflows begin with the same elements, the training data outputs of those elements are only
+ * computed once (see {@link SharedPrefixPlan}).
  */
 public abstract class ChooserWorkflowContainer extends AbstractWorkflowContainer {
 
+    private volatile SharedPrefixPlan sharedPrefixPlan;
+
     public ChooserWorkflowContainer(TypeData typeData) {
         super(typeData);
     }
@@ -34,7 +39,7 @@ public abstract class ChooserWorkflowContainer extends AbstractWorkflowContainer
         Mediator output = chosenWorkflow.process(input);
 
         ModelController controller = chosenWorkflow.getController();
-        if (controller != null)
+        if (controller != null && !output.getContext().isShadow())
             controller.handleProcessedData(output);
 
         return output.createNext(this, output.getData());
@@ -42,22 +47,54 @@ public abstract class ChooserWorkflowContainer extends AbstractWorkflowContainer
 
     public abstract Workflow chooseWorkflow(Mediator input);
 
+    /**
+     * Gets the plan for sharing the training data outputs of the elements that the workflows
+     * begin with, compiling a new one if the model has been mutated since the last one was
+     * compiled (or if this is mutable).
+     *
+     * @return an up-to-date plan for sharing the workflows' common elements.
+     */
+    public SharedPrefixPlan getSharedPrefixPlan() {
+        if (isMutable())
+            return SharedPrefixPlan.compile(getChildren());
+
+        SharedPrefixPlan plan = sharedPrefixPlan;
+
+        if (plan == null || !plan.isCurrent()) {
+            plan = SharedPrefixPlan.compile(getChildren());
+            sharedPrefixPlan = plan;
+        }
+
+        return plan;
+    }
+
     @Override
-    public List<Mediator> processTrainingData(Mediator input) {
-        List<Mediator> outputs = new ArrayList<>(), finalOutputs = new ArrayList<>();
+    public List<Mediator> processTrainingData(final Mediator input) {
+        List<Callable<List<Mediator>>> branches = new ArrayList<>();
+        final SharedPrefixPlan.Pass pass = getSharedPrefixPlan().startPass(input);
 
-        for (Workflow workflow : getChildren()) {
-            List<Mediator> workflowOutput = workflow.processTrainingData(input);
+        for (int i = 0; i < getChildren().size(); ++i) {
+            final Workflow workflow = getChildren().get(i);
+            final int workflowIndex = i;
+
+            branches.add(new Callable<List<Mediator>>() {
+                @Override
+                public List<Mediator> call() {
+                    List<Mediator> workflowOutput = pass.processTrainingData(workflowIndex);
 
-            ModelController controller = workflow.getController();
-            if (controller != null)
-                controller.handleProcessedTrainingData(workflowOutput);
+                    ModelController controller = workflow.getController();
+                    if (controller != null)
+                        controller.handleProcessedTrainingData(workflowOutput);
 
-            outputs.addAll(workflowOutput);
+                    return workflowOutput;
+                }
+            });
         }
 
-        for (Mediator output : outputs)
-            finalOutputs.add(output.createNext(this, output.getData()));
+        List<Mediator> finalOutputs = new ArrayList<>();
+        for (List<Mediator> workflowOutput : BranchExecutor.getTraining().runAll(branches))
+            for (Mediator output : workflowOutput)
+                finalOutputs.add(output.createNext(this, output.getData()));
 
         return finalOutputs;
     }
@@ -75,8 +112,11 @@ public abstract class ChooserWorkflowContainer extends AbstractWorkflowContainer
      *                                             went on to be successfully classified,
      *                                             indexed by the training data's history,
      *                                             and the workflow that successfully processed it.
+     * @return the workflow that will be chosen for the inputs with each history once the new
+     *         strategy is published (until then, {@code chooseWorkflow(..)} may carry on with the
+     *         old strategy - see {@link TrainingSession}).
      */
-    public abstract void handleSuccessfulInputsByWorkflowAndHistory(
+    public abstract Map<History, Workflow> handleSuccessfulInputsByWorkflowAndHistory(
             Map<History, Set<Mediator>> allInputsByHistory,
             Map<History, Map<Workflow, Set<Mediator>>> successfulInputsByWorkflowAndHistory);
 
@@ -84,48 +124,40 @@ public abstract class ChooserWorkflowContainer extends AbstractWorkflowContainer
     public CompletedTrainingBatch processCompletedTrainingBatch(CompletedTrainingBatch completedTrainingBatch) {
         CompletedTrainingBatch batch = super.processCompletedTrainingBatch(completedTrainingBatch);
 
-        Map<Workflow, Set<Mediator>> successfulOutputsByWorkflow = new HashMap<>();
-        Map<Workflow, Set<Mediator>> allOutputsByWorkflow = new HashMap<>();
-
         // Separate output mediators by workflow
-
-        for (Workflow workflow : getChildren()) {
-            successfulOutputsByWorkflow.put(workflow, new HashSet<Mediator>());
-            allOutputsByWorkflow.put(workflow, new HashSet<Mediator>());
-        }
-
-        for (Mediator successfulOutput : batch.getSuccessful()) {
-            Workflow creator = (Workflow) successfulOutput.getHistory().getCreator();
-            successfulOutputsByWorkflow.get(creator).add(successfulOutput);
-        }
-
-        for (Mediator output : batch.getAll()) {
-            Workflow creator = (Workflow) output.getHistory().getCreator();
-            allOutputsByWorkflow.get(creator).add(output);
-        }
+        List<CompletedTrainingBatch> outputBatches = batch.partitionByCreator(getChildren());
 
         // Let workflows process their respective batches:
 
-        Map<Workflow, CompletedTrainingBatch> inputBatchesByWorkflow = new HashMap<>();
-        for (Workflow workflow : getChildren()) {
-            CompletedTrainingBatch workflowOutputBatch = new CompletedTrainingBatch(
-                    allOutputsByWorkflow.get(workflow),
-                    successfulOutputsByWorkflow.get(workflow)
-            );
+        List<Callable<CompletedTrainingBatch>> branches = new ArrayList<>();
+        for (int i = 0; i < getChildren().size(); ++i) {
+            final Workflow workflow = getChildren().get(i);
+            final CompletedTrainingBatch workflowOutputBatch = outputBatches.get(i);
 
-            CompletedTrainingBatch workflowInputBatch
-                    = workflow.processCompletedTrainingBatch(workflowOutputBatch);
+            branches.add(new Callable<CompletedTrainingBatch>() {
+                @Override
+                public CompletedTrainingBatch call() {
+                    CompletedTrainingBatch workflowInputBatch
+                            = workflow.processCompletedTrainingBatch(workflowOutputBatch);
 
-            ModelController controller = workflow.getController();
-            if (controller != null)
-                controller.handleTrained();
+                    ModelController controller = workflow.getController();
+                    if (controller != null)
+                        controller.handleTrained();
 
-            inputBatchesByWorkflow.put(workflow, workflowInputBatch);
+                    return workflowInputBatch;
+                }
+            });
         }
 
+        // Wait for every workflow to be trained before aggregating their results.
+        List<CompletedTrainingBatch> inputBatches = BranchExecutor.getTraining().runAll(branches);
+        Map<Workflow, CompletedTrainingBatch> inputBatchesByWorkflow = new HashMap<>();
+        for (int i = 0; i < inputBatches.size(); ++i)
+            inputBatchesByWorkflow.put(getChildren().get(i), inputBatches.get(i));
+
         Set<Mediator> allInputs = null;
         Map<History, Map<Workflow, Set<Mediator>>> successfulInputsByWorkflowAndHistory
-                = new HashMap<>();
+                = new HistoryMap<>();
 
         // Process the batches returned by the child workflows (ie. containing mediators that
         // were this object's inputs).
@@ -172,7 +204,7 @@ public abstract class ChooserWorkflowContainer extends AbstractWorkflowContainer
             allInputs = Collections.emptySet();
 
         // Index allInputs by their History objects
-        Map<History,Set<Mediator>> allInputsByHistory = new HashMap<>();
+        Map<History,Set<Mediator>> allInputsByHistory = new HistoryMap<>();
         for (Mediator mediator : allInputs) {
             History history = mediator.getHistory();
             Set<Mediator> allInputsForHistory = allInputsByHistory.get(history);
@@ -187,10 +219,11 @@ public abstract class ChooserWorkflowContainer extends AbstractWorkflowContainer
 
         // Let the concrete implementer use the completed training batch from the inputs of the
         // workflows to decide how to choose the correct workflow in future.
-        handleSuccessfulInputsByWorkflowAndHistory(allInputsByHistory, successfulInputsByWorkflowAndHistory);
+        Map<History, Workflow> chosenWorkflows = handleSuccessfulInputsByWorkflowAndHistory(
+                allInputsByHistory, successfulInputsByWorkflowAndHistory);
 
-        // Find all input mediators that would have been chosen, if they now went to
-        // 'process(input)'
+        // Find all input mediators that would have been chosen, if they went to 'process(input)'
+        // with the new strategy (which may not have been published yet).
         Set<Mediator> successfulChosenInputs = new HashSet<>();
         Set<Mediator> allChosenInputs = new HashSet<>();
         for (Workflow workflow : getChildren()) {
@@ -199,11 +232,11 @@ public abstract class ChooserWorkflowContainer extends AbstractWorkflowContainer
             Set<Mediator> allWorkflowInputs = inputBatchesByWorkflow.get(workflow).getAll();
 
             for (Mediator input : allWorkflowInputs)
-                if (chooseWorkflow(input) == workflow)
+                if (chosenWorkflows.get(input.getHistory()) == workflow)
                     allChosenInputs.add(input);
 
             for (Mediator successfulInput : successfulWorkflowInputs)
-                if (chooseWorkflow(successfulInput) == workflow)
+                if (chosenWorkflows.get(successfulInput.getHistory()) == workflow)
                     successfulChosenInputs.add(successfulInput);
         }
 
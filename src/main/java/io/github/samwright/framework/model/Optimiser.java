@@ -1,10 +1,13 @@
 package io.github.samwright.framework.model;
 
+import io.github.samwright.framework.model.common.Versioned;
 import io.github.samwright.framework.model.helper.History;
+import io.github.samwright.framework.model.helper.HistoryMap;
 import io.github.samwright.framework.model.helper.Mediator;
+import io.github.samwright.framework.model.helper.TrainingSession;
 import io.github.samwright.framework.model.helper.TypeData;
-import lombok.Getter;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -13,11 +16,14 @@ import java.util.Set;
  * A {@link ChooserWorkflowContainer} that statically decides during training which
  * {@link Workflow} is best suited to each {@link History} object of its incoming
  * {@link Mediator} objects.
+ * <p/>
+ * The choices made in training replace the old choices when training completes (see
+ * {@link TrainingSession}).
  */
 public class Optimiser extends ChooserWorkflowContainer {
 
-    private Map<History,Workflow> chosenWorkflows = new HashMap<>();
-    @Getter private Map<Workflow,Map<History,Double>> successRates = new HashMap<>();
+    private volatile Map<History,Workflow> chosenWorkflows = new HistoryMap<>();
+    private volatile Map<Workflow,Map<History,Double>> successRates = new HashMap<>();
 
     public Optimiser() {
         super(TypeData.getDefaultType());
@@ -25,11 +31,50 @@ public class Optimiser extends ChooserWorkflowContainer {
 
     public Optimiser(AbstractWorkflowContainer oldWorkflowContainer) {
         super(oldWorkflowContainer);
+
+        // A new version that hasn't changed isn't retrained (see TrainingRecord), so it keeps
+        // the old version's choices.
+        if (oldWorkflowContainer instanceof Optimiser) {
+            chosenWorkflows = ((Optimiser) oldWorkflowContainer).chosenWorkflows;
+            successRates = ((Optimiser) oldWorkflowContainer).successRates;
+        }
     }
 
     @Override
     public Workflow chooseWorkflow(Mediator input) {
-        return chosenWorkflows.get(input.getHistory());
+        return toChild(chosenWorkflows.get(input.getHistory()));
+    }
+
+    /**
+     * @return an unmodifiable view of the success rate of each workflow for each history, from
+     *         the last time this was trained.
+     */
+    public Map<Workflow,Map<History,Double>> getSuccessRates() {
+        Map<Workflow,Map<History,Double>> rates = new HashMap<>();
+        for (Map.Entry<Workflow,Map<History,Double>> e : successRates.entrySet()) {
+            Workflow workflow = toChild(e.getKey());
+            if (workflow != null)
+                rates.put(workflow, Collections.unmodifiableMap(e.getValue()));
+        }
+        return Collections.unmodifiableMap(rates);
+    }
+
+    /**
+     * Gets this object's version of the given workflow, which may have been chosen while an
+     * earlier version of this was being trained.
+     *
+     * @param workflow the workflow (or an earlier version of it).
+     * @return the version of the workflow that is a child of this, or null if there isn't one.
+     */
+    private Workflow toChild(Workflow workflow) {
+        if (workflow == null || workflow.getParent() == this)
+            return workflow;
+
+        for (Workflow child : getChildren())
+            if (child.getUUID().equals(workflow.getUUID()))
+                return child;
+
+        return null;
     }
 
     @Override
@@ -38,12 +83,12 @@ public class Optimiser extends ChooserWorkflowContainer {
     }
 
     @Override
-    public void handleSuccessfulInputsByWorkflowAndHistory(
+    public Map<History, Workflow> handleSuccessfulInputsByWorkflowAndHistory(
             Map<History, Set<Mediator>> allInputsByHistory,
             Map<History, Map<Workflow, Set<Mediator>>> successfulInputsByWorkflowAndHistory) {
 
-        successRates.clear();
-        chosenWorkflows.clear();
+        final Map<History,Workflow> chosenWorkflows = new HistoryMap<>();
+        final Map<Workflow,Map<History,Double>> successRates = new HashMap<>();
 
         for (Map.Entry<History, Map<Workflow, Set<Mediator>>> e1 : successfulInputsByWorkflowAndHistory.entrySet()) {
             History history = e1.getKey();
@@ -59,7 +104,7 @@ public class Optimiser extends ChooserWorkflowContainer {
                 Map<History, Double> workflowSuccessRateByHistory = successRates.get(workflow);
 
                 if (workflowSuccessRateByHistory == null) {
-                    workflowSuccessRateByHistory = new HashMap<>();
+                    workflowSuccessRateByHistory = new HistoryMap<>();
                     successRates.put(workflow, workflowSuccessRateByHistory);
                 }
 
@@ -76,7 +121,19 @@ public class Optimiser extends ChooserWorkflowContainer {
             chosenWorkflows.put(history, bestWorkflowForHistory);
         }
 
+        TrainingSession.publish(this, new Runnable() {
+            @Override
+            public void run() {
+                // Versions made while this was being trained copied the old choices.
+                for (Versioned version = Optimiser.this; version instanceof Optimiser;
+                     version = version.getNext()) {
+                    ((Optimiser) version).chosenWorkflows = chosenWorkflows;
+                    ((Optimiser) version).successRates = successRates;
+                }
+            }
+        });
 
+        return chosenWorkflows;
     }
 
     @Override
@@ -1,22 +1,37 @@
 package io.github.samwright.framework.model;
 
-import com.google.common.collect.Sets;
 import io.github.samwright.framework.controller.ModelController;
-import io.github.samwright.framework.model.helper.CompletedTrainingBatch;
-import io.github.samwright.framework.model.helper.Mediator;
-import io.github.samwright.framework.model.helper.TypeData;
+import io.github.samwright.framework.model.helper.*;
 import lombok.Getter;
+import org.w3c.dom.Document;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * A {@link WorkflowContainer} that allows for all of its {@link Workflow} objects to
  * concurrently process input data, before finally joining them together back into a single
  * {@link Mediator} output.
+ * <p/>
+ * The workflows are run on a shared {@link BranchExecutor}, whose pool size can be set per
+ * container (and is saved in the XML).  Shadow frames are run on the low-priority shadow
+ * executor instead (see {@code BranchExecutor.getShadow()}).
+ * <p/>
+ * When processing training data, an output is created for every combination of the
+ * workflows' outputs.  The combinations are built lazily, in chunks on the training executor
+ * (see {@code BranchExecutor.getTraining()}), and the number of them can be capped (in which
+ * case they are sampled evenly).
  */
 public abstract class SplitJoinWorkflowContainer extends AbstractWorkflowContainer {
 
     @Getter private List<TypeData> requiredWorkflowTypeData;
+    @Getter private int poolSize = 0;
+    @Getter private int maxCombinations = 0;
+
+    /**
+     * The number of combinations of training data joined by each task on the executor.
+     */
+    public static final int COMBINATION_CHUNK_SIZE = 256;
 
     public SplitJoinWorkflowContainer(TypeData typeData, List<TypeData> requiredWorkflowTypeData) {
         super(typeData);
@@ -26,6 +41,8 @@ public abstract class SplitJoinWorkflowContainer extends AbstractWorkflowContain
     public SplitJoinWorkflowContainer(SplitJoinWorkflowContainer oldWorkflowContainer) {
         super(oldWorkflowContainer);
         this.requiredWorkflowTypeData = oldWorkflowContainer.getRequiredWorkflowTypeData();
+        this.poolSize = oldWorkflowContainer.getPoolSize();
+        this.maxCombinations = oldWorkflowContainer.getMaxCombinations();
     }
 
     public SplitJoinWorkflowContainer withRequiredWorkflowTypeData(List<TypeData> requiredWorkflowTypeData) {
@@ -37,9 +54,64 @@ public abstract class SplitJoinWorkflowContainer extends AbstractWorkflowContain
         }
     }
 
+    /**
+     * Returns this (or if this is not mutable, a clone) with the given number of threads to
+     * run its workflows on.  Containers with the same pool size share the same threads.
+     *
+     * @param poolSize the number of threads, or 0 to use the default shared pool.
+     * @return a {@code SplitJoinWorkflowContainer} with the given pool size.
+     */
+    public SplitJoinWorkflowContainer withPoolSize(int poolSize) {
+        if (isMutable()) {
+            this.poolSize = poolSize;
+            return this;
+        } else {
+            return createMutableClone().withPoolSize(poolSize);
+        }
+    }
+
+    /**
+     * Returns this (or if this is not mutable, a clone) with the given maximum number of
+     * training data outputs created from the combinations of the workflows' outputs.  If there
+     * are more combinations, they are sampled evenly.
+     *
+     * @param maxCombinations the maximum number of combinations, or 0 for no maximum.
+     * @return a {@code SplitJoinWorkflowContainer} with the given maximum number of combinations.
+     */
+    public SplitJoinWorkflowContainer withMaxCombinations(int maxCombinations) {
+        if (isMutable()) {
+            this.maxCombinations = maxCombinations;
+            return this;
+        } else {
+            return createMutableClone().withMaxCombinations(maxCombinations);
+        }
+    }
+
     @Override
     public abstract SplitJoinWorkflowContainer createMutableClone();
 
+    @Override
+    public SplitJoinWorkflowContainer withXML(org.w3c.dom.Element node, Map<UUID, Processor> map) {
+        if (!isMutable())
+            return createMutableClone().withXML(node, map);
+
+        super.withXML(node, map);
+        if (XMLHelper.hasChildWithName(node, "PoolSize"))
+            poolSize = Integer.parseInt(XMLHelper.getDataUnderNode(node, "PoolSize"));
+        if (XMLHelper.hasChildWithName(node, "MaxCombinations"))
+            maxCombinations = Integer.parseInt(XMLHelper.getDataUnderNode(node, "MaxCombinations"));
+
+        return this;
+    }
+
+    @Override
+    public org.w3c.dom.Element getXMLForDocument(Document doc) {
+        org.w3c.dom.Element node = super.getXMLForDocument(doc);
+        XMLHelper.addDataUnderNode(node, "PoolSize", String.valueOf(poolSize));
+        XMLHelper.addDataUnderNode(node, "MaxCombinations", String.valueOf(maxCombinations));
+        return node;
+    }
+
     @Override
     public boolean isValid() {
         if (requiredWorkflowTypeData.size() != getChildren().size())
@@ -55,43 +127,57 @@ public abstract class SplitJoinWorkflowContainer extends AbstractWorkflowContain
     }
 
     @Override
-    public Mediator process(Mediator input) {
-        final ArrayList<Mediator> outputs = new ArrayList<>();
+    public Mediator process(final Mediator input) {
+        List<Workflow> workflows = getChildren();
+        List<Mediator> outputs = new ArrayList<>(workflows.size());
+        List<Callable<Mediator>> branches = new ArrayList<>();
+
+        for (final Workflow workflow : workflows) {
+            if (workflow.getChildren().isEmpty()) {
+                // Nothing to process, so not worth handing to another thread.
+                outputs.add(processWorkflow(workflow, input));
+            } else {
+                outputs.add(null);
+                branches.add(new Callable<Mediator>() {
+                    @Override
+                    public Mediator call() {
+                        return processWorkflow(workflow, input);
+                    }
+                });
+            }
+        }
 
-        for (Workflow workflow : getChildren())
-            processWorkflow(workflow, input, outputs);
+        // Shadow frames are shed first, so their branches mustn't compete with live ones
+        BranchExecutor executor = input.getContext().isShadow()
+                ? BranchExecutor.getShadow() : getBranchExecutor();
 
+        // Fill in the gaps left by the branches that were run concurrently (in workflow order)
+        Iterator<Mediator> branchOutputs = executor.runAll(branches).iterator();
+        for (int i = 0; i < outputs.size(); ++i)
+            if (outputs.get(i) == null)
+                outputs.set(i, branchOutputs.next());
 
-        synchronized (outputs) {
-            while (outputs.size() != getChildren().size()) {
-                try {
-                    outputs.wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+        // The branches check the frame's deadline themselves, but joining might be expensive too
+        input.getContext().checkpoint(this);
 
-        // Order by workflow:
-        ArrayList<Mediator> orderedOutputs = new ArrayList<>();
-        for (int i = 0; i < getChildren().size(); ++i) {
-            orderedOutputs.add(null);
-        }
+        // Joining the same (static) branch outputs again gives the same data, so reuse it
+        ProcessingMemo memo = ProcessingMemo.getShared();
+        Object joinedData = memo == null ? null : memo.lookup(this, outputs);
 
-        for (Mediator output : outputs) {
-            Workflow creator = (Workflow) output.getHistory().getCreator();
-            int index = getChildren().indexOf(creator);
-            orderedOutputs.set(index, output);
+        if (joinedData == null) {
+            joinedData = joinOutputMediators(outputs);
+            if (memo != null)
+                memo.store(this, outputs, joinedData);
         }
 
         return input
-                .join(this, orderedOutputs)
-                .createNext(this, joinOutputMediators(orderedOutputs));
+                .join(this, outputs)
+                .createNext(this, joinedData);
     }
 
     @Override
-    public List<Mediator> processTrainingData(Mediator input) {
-        List<Set<Mediator>> allWorkflowsOutputs = new ArrayList<>();
+    public List<Mediator> processTrainingData(final Mediator input) {
+        List<List<Mediator>> allWorkflowsOutputs = new ArrayList<>();
 
         for (Workflow workflow : getChildren()) {
             List<Mediator> workflowOutput = workflow.processTrainingData(input);
@@ -100,21 +186,86 @@ public abstract class SplitJoinWorkflowContainer extends AbstractWorkflowContain
             if (controller != null)
                 controller.handleProcessedTrainingData(workflowOutput);
 
-            allWorkflowsOutputs.add(new HashSet<>(workflowOutput));
+            allWorkflowsOutputs.add(workflowOutput);
         }
 
-        Set<List<Mediator>> combinations = Sets.cartesianProduct(allWorkflowsOutputs);
-
-        List<Mediator> outputs = new ArrayList<>();
-        for (List<Mediator> combination : combinations) {
-            outputs.add(input
-                    .join(this, combination)
-                    .createNext(this, joinOutputMediators(combination)));
+        final Combinations<Mediator> combinations = new Combinations<>(allWorkflowsOutputs);
+        final long combinationCount = combinations.size();
+        final int outputCount;
+
+        if (maxCombinations > 0 && combinationCount > maxCombinations)
+            outputCount = maxCombinations;
+        else if (combinationCount > Integer.MAX_VALUE)
+            throw new RuntimeException(combinationCount + " combinations of training data is " +
+                    "too many.  Try setting a maximum number of combinations.");
+        else
+            outputCount = (int) combinationCount;
+
+        List<Callable<List<Mediator>>> chunks = new ArrayList<>();
+        for (int chunkStart = 0; chunkStart < outputCount; chunkStart += COMBINATION_CHUNK_SIZE) {
+            final int from = chunkStart;
+            final int to = Math.min(outputCount, chunkStart + COMBINATION_CHUNK_SIZE);
+
+            chunks.add(new Callable<List<Mediator>>() {
+                @Override
+                public List<Mediator> call() {
+                    List<Mediator> chunkOutputs = new ArrayList<>(to - from);
+                    for (int i = from; i < to; ++i) {
+                        List<Mediator> combination = combinations.get(
+                                getSampledIndex(i, outputCount, combinationCount));
+                        chunkOutputs.add(joinTrainingData(input, combination));
+                    }
+                    return chunkOutputs;
+                }
+            });
         }
 
+        List<Mediator> outputs = new ArrayList<>(outputCount);
+        for (List<Mediator> chunkOutputs : BranchExecutor.getTraining().runAll(chunks))
+            outputs.addAll(chunkOutputs);
+
         return outputs;
     }
 
+    /**
+     * Joins a combination of the workflows' training data outputs, reading the joined data from
+     * the shared {@link TrainingCache} if possible (and writing it to the cache otherwise).
+     */
+    private Mediator joinTrainingData(Mediator input, List<Mediator> combination) {
+        TrainingCache cache = TrainingCache.getShared();
+        String entryKey = cache == null ? null : cache.getEntryKey(this, combination);
+        Object joinedData = null;
+
+        if (entryKey != null) {
+            List<Object> cachedData = cache.read(entryKey);
+            if (cachedData != null)
+                joinedData = cachedData.get(0);
+        }
+
+        if (joinedData == null) {
+            joinedData = joinOutputMediators(combination);
+            if (entryKey != null)
+                cache.write(entryKey, Arrays.asList(joinedData));
+        }
+
+        Mediator output = input.join(this, combination).createNext(this, joinedData);
+        if (entryKey != null)
+            cache.setOutputKeys(entryKey, Arrays.asList(output));
+
+        return output;
+    }
+
+    /**
+     * Gets the index of the i'th of n combinations evenly sampled from all the combinations.
+     */
+    private static long getSampledIndex(int i, int n, long combinationCount) {
+        if (n == combinationCount)
+            return i;
+
+        // ie. i * combinationCount / n, without overflowing
+        return i * (combinationCount / n) + i * (combinationCount % n) / n;
+    }
+
     /**
      * Joins the data in the supplied mediators into one output data (to be used in the final
      * output mediator).  The supplied mediators are the outputs of the child workflows (in the
@@ -125,29 +276,24 @@ public abstract class SplitJoinWorkflowContainer extends AbstractWorkflowContain
      */
     public abstract Object joinOutputMediators(List<Mediator> mediators);
 
-    private void processWorkflow(final Workflow workflow,
-                                 final Mediator mediator,
-                                 final List<Mediator> outputs) {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                Mediator output = null;
-                try {
-                    output = workflow.process(mediator);
-
-                    ModelController controller = workflow.getController();
-                    if (controller != null)
-                        controller.handleProcessedData(output);
-
-                } finally {
-                    synchronized (outputs) {
-                        outputs.add(output);
-                        outputs.notifyAll();
-                    }
-                }
+    /**
+     * Gets the executor that the workflows are run on, which has {@code getPoolSize()} threads
+     * (or the default number if that is 0).
+     *
+     * @return the executor that the workflows are run on.
+     */
+    public BranchExecutor getBranchExecutor() {
+        return BranchExecutor.getInstance(poolSize);
+    }
 
-            }
-        }).start();
+    private static Mediator processWorkflow(Workflow workflow, Mediator mediator) {
+        Mediator output = workflow.process(mediator);
+
+        ModelController controller = workflow.getController();
+        if (controller != null && !output.getContext().isShadow())
+            controller.handleProcessedData(output);
+
+        return output;
     }
 
     @Override
@@ -156,22 +302,16 @@ public abstract class SplitJoinWorkflowContainer extends AbstractWorkflowContain
         completedTrainingBatch = super.processCompletedTrainingBatch(completedTrainingBatch);
 
         // Now each mediator's data is the list of mediators that joined to create it.
-        Map<Workflow, Set<Mediator>> allMediatorsMap
-                = rollbackMediatorsToWorkflows(completedTrainingBatch.getAll());
-        Map<Workflow, Set<Mediator>> successfulMediatorsMap
-                = rollbackMediatorsToWorkflows(completedTrainingBatch.getSuccessful());
+        List<CompletedTrainingBatch> workflowBatches
+                = completedTrainingBatch.partitionJoinedByCreator(getChildren());
 
         // Let workflows process the completed set...
-        for (Map.Entry<Workflow, Set<Mediator>> entry : allMediatorsMap.entrySet()) {
-            Workflow workflow = entry.getKey();
-            Set<Mediator> allMediators = entry.getValue();
-            Set<Mediator> successfulMediators = successfulMediatorsMap.get(workflow);
-
-            if (successfulMediators == null)
-                successfulMediators = Collections.emptySet();
+        for (int i = 0; i < getChildren().size(); ++i) {
+            Workflow workflow = getChildren().get(i);
+            CompletedTrainingBatch workflowBatch = workflowBatches.get(i);
 
-            CompletedTrainingBatch workflowBatch
-                    = new CompletedTrainingBatch(allMediators, successfulMediators);
+            if (workflowBatch.getAll().isEmpty())
+                continue;
 
             workflow.processCompletedTrainingBatch(workflowBatch);
 
@@ -182,36 +322,4 @@ public abstract class SplitJoinWorkflowContainer extends AbstractWorkflowContain
 
         return completedTrainingBatch.rollBack();
     }
-
-    /**
-     * Returns the set of training data mediators that each workflow outputted (on the forward
-     * pass of training data).
-     *
-     * @param mediators the set of mediators before being joined, which each contain (as their
-     *                  data) the list of mediators to join (in the same order as the workflows
-     *                  that created them).
-     * @return the set of training data mediators that each workflow outputted (on the forward
-     * pass of training data).
-     */
-    @SuppressWarnings("unchecked")
-    private Map<Workflow, Set<Mediator>> rollbackMediatorsToWorkflows(Set<Mediator> mediators) {
-        Map<Workflow, Set<Mediator>> mediatorsPerWorkflow = new HashMap<>();
-
-        for (Mediator mediator : mediators) {
-            List<Mediator> outputsBeforeJoin = (List<Mediator>) mediator.getData();
-            for (Mediator outputBeforeJoin : outputsBeforeJoin) {
-                Workflow creator = (Workflow) outputBeforeJoin.getHistory().getCreator();
-                Set<Mediator> mediatorsFromCreator = mediatorsPerWorkflow.get(creator);
-
-                if (mediatorsFromCreator == null) {
-                    mediatorsFromCreator = new HashSet<>();
-                    mediatorsPerWorkflow.put(creator, mediatorsFromCreator);
-                }
-
-                mediatorsFromCreator.add(outputBeforeJoin);
-            }
-        }
-
-        return mediatorsPerWorkflow;
-    }
 }
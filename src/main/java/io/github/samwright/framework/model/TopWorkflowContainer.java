@@ -1,34 +1,65 @@
 package io.github.samwright.framework.model;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import io.github.samwright.framework.controller.ModelController;
 import io.github.samwright.framework.controller.TopController;
 import io.github.samwright.framework.model.datatypes.StartType;
-import io.github.samwright.framework.model.helper.CompletedTrainingBatch;
-import io.github.samwright.framework.model.helper.Mediator;
-import io.github.samwright.framework.model.helper.TypeData;
+import io.github.samwright.framework.model.helper.*;
 import io.github.samwright.framework.model.mock.TopProcessor;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.util.HashSet;
-import java.util.List;
+import java.util.*;
 
 /**
  * An implementation of {@link TopProcessor}.
+ * <p/>
+ * Live processing (ie. {@code process()}, submitted frames and streaming) and training have
+ * separate locks, so the model can be retrained in the background (at the lowest priority)
+ * without stopping live processing.  Live processing uses the state from the last time the
+ * model was trained until training completes, when the new state of every trained element is
+ * published at once (see {@link TrainingSession}).
+ * <p/>
+ * Every version of the model shares the same locks, so one version can't be trained while
+ * another is.  They also share the same streams, so streaming carries on through edits: when a
+ * new version becomes current, each stream picks up the new version of its workflow between
+ * frames (see {@link FrameStream}), streams are started for new workflows and stopped for
+ * removed ones.
  */
 public class TopWorkflowContainer extends AbstractWorkflowContainer implements TopProcessor {
 
     @Getter @Setter private boolean transientModel = false;
-    private Object[] processLock = new Object[0];
-    @Getter private boolean busy = false;
-
+    private final Activity activity;
+    private final Streams streams;
+    private Object[] frameQueueLock = new Object[0];
+    private FrameQueue frameQueue;
+    @Getter private BackpressurePolicy backpressurePolicy = BackpressurePolicy.BLOCK;
+    @Getter private int frameQueueCapacity = DEFAULT_FRAME_QUEUE_CAPACITY;
+    @Getter private long frameBudgetMillis = 0;
+
+    /**
+     * The number of frames that can wait between each pair of stages when streaming.
+     */
+    public static final int STREAM_QUEUE_CAPACITY = 2;
+
+    /**
+     * The default number of submitted frames that can wait to be processed.
+     */
+    public static final int DEFAULT_FRAME_QUEUE_CAPACITY = 4;
 
     public TopWorkflowContainer() {
         super(new TypeData(StartType.class, Object.class));
+        activity = new Activity();
+        streams = new Streams();
     }
 
     public TopWorkflowContainer(TopWorkflowContainer oldWorkflowContainer) {
         super(oldWorkflowContainer);
+        activity = oldWorkflowContainer.activity;
+        streams = oldWorkflowContainer.streams;
+        backpressurePolicy = oldWorkflowContainer.getBackpressurePolicy();
+        frameQueueCapacity = oldWorkflowContainer.getFrameQueueCapacity();
+        frameBudgetMillis = oldWorkflowContainer.getFrameBudgetMillis();
     }
 
     public void process() {
@@ -36,45 +67,335 @@ public class TopWorkflowContainer extends AbstractWorkflowContainer implements T
             process(Mediator.createEmpty());
     }
 
+    /**
+     * Trains every element from scratch.  Does nothing if the model is already being trained.
+     */
     public void train() {
+        startTraining(Mediator.createEmpty(), true);
+    }
+
+    /**
+     * Trains the model, only retraining the elements that have changed since the last time it
+     * was trained (or whose training data has changed, eg. because an element before them has
+     * changed).  Every element is trained if there is no shared {@link TrainingRecord}.
+     */
+    public void trainChanges() {
         processTrainingData(Mediator.createEmpty());
     }
 
+    /**
+     * Starts continuously processing frames through every workflow, with each element running
+     * on its own worker thread (see {@link StagePipeline}).  Does nothing if already busy.
+     */
+    public void startStreaming() {
+        startStreaming(0);
+    }
+
+    /**
+     * Starts continuously processing frames through every workflow.  Does nothing if already
+     * busy.
+     *
+     * @param frameWorkers the number of frames to process concurrently in each workflow (see
+     *                     {@link FrameParallelStream}), or 0 to have each element run on its
+     *                     own worker thread instead (see {@link StagePipeline}).
+     */
+    public void startStreaming(int frameWorkers) {
+        if (!isValid() || !areChildrenValid())
+            return;
+
+        synchronized (streams) {
+            if (isBusy())
+                return;
+
+            // Clear out streams whose source has failed.
+            for (FrameStream stream : streams.byWorkflow.values())
+                stream.stop();
+            streams.byWorkflow.clear();
+
+            streams.frameWorkers = frameWorkers;
+            for (Workflow workflow : getChildren())
+                streams.byWorkflow.put(workflow.getUUID(), createStream(workflow, frameWorkers));
+
+            for (FrameStream stream : streams.byWorkflow.values())
+                stream.start();
+        }
+    }
+
+    /**
+     * Hands this version's workflows over to the running streams (if streaming), starting
+     * streams for new workflows and stopping the streams of removed ones.  Transient and
+     * invalid versions aren't streamed, so the streams carry on with the last valid version.
+     */
+    private void publishToStreams() {
+        if (transientModel || !isValid() || !areChildrenValid())
+            return;
+
+        synchronized (streams) {
+            if (streams.byWorkflow.isEmpty())
+                return;
+
+            Map<UUID, FrameStream> oldStreams = new LinkedHashMap<>(streams.byWorkflow);
+            streams.byWorkflow.clear();
+
+            for (Workflow workflow : getChildren()) {
+                FrameStream stream = oldStreams.remove(workflow.getUUID());
+                if (stream == null) {
+                    stream = createStream(workflow, streams.frameWorkers);
+                    stream.start();
+                } else {
+                    stream.publish(workflow);
+                }
+                streams.byWorkflow.put(workflow.getUUID(), stream);
+            }
+
+            for (FrameStream stream : oldStreams.values())
+                stream.stop();
+        }
+    }
+
+    @Override
+    public void setAsCurrentVersion() {
+        super.setAsCurrentVersion();
+        publishToStreams();
+    }
+
+    /**
+     * Sets how long each streamed frame has to be processed by a workflow before it is
+     * abandoned (see {@link FrameContext}).  Takes effect the next time streaming starts.
+     *
+     * @param millis the budget for each frame, in milliseconds, or 0 for no budget.
+     */
+    public void setFrameBudgetMillis(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("Budget can't be negative: " + millis);
+        frameBudgetMillis = millis;
+    }
+
+    private FrameStream createStream(Workflow workflow, int frameWorkers) {
+        FrameStream stream;
+
+        if (frameWorkers > 0) {
+            stream = new FrameParallelStream(workflow, frameWorkers) {
+                @Override
+                protected void handleOutput(Mediator output) {
+                }
+
+                @Override
+                protected void handleException(RuntimeException e) {
+                    handleStreamException(e);
+                }
+            };
+        } else {
+            stream = new StagePipeline(workflow, STREAM_QUEUE_CAPACITY) {
+                @Override
+                protected void handleOutput(Mediator output) {
+                }
+
+                @Override
+                protected void handleException(RuntimeException e) {
+                    handleStreamException(e);
+                }
+            };
+        }
+
+        stream.setFrameBudgetMillis(frameBudgetMillis);
+        return stream;
+    }
+
+    private void handleStreamException(RuntimeException e) {
+        if (getController() != null)
+            getController().handleException(e);
+    }
+
+    /**
+     * Runs a candidate version of the model in shadow alongside the streams, on copies of the
+     * same frames (see {@link ShadowEvaluator}).  Each stream is shadowed by the candidate's
+     * version of its workflow (ie. the one with the same UUID), if it has one.  Replaces any
+     * candidate already being shadowed.
+     *
+     * @param candidate the candidate version of the model.
+     * @return the evaluator for each workflow that is being shadowed.
+     */
+    public List<ShadowEvaluator> startShadowing(TopWorkflowContainer candidate) {
+        stopShadowing();
+
+        Map<UUID, Workflow> candidateWorkflows = new HashMap<>();
+        for (Workflow workflow : candidate.getChildren())
+            candidateWorkflows.put(workflow.getUUID(), workflow);
+
+        List<ShadowEvaluator> evaluators = new ArrayList<>();
+        synchronized (streams) {
+            for (Map.Entry<UUID, FrameStream> e : streams.byWorkflow.entrySet()) {
+                Workflow candidateWorkflow = candidateWorkflows.get(e.getKey());
+                if (candidateWorkflow != null) {
+                    ShadowEvaluator evaluator = new ShadowEvaluator(candidateWorkflow);
+                    e.getValue().setShadowEvaluator(evaluator);
+                    evaluators.add(evaluator);
+                }
+            }
+        }
+
+        return evaluators;
+    }
+
+    /**
+     * Stops running a candidate in shadow.
+     */
+    public void stopShadowing() {
+        synchronized (streams) {
+            for (FrameStream stream : streams.byWorkflow.values()) {
+                ShadowEvaluator evaluator = stream.getShadowEvaluator();
+                if (evaluator != null) {
+                    stream.setShadowEvaluator(null);
+                    evaluator.shutdown();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops streaming, discarding any frames still being processed.
+     */
+    public void stopStreaming() {
+        stopShadowing();
+
+        synchronized (streams) {
+            for (FrameStream stream : streams.byWorkflow.values())
+                stream.stop();
+            streams.byWorkflow.clear();
+        }
+
+        if (getController() != null)
+            getController().handleProcessedData(null);
+    }
+
+    /**
+     * @return true if frames are being continuously processed.
+     */
+    public boolean isStreaming() {
+        synchronized (streams) {
+            for (FrameStream stream : streams.byWorkflow.values())
+                if (stream.isRunning())
+                    return true;
+            return false;
+        }
+    }
+
+    /**
+     * @return true if a frame is being processed (by {@code process()}), or if streaming.
+     */
+    public boolean isBusy() {
+        return activity.processing || isStreaming();
+    }
+
+    /**
+     * @return true if the model is being trained.
+     */
+    public boolean isTraining() {
+        return activity.training;
+    }
+
+    /**
+     * Submits a frame to be processed by every workflow, in turn.  Frames are processed one at a
+     * time, in the order they were submitted, and never at the same time as {@code process()}
+     * (but possibly while the model is being trained).
+     * <p/>
+     * If too many frames are waiting to be processed, the {@link BackpressurePolicy} decides
+     * whether this waits for room or drops waiting frames.
+     * <p/>
+     * To give the frame a deadline, create its empty {@code Mediator} with a
+     * {@link FrameContext}.  Cancelling the returned future abandons the frame at the next
+     * checkpoint, even if it is already being processed.
+     *
+     * @param input the frame to process.
+     * @return a future for the output of the last workflow.  It is cancelled if the frame is
+     *         dropped, and fails with the exception thrown by the first workflow to fail (which
+     *         is a {@link FrameAbandonedException} if the frame was abandoned).
+     */
+    public ListenableFuture<Mediator> submit(Mediator input) {
+        FrameQueue queue;
+        synchronized (frameQueueLock) {
+            if (frameQueue == null) {
+                frameQueue = new FrameQueue(backpressurePolicy, frameQueueCapacity) {
+                    @Override
+                    protected Mediator processFrame(Mediator input) {
+                        synchronized (activity.processLock) {
+                            Mediator output = null;
+                            for (Workflow workflow : getChildren())
+                                output = processWorkflow(workflow, input);
+                            return output;
+                        }
+                    }
+                };
+            }
+            queue = frameQueue;
+        }
+
+        // Outside the lock, since it may wait for room in the queue.
+        return queue.submit(input);
+    }
+
+    /**
+     * Sets what happens to submitted frames when too many are waiting to be processed.  Any
+     * frames already waiting are dropped.
+     *
+     * @param policy what to do with a submitted frame when the queue is full.
+     * @param capacity the maximum number of frames that can wait to be processed.
+     */
+    public void setBackpressurePolicy(BackpressurePolicy policy, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1, not " + capacity);
+
+        synchronized (frameQueueLock) {
+            if (frameQueue != null) {
+                frameQueue.clear();
+                frameQueue = null;
+            }
+            backpressurePolicy = policy;
+            frameQueueCapacity = capacity;
+        }
+    }
+
+    private static Mediator processWorkflow(Workflow workflow, Mediator input) {
+        Mediator output = workflow.process(input);
+
+        ModelController controller = workflow.getController();
+        if (controller != null)
+            controller.handleProcessedData(output);
+
+        return output;
+    }
+
     @Override
     public Mediator process(final Mediator input) {
         final List<Workflow> workflows = getChildren();
 
-        if (busy)
+        if (isBusy())
             return null;
 
-        new Thread(new Runnable() {
+        SharedExecutors.getBackground().execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (processLock) {
+                synchronized (activity.processLock) {
                     try {
-                        busy = true;
+                        activity.processing = true;
                         for (Workflow workflow : workflows) {
                             try {
-                                Mediator output = workflow.process(input);
-
-                                ModelController controller = workflow.getController();
-                                if (controller != null)
-                                    controller.handleProcessedData(output);
-
+                                processWorkflow(workflow, input);
                             } catch (final RuntimeException e) {
-                                busy = false;
+                                activity.processing = false;
                                 if (getController() != null)
                                     getController().handleException(e);
                             }
                         }
                     } finally {
-                        busy = false;
+                        activity.processing = false;
                         if (getController() != null)
                             getController().handleProcessedData(null);
                     }
                 }
             }
-        }).start();
+        });
 
         return null;
     }
@@ -84,58 +405,133 @@ public class TopWorkflowContainer extends AbstractWorkflowContainer implements T
         throw new RuntimeException("You have no good reason to call this.");
     }
 
+    /**
+     * Trains the model in the background, at the lowest priority.  Live processing carries on
+     * meanwhile, and the new trained state is published once every workflow has been trained.
+     * Does nothing if the model is already being trained.
+     *
+     * @param input the (empty) input to the first elements.
+     * @return null, since the training data is processed in the background.
+     */
     @Override
-    public List<Mediator> processTrainingData(final Mediator input) {
+    public List<Mediator> processTrainingData(Mediator input) {
+        startTraining(input, false);
+        return null;
+    }
+
+    /**
+     * Trains the model in the background (see {@code processTrainingData(..)}), unless it is
+     * already being trained.
+     *
+     * @param input the (empty) input to the first elements.
+     * @param fromScratch whether to forget what this model's elements were trained with last
+     *                    time (see {@link TrainingRecord}), so they are all retrained.
+     */
+    private void startTraining(final Mediator input, final boolean fromScratch) {
         final List<Workflow> workflows = getChildren();
 
-        if (busy)
-            return null;
+        synchronized (activity.trainingLock) {
+            if (activity.training)
+                return;
+            activity.training = true;
+        }
 
-        new Thread(new Runnable() {
+        SharedExecutors.getTraining().execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (processLock) {
-                    busy = true;
-                    try {
-                        for (Workflow workflow : workflows) {
-                            List<Mediator> completedTrainingData;
-                            ModelController controller = workflow.getController();
+                TrainingSession session = TrainingSession.start(TopWorkflowContainer.this);
+                TrainingRecord record = TrainingRecord.getShared();
+                if (record != null && fromScratch)
+                    record.clear(TopWorkflowContainer.this);
+                long pass = record == null ? 0 : record.startPass();
 
-                            try {
-                                completedTrainingData = workflow.processTrainingData(input);
+                try {
+                    for (Workflow workflow : workflows) {
+                        List<Mediator> completedTrainingData;
+                        ModelController controller = workflow.getController();
 
-                                if (controller != null)
-                                    controller.handleProcessedTrainingData(completedTrainingData);
+                        try {
+                            completedTrainingData = workflow.processTrainingData(input);
 
-                            } catch (RuntimeException e) {
-                                if (getController() != null)
-                                    getController().handleException(e);
-                                continue;
-                            }
+                            if (controller != null)
+                                controller.handleProcessedTrainingData(completedTrainingData);
 
-                            HashSet<Mediator> outputMediators = new HashSet<>(completedTrainingData);
-                            CompletedTrainingBatch completedTrainingBatch = new CompletedTrainingBatch(
-                                    outputMediators,
-                                    outputMediators
-                            );
+                        } catch (RuntimeException e) {
+                            if (getController() != null)
+                                getController().handleException(e);
+                            continue;
+                        }
 
-                            workflow.processCompletedTrainingBatch(completedTrainingBatch);
+                        HashSet<Mediator> outputMediators = new HashSet<>(completedTrainingData);
+                        CompletedTrainingBatch completedTrainingBatch = new CompletedTrainingBatch(
+                                outputMediators,
+                                outputMediators
+                        );
 
-                            if (controller != null)
-                                controller.handleTrained();
-                        }
-                    } finally {
-                        busy = false;
-                        if (getController() != null) {
-                            getController().handleProcessedTrainingData(null);
-                            getController().handleTrained();
-                        }
+                        workflow.processCompletedTrainingBatch(completedTrainingBatch);
+
+                        if (controller != null)
+                            controller.handleTrained();
+                    }
+                } finally {
+                    if (record != null)
+                        record.endPass(pass);
+
+                    publishBetweenFrames(session);
+
+                    activity.training = false;
+                    if (getController() != null) {
+                        getController().handleProcessedTrainingData(null);
+                        getController().handleTrained();
                     }
                 }
             }
-        }).start();
+        });
+    }
 
-        return null;
+    /**
+     * Finishes a training session between frames, so no frame sees a mix of old and new state:
+     * processed and submitted frames hold the process lock, and each stream holds back new
+     * frames until those in flight have finished (see {@code FrameStream.runBetweenFrames(..)}).
+     * The memoised outputs of this model's old state are then stale.
+     *
+     * @param session the session to finish.
+     */
+    private void publishBetweenFrames(final TrainingSession session) {
+        Runnable publication = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (activity.processLock) {
+                    session.finish();
+
+                    ProcessingMemo memo = ProcessingMemo.getShared();
+                    if (memo != null)
+                        memo.clear(TopWorkflowContainer.this);
+                }
+            }
+        };
+
+        // Hold the streams, so none are started (with part-published state) in the meantime.
+        synchronized (streams) {
+            runBetweenFrames(new ArrayList<>(streams.byWorkflow.values()).iterator(), publication);
+        }
+    }
+
+    /**
+     * Runs a task between the frames of every stream.
+     */
+    private static void runBetweenFrames(final Iterator<FrameStream> streams, final Runnable task) {
+        if (!streams.hasNext()) {
+            task.run();
+            return;
+        }
+
+        streams.next().runBetweenFrames(new Runnable() {
+            @Override
+            public void run() {
+                runBetweenFrames(streams, task);
+            }
+        });
     }
 
     @Override
@@ -157,6 +553,26 @@ public class TopWorkflowContainer extends AbstractWorkflowContainer implements T
                     "not a: " + controller.getClass());
     }
 
+    /**
+     * Whether a model is being processed or trained, shared by every version of the model so
+     * that training started on one version publishes atomically with respect to processing on
+     * any other, and only one version can be trained at a time.
+     */
+    private static class Activity {
+        private final Object[] processLock = new Object[0];
+        private volatile boolean processing = false;
+        private final Object[] trainingLock = new Object[0];
+        private volatile boolean training = false;
+    }
+
+    /**
+     * The streams shared by every version of a model, by the UUID of the workflow they stream.
+     */
+    private static class Streams {
+        private final Map<UUID, FrameStream> byWorkflow = new LinkedHashMap<>();
+        private int frameWorkers;
+    }
+
     public TopWorkflowContainer getPreviousCompleted() {
         TopWorkflowContainer pointer = (TopWorkflowContainer) getPrevious();
 
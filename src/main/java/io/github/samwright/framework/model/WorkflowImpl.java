@@ -2,8 +2,17 @@ package io.github.samwright.framework.model;
 
 import io.github.samwright.framework.controller.ModelController;
 import io.github.samwright.framework.model.common.ElementObserver;
+import io.github.samwright.framework.model.helper.BatchHelper;
 import io.github.samwright.framework.model.helper.CompletedTrainingBatch;
+import io.github.samwright.framework.model.helper.ExecutionPlan;
+import io.github.samwright.framework.model.helper.FrameAbandonedException;
+import io.github.samwright.framework.model.helper.FrameContext;
 import io.github.samwright.framework.model.helper.Mediator;
+import io.github.samwright.framework.model.helper.NotificationBus;
+import io.github.samwright.framework.model.helper.RetentionPolicy;
+import io.github.samwright.framework.model.helper.SharedPrefixPlan;
+import io.github.samwright.framework.model.helper.TrainingFanOut;
+import io.github.samwright.framework.model.helper.TrainingRecord;
 import io.github.samwright.framework.model.helper.TypeData;
 import lombok.Getter;
 
@@ -15,6 +24,7 @@ import java.util.*;
 public class WorkflowImpl extends AbstractWorkflow {
 
     @Getter private List<Element> invalidlyOrderedElements;
+    private volatile ExecutionPlan executionPlan;
 
     /**
      * Constructs the initial (and immutable) {@code WorkflowImpl}.
@@ -71,62 +81,220 @@ public class WorkflowImpl extends AbstractWorkflow {
     public Mediator process(Mediator input) {
         Mediator output = input;
 
-        for (Element e : getChildren()) {
-            output = e.process(input);
+        if (isMutable()) {
+            for (Element e : getChildren()) {
+                output = processElement(e, input);
+                input = output;
+            }
+        } else {
+            output = getExecutionPlan().process(input);
+        }
+
+        return output.createNext(this, output.getData());
+    }
+
+    /**
+     * Gets the plan this (immutable) workflow uses to process data, compiling a new one if the
+     * model has been mutated since the last one was compiled.
+     *
+     * @return an up-to-date plan for processing data with this workflow.
+     */
+    public ExecutionPlan getExecutionPlan() {
+        ExecutionPlan plan = executionPlan;
+
+        if (plan == null || !plan.isCurrent()) {
+            plan = ExecutionPlan.compile(this);
+            executionPlan = plan;
+        }
+
+        return plan;
+    }
+
+    /**
+     * Has the given {@link Element} process the input, then notifies the element's observers
+     * and controller of the output (through the shared {@link NotificationBus}).  This is a
+     * single step of {@code process(input)}.
+     *
+     * @param element the element to process the input with.
+     * @param input the input to the element.
+     * @return the element's output.
+     * @throws NullPointerException if the element returned null.
+     * @throws FrameAbandonedException if the input's frame is cancelled or past its deadline.
+     */
+    public static Mediator processElement(Element element, Mediator input) {
+        FrameContext context = input.getContext();
+        context.checkpoint(element);
+
+        long start = System.nanoTime();
+        Mediator output = element.process(input);
+        context.recordStage(element, System.nanoTime() - start);
+
+        if (output == null)
+            throw new NullPointerException("Element " + element + " returned null as processed data");
+
+        NotificationBus bus = NotificationBus.getShared();
+
+        for (ElementObserver observer : element.getObservers())
+            bus.publish(observer, output, NotificationBus.Policy.EVERY);
+
+        ModelController controller = element.getController();
+        if (controller != null)
+            bus.publish(controller, output, NotificationBus.Policy.LATEST);
+
+        return output;
+    }
+
+    /**
+     * Has the given {@link Element} process a batch of inputs (see {@link BatchHelper}), then
+     * notifies the element's observers and controller of each output, in order.  This gives the
+     * same outputs and notifications as calling {@code processElement(..)} on each input, except
+     * that the inputs' frames aren't checkpointed first (so the caller should leave out any
+     * abandoned frames).  The time taken is shared evenly between the inputs' frames.
+     *
+     * @param element the element to process the inputs with.
+     * @param inputs the inputs to the element.
+     * @return the element's output for each input, in the same order as the inputs.
+     * @throws NullPointerException if the element didn't give an output for every input.
+     */
+    public static List<Mediator> processElementBatch(Element element, List<Mediator> inputs) {
+        if (inputs.isEmpty())
+            return new ArrayList<>();
+
+        long start = System.nanoTime();
+        List<Mediator> outputs = BatchHelper.processBatch(element, inputs);
+        long nanosPerInput = (System.nanoTime() - start) / inputs.size();
+
+        NotificationBus bus = NotificationBus.getShared();
+        ModelController controller = element.getController();
+
+        for (int i = 0; i < outputs.size(); ++i) {
+            Mediator output = outputs.get(i);
 
             if (output == null)
-                throw new NullPointerException("Element " + e + " returned null as processed data");
+                throw new NullPointerException("Element " + element + " returned null as processed data");
 
-            for (ElementObserver observer : e.getObservers())
-                observer.handleProcessedData(output);
+            inputs.get(i).getContext().recordStage(element, nanosPerInput);
 
-            ModelController controller = e.getController();
-            if (controller != null)
-                controller.handleProcessedData(output);
+            for (ElementObserver observer : element.getObservers())
+                bus.publish(observer, output, NotificationBus.Policy.EVERY);
 
-            input = output;
+            if (controller != null)
+                bus.publish(controller, output, NotificationBus.Policy.LATEST);
         }
 
-        return output.createNext(this, output.getData());
+        return outputs;
     }
 
     @Override
     public List<Mediator> processTrainingData(Mediator firstInput) {
-        List<Mediator> outputs, inputs = Arrays.asList(firstInput);
-
-        for (Element element : getChildren()) {
-            outputs = new LinkedList<>();
-            for (Mediator input : inputs)
-                outputs.addAll(element.processTrainingData(input));
+        return processTrainingData(Arrays.asList(firstInput), 0);
+    }
 
-            if (outputs.isEmpty() && !inputs.isEmpty())
-                throw new NullPointerException("Element " + element + " returned no training " +
-                        "data, even though it was given " + inputs.size());
+    /**
+     * Processes training data from the element with the given index onwards, as if the earlier
+     * elements had already output the given inputs.  This lets the outputs of the first elements
+     * be shared with another workflow that begins with the same elements (see
+     * {@link SharedPrefixPlan}).
+     * <p/>
+     * If there is a shared {@link RetentionPolicy}, the data of each element's outputs may be
+     * released once the next element has processed them (but the given inputs, which may be
+     * shared, are left alone).
+     *
+     * @param inputs the training data outputs of the element before {@code firstElement}.
+     * @param firstElement the index of the first element to process the inputs with.
+     * @return the workflow's training data outputs.
+     */
+    public List<Mediator> processTrainingData(List<Mediator> inputs, int firstElement) {
+        List<Element> children = getChildren();
+        RetentionPolicy retentionPolicy = RetentionPolicy.getShared();
 
-            ModelController controller = element.getController();
-            if (controller != null)
-                controller.handleProcessedTrainingData(outputs);
+        for (int i = firstElement; i < children.size(); ++i) {
+            List<Mediator> outputs = processTrainingElement(children.get(i), inputs);
 
-            for (ElementObserver observer : element.getObservers())
-                observer.handleProcessedTrainingData(outputs);
+            if (retentionPolicy != null && i > firstElement)
+                retentionPolicy.afterConsumed(children.get(i - 1), children.get(i), inputs);
 
             inputs = outputs;
         }
 
-        outputs = new ArrayList<>();
+        List<Mediator> outputs = new ArrayList<>();
         for (Mediator input : inputs)
             outputs.add(input.createNext(this, input.getData()));
         return outputs;
     }
 
+    /**
+     * Has the given {@link Element} process every training data input, then notifies the
+     * element's controller and observers of the outputs.  This is a single step of
+     * {@code processTrainingData(input)}.
+     * <p/>
+     * If there is a shared {@link TrainingRecord} and the element was given the same inputs last
+     * time, its outputs from last time are reused.
+     *
+     * @param element the element to process the inputs with.
+     * @param inputs the training data inputs.
+     * @return the element's outputs.
+     * @throws NullPointerException if the element returned no outputs for a non-empty input.
+     */
+    public static List<Mediator> processTrainingElement(Element element, List<Mediator> inputs) {
+        TrainingRecord record = TrainingRecord.getShared();
+        List<Mediator> outputs = record == null ? null : record.getOutputs(element, inputs);
+
+        if (outputs == null) {
+            outputs = TrainingFanOut.processAll(element, inputs);
+
+            if (outputs.isEmpty() && !inputs.isEmpty())
+                throw new NullPointerException("Element " + element + " returned no training " +
+                        "data, even though it was given " + inputs.size());
+
+            if (record != null)
+                outputs = record.recordOutputs(element, inputs, outputs);
+        }
+
+        notifyTrainingData(element, outputs);
+        return outputs;
+    }
+
+    /**
+     * Notifies the given {@link Element}'s controller and observers of its training data
+     * outputs.
+     *
+     * @param element the element that produced the outputs.
+     * @param outputs the element's training data outputs.
+     */
+    public static void notifyTrainingData(Element element, List<Mediator> outputs) {
+        ModelController controller = element.getController();
+        if (controller != null)
+            controller.handleProcessedTrainingData(outputs);
+
+        for (ElementObserver observer : element.getObservers())
+            observer.handleProcessedTrainingData(outputs);
+    }
+
+    /**
+     * Has each element (from last to first) train with the completed batch, and roll it back for
+     * the element before it.  If there is a shared {@link TrainingRecord} and an element is given
+     * the same batch as last time, it isn't retrained (and the batch is rolled back to the same
+     * inputs as last time).
+     */
     @Override
     public CompletedTrainingBatch processCompletedTrainingBatch(CompletedTrainingBatch completedTrainingBatch) {
         completedTrainingBatch = super.processCompletedTrainingBatch(completedTrainingBatch);
         ListIterator<Element> itr = getChildren().listIterator(getChildren().size());
+        TrainingRecord record = TrainingRecord.getShared();
 
         while (itr.hasPrevious()) {
             Element element = itr.previous();
-            completedTrainingBatch = element.processCompletedTrainingBatch(completedTrainingBatch);
+            CompletedTrainingBatch inputBatch = record == null
+                    ? null : record.getInputBatch(element, completedTrainingBatch);
+
+            if (inputBatch == null) {
+                inputBatch = element.processCompletedTrainingBatch(completedTrainingBatch);
+                if (record != null)
+                    record.recordInputBatch(element, completedTrainingBatch, inputBatch);
+            }
+
+            completedTrainingBatch = inputBatch;
 
             ModelController controller = element.getController();
             if (controller != null)
@@ -0,0 +1,26 @@
+package io.github.samwright.framework.model.common;
+
+import io.github.samwright.framework.model.Processor;
+import io.github.samwright.framework.model.helper.BatchHelper;
+import io.github.samwright.framework.model.helper.Mediator;
+
+import java.util.List;
+
+/**
+ * A {@link Processor} that can process a whole batch of inputs in one go, which is cheaper than
+ * processing them one at a time (eg. because each call crosses into native code).
+ * <p/>
+ * Processing a batch must give the same outputs as processing each input in turn.  Use
+ * {@link BatchHelper} to process a batch with any {@code Processor}, which falls back to
+ * processing the inputs one at a time if it isn't a {@code BatchProcessor}.
+ */
+public interface BatchProcessor extends Processor {
+
+    /**
+     * Processes each input, as {@code process(input)} would.
+     *
+     * @param inputs the inputs to process.
+     * @return the output for each input, in the same order as the inputs.
+     */
+    List<Mediator> processBatch(List<Mediator> inputs);
+}
@@ -0,0 +1,17 @@
+package io.github.samwright.framework.model.common;
+
+/**
+ * Data that can be identified by a hash of its content (eg. an image loaded from a file), so
+ * that anything derived from it can be cached across runs (see
+ * {@link io.github.samwright.framework.model.helper.TrainingCache}).
+ */
+public interface ContentAddressable {
+
+    /**
+     * Gets a hash of this object's content, which is the same for any object with the same
+     * content (even in another run).
+     *
+     * @return the hash of this object's content, or null if it isn't known.
+     */
+    String getContentHash();
+}
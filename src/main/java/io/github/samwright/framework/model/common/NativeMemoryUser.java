@@ -0,0 +1,13 @@
+package io.github.samwright.framework.model.common;
+
+/**
+ * Data that holds native memory (eg. an image), which the garbage collector doesn't account
+ * for, so anything holding on to a lot of it (eg. a cache) should limit how much it holds.
+ */
+public interface NativeMemoryUser {
+
+    /**
+     * @return roughly how many bytes of native memory this object holds.
+     */
+    long getNativeBytes();
+}
@@ -0,0 +1,12 @@
+package io.github.samwright.framework.model.common;
+
+import io.github.samwright.framework.model.Element;
+
+/**
+ * An {@link Element} that reads the data of its training inputs or outputs when it is trained
+ * (ie. in {@code processCompletedTrainingBatch(..)}), rather than just their histories and
+ * identities.  Their data is kept until then, even if the
+ * {@link io.github.samwright.framework.model.helper.RetentionPolicy} would otherwise release it.
+ */
+public interface ReadsTrainingPayloads extends Element {
+}
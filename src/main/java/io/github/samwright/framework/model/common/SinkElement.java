@@ -0,0 +1,11 @@
+package io.github.samwright.framework.model.common;
+
+import io.github.samwright.framework.model.Element;
+
+/**
+ * An {@link Element} whose processing has side-effects outside of the model (eg. pressing keys),
+ * so it must be given frames in the order they were captured, one at a time, even when frames
+ * are being processed concurrently.
+ */
+public interface SinkElement extends Element {
+}
@@ -0,0 +1,18 @@
+package io.github.samwright.framework.model.common;
+
+import io.github.samwright.framework.model.Element;
+
+/**
+ * An {@link Element} at the start of a workflow which, at times, outputs the same data object
+ * every time it processes (eg. a selected image, rather than a frame from the camera).  While it
+ * does, everything derived from its output can be reused from one run to the next (see
+ * {@link io.github.samwright.framework.model.helper.ProcessingMemo}).
+ */
+public interface StaticSource extends Element {
+
+    /**
+     * @return true if processing currently outputs the same data object as it did last time
+     *         (until the output changes, eg. because another image is selected).
+     */
+    boolean hasStaticOutput();
+}
@@ -1,12 +1,14 @@
 package io.github.samwright.framework.model.datatypes;
 
 import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 
 /**
  * User: Sam Wright Date: 12/09/2013 Time: 16:58
  */
 @AllArgsConstructor
+@EqualsAndHashCode
 public class Classification {
     @Getter private String tag;
 }
@@ -0,0 +1,25 @@
+package io.github.samwright.framework.model.helper;
+
+/**
+ * What a {@link FrameQueue} does with a newly submitted frame when it is full.
+ */
+public enum BackpressurePolicy {
+
+    /**
+     * The submitting thread waits until there is room in the queue.  Every frame gets processed,
+     * so this suits batch callers that need every result.
+     */
+    BLOCK,
+
+    /**
+     * The oldest waiting frame is dropped (and its future cancelled) to make room.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Every waiting frame is dropped (and its future cancelled), so only the most recently
+     * submitted frame waits to be processed.  This suits live capture, where a stale frame is
+     * worthless.
+     */
+    LATEST_ONLY
+}
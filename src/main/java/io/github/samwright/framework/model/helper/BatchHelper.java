@@ -0,0 +1,40 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.Processor;
+import io.github.samwright.framework.model.common.BatchProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Processes batches of inputs with any {@link Processor}, using its own batch method if it is a
+ * {@link BatchProcessor} and processing the inputs one at a time otherwise.
+ */
+public class BatchHelper {
+
+    /**
+     * Processes each input with the processor.
+     *
+     * @param processor the processor to process the inputs with.
+     * @param inputs the inputs to process.
+     * @return the output for each input, in the same order as the inputs.
+     * @throws NullPointerException if the processor didn't give an output for every input.
+     */
+    public static List<Mediator> processBatch(Processor processor, List<Mediator> inputs) {
+        List<Mediator> outputs;
+
+        if (processor instanceof BatchProcessor && !inputs.isEmpty()) {
+            outputs = ((BatchProcessor) processor).processBatch(inputs);
+
+            if (outputs == null || outputs.size() != inputs.size() || outputs.contains(null))
+                throw new NullPointerException("Processor " + processor + " didn't return an "
+                        + "output for each of the " + inputs.size() + " inputs in a batch");
+        } else {
+            outputs = new ArrayList<>(inputs.size());
+            for (Mediator input : inputs)
+                outputs.add(processor.process(input));
+        }
+
+        return outputs;
+    }
+}
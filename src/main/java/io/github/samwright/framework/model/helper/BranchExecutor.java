@@ -0,0 +1,260 @@
+package io.github.samwright.framework.model.helper;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.samwright.framework.model.SplitJoinWorkflowContainer;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the branches of a {@link SplitJoinWorkflowContainer} concurrently on a shared,
+ * bounded pool of threads.
+ * <p/>
+ * Executors are shared between every container asking for the same pool size,
+ * so the number of branch threads in the JVM doesn't grow with the number of containers (or
+ * the number of frames processed).
+ * <p/>
+ * The thread calling {@code runAll(..)} also runs any branch the pool hasn't yet started,
+ * so a saturated pool (eg. with split/joins nested inside branches) can never deadlock.
+ * <p/>
+ * Branches are scoped to the call that started them: {@code runAll(..)} never returns while
+ * any of them are still running, and a failed branch cancels its siblings.
+ * <p/>
+ * Training and shadow frames have their own executors (see {@code getTraining()} and
+ * {@code getShadow()}), whose threads run at the lowest priority so that they don't hold up
+ * live processing.
+ */
+public class BranchExecutor {
+
+    private static final int defaultPoolSize = Runtime.getRuntime().availableProcessors();
+    private static final Map<Integer, BranchExecutor> instances = new HashMap<>();
+    private static final BranchExecutor training = new BranchExecutor(
+            defaultPoolSize, "training-branch-executor-%d", Thread.MIN_PRIORITY);
+    private static final BranchExecutor shadow = new BranchExecutor(
+            defaultPoolSize, "shadow-branch-executor-%d", Thread.MIN_PRIORITY);
+
+    @Getter private final int poolSize;
+    private final ThreadPoolExecutor pool;
+
+    private BranchExecutor(int poolSize) {
+        this(poolSize, "branch-executor-" + poolSize + "-%d", Thread.NORM_PRIORITY);
+    }
+
+    private BranchExecutor(int poolSize, String nameFormat, int priority) {
+        this.poolSize = poolSize;
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat(nameFormat)
+                .setDaemon(true)
+                .setPriority(priority)
+                .build();
+
+        // If the queue is full the task is discarded, which is fine since the caller will run
+        // it instead.
+        pool = new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(poolSize * 4), threadFactory,
+                new ThreadPoolExecutor.DiscardPolicy());
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Gets the executor shared by all containers that haven't asked for a specific pool size.
+     * It has one thread per available processor.
+     *
+     * @return the default shared executor.
+     */
+    public static BranchExecutor getShared() {
+        return getInstance(0);
+    }
+
+    /**
+     * Gets the executor for training branches (eg. a chooser's workflows).  It has one thread
+     * per available processor, which run at the lowest priority.
+     *
+     * @return the shared training executor.
+     */
+    public static BranchExecutor getTraining() {
+        return training;
+    }
+
+    /**
+     * Gets the executor for the branches of shadow frames (see {@link ShadowEvaluator}).  It has
+     * one thread per available processor, which run at the lowest priority.
+     *
+     * @return the shared shadow executor.
+     */
+    public static BranchExecutor getShadow() {
+        return shadow;
+    }
+
+    /**
+     * Gets the shared executor with the given number of threads.
+     *
+     * @param poolSize the number of threads in the pool, or 0 (or less) for the default pool
+     *                 (ie. one thread per available processor).
+     * @return the shared executor with the given number of threads.
+     */
+    public static BranchExecutor getInstance(int poolSize) {
+        if (poolSize <= 0)
+            poolSize = defaultPoolSize;
+
+        synchronized (instances) {
+            BranchExecutor instance = instances.get(poolSize);
+            if (instance == null) {
+                instance = new BranchExecutor(poolSize);
+                instances.put(poolSize, instance);
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Runs all the given tasks concurrently, and waits for all of them to complete.
+     * <p/>
+     * The last task is always run on the calling thread, as is any other task which hasn't
+     * been started by the pool by the time the calling thread gets round to it.
+     * <p/>
+     * If any task throws an exception, the tasks that haven't finished are cancelled (and
+     * interrupted, if running on the pool), and the first exception (in the order the tasks were
+     * supplied) is rethrown once every task has stopped.
+     *
+     * @param tasks the tasks to run.
+     * @param <T> the type of result the tasks return.
+     * @return the results of the tasks, in the same order as the tasks were supplied.
+     */
+    public <T> List<T> runAll(List<? extends Callable<T>> tasks) {
+        List<ScopedTask<T>> scopedTasks = new ArrayList<>(tasks.size());
+        List<FutureTask<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            ScopedTask<T> scopedTask = new ScopedTask<>(task);
+            scopedTasks.add(scopedTask);
+            futures.add(new FutureTask<>(scopedTask));
+        }
+
+        for (int i = 0; i < futures.size() - 1; ++i)
+            pool.execute(futures.get(i));
+
+        // Work backwards (the pool works forwards through its queue).  Running a task that has
+        // already been started (or finished) by the pool does nothing.
+        for (int i = futures.size() - 1; i >= 0; --i) {
+            futures.get(i).run();
+            if (hasFailed(futures.get(i))) {
+                cancelAll(futures);
+                break;
+            }
+        }
+
+        List<T> results = new ArrayList<>(futures.size());
+        RuntimeException firstFailure = null;
+
+        for (FutureTask<T> future : futures) {
+            try {
+                results.add(waitFor(future));
+            } catch (CancellationException e) {
+                results.add(null);
+            } catch (RuntimeException e) {
+                results.add(null);
+                if (firstFailure == null) {
+                    firstFailure = e;
+                    cancelAll(futures);
+                }
+            }
+        }
+
+        // A cancelled task might still be running (if it ignored being interrupted), so wait for
+        // it to stop before returning.
+        for (ScopedTask<T> scopedTask : scopedTasks)
+            scopedTask.awaitIfStarted();
+
+        if (firstFailure != null)
+            throw firstFailure;
+
+        return results;
+    }
+
+    /**
+     * A task that can tell whether it was ever started, so {@code runAll(..)} can wait for
+     * every started task to finish (even if it was cancelled).
+     */
+    private static class ScopedTask<T> implements Callable<T> {
+        private final Callable<T> task;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        private ScopedTask(Callable<T> task) {
+            this.task = task;
+        }
+
+        @Override
+        public T call() throws Exception {
+            if (!claimed.compareAndSet(false, true))
+                throw new CancellationException();
+
+            try {
+                return task.call();
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        private void awaitIfStarted() {
+            // If this claims the task, it was never started and now never will be.
+            if (claimed.compareAndSet(false, true))
+                return;
+
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean hasFailed(FutureTask<?> future) {
+        if (!future.isDone() || future.isCancelled())
+            return false;
+
+        try {
+            future.get();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void cancelAll(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures)
+            future.cancel(true);
+    }
+
+    private static <T> T waitFor(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+}
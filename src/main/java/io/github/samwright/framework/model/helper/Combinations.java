@@ -0,0 +1,75 @@
+package io.github.samwright.framework.model.helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The cartesian product of a list of lists, where each combination is only built when it is
+ * asked for (by its index), so the product never has to be held in memory.
+ * <p/>
+ * Combinations are in the same order as nested loops over the lists would produce them (ie. the
+ * last list varies fastest).
+ *
+ * @param <T> the type of element in the lists.
+ */
+public class Combinations<T> {
+
+    private final List<List<T>> axes;
+    private final long size;
+
+    /**
+     * Creates the cartesian product of the given lists.  The lists are copied.
+     *
+     * @param axes the lists to take one element from for each combination.
+     * @throws ArithmeticException if there are more than {@code Long.MAX_VALUE} combinations.
+     */
+    public Combinations(List<? extends List<? extends T>> axes) {
+        this.axes = new ArrayList<>(axes.size());
+
+        long size = 1;
+        for (List<? extends T> axis : axes) {
+            this.axes.add(new ArrayList<T>(axis));
+
+            if (axis.isEmpty()) {
+                size = 0;
+            } else if (size > 0) {
+                if (size > Long.MAX_VALUE / axis.size())
+                    throw new ArithmeticException("Too many combinations");
+                size *= axis.size();
+            }
+        }
+
+        this.size = size;
+    }
+
+    /**
+     * @return the number of combinations.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Builds the combination with the given index.
+     *
+     * @param index the index of the combination, from 0 to {@code size() - 1}.
+     * @return the combination, which has one element from each list (in the same order as the
+     *         lists).
+     */
+    public List<T> get(long index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " of " + size + " combinations");
+
+        // Decode the index as a mixed-radix number, with the last axis as the least significant
+        // digit.
+        List<T> combination = new ArrayList<>(Collections.<T>nCopies(axes.size(), null));
+        for (int i = axes.size() - 1; i >= 0; --i) {
+            List<T> axis = axes.get(i);
+            combination.set(i, axis.get((int) (index % axis.size())));
+            index /= axis.size();
+        }
+
+        return combination;
+    }
+}
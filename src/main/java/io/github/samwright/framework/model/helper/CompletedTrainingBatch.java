@@ -1,30 +1,194 @@
 package io.github.samwright.framework.model.helper;
 
+import io.github.samwright.framework.model.Processor;
 import lombok.Getter;
 
-import java.util.Collections;
-import java.util.Set;
+import java.util.*;
 
 /**
  * A completed training batch - containing the set of all output mediators and the subset of
  * those which went on to be successful.
+ * <p/>
+ * The mediators are kept in an array (each at a position that is unique within the batch), and
+ * the successful subset is a bitset of positions, so rolling back and partitioning a batch are
+ * linear scans rather than building a new hash set for each level of the model.  Mediators are
+ * compared by identity.
  */
 public class CompletedTrainingBatch {
+    private final Mediator[] mediators;
+    private final BitSet successfulPositions;
+    private final Map<Mediator, Integer> positions;
     @Getter private final Set<Mediator> all, successful;
 
     public CompletedTrainingBatch(Set<Mediator> all, Set<Mediator> successful) {
-        this.all = Collections.unmodifiableSet(all);
-        this.successful = Collections.unmodifiableSet(successful);
+        mediators = all.toArray(new Mediator[all.size()]);
+        positions = new IdentityHashMap<>(mediators.length);
+        for (int i = 0; i < mediators.length; ++i)
+            positions.put(mediators[i], i);
 
-        if (!this.all.containsAll(this.successful))
-            throw new RuntimeException("'Successful' set must be subset of 'all' set");
+        successfulPositions = new BitSet(mediators.length);
+        for (Mediator mediator : successful) {
+            Integer position = positions.get(mediator);
+            if (position == null)
+                throw new RuntimeException("'Successful' set must be subset of 'all' set");
+            successfulPositions.set(position);
+        }
+
+        this.all = new MediatorSet(null);
+        this.successful = new MediatorSet(successfulPositions);
+    }
+
+    private CompletedTrainingBatch(Mediator[] mediators, BitSet successfulPositions,
+                                   Map<Mediator, Integer> positions) {
+        this.mediators = mediators;
+        this.successfulPositions = successfulPositions;
+        this.positions = positions;
+        all = new MediatorSet(null);
+        successful = new MediatorSet(successfulPositions);
     }
 
     public CompletedTrainingBatch rollBack() {
-        Set<Mediator> allInputs = Mediator.rollbackMediators(all);
-        Set<Mediator> successfulInputs = Mediator.rollbackMediators(successful);
+        Part inputs = new Part();
+        for (int i = 0; i < mediators.length; ++i)
+            inputs.add(mediators[i].getPrevious(), successfulPositions.get(i));
+
+        return inputs.toBatch();
+    }
+
+    /**
+     * Splits this batch into a batch for each of the given creators, containing the mediators
+     * created by it or another version of it (eg. splits a container's outputs into the outputs
+     * of each of its workflows).
+     *
+     * @param creators the processors that created the mediators in this batch.
+     * @return a batch for each creator, in the same order (some may be empty).
+     */
+    public List<CompletedTrainingBatch> partitionByCreator(List<? extends Processor> creators) {
+        return partition(creators, false);
+    }
 
-        return new CompletedTrainingBatch(allInputs, successfulInputs);
+    /**
+     * Splits this batch of join points (see {@code Mediator.join(..)}) into a batch for each of
+     * the given creators, containing the joined mediators created by it.  A joined mediator is
+     * successful if any of the join points it is in is successful.
+     *
+     * @param creators the processors that created the joined mediators.
+     * @return a batch for each creator, in the same order (some may be empty).
+     */
+    public List<CompletedTrainingBatch> partitionJoinedByCreator(
+            List<? extends Processor> creators) {
+        return partition(creators, true);
     }
 
+    @SuppressWarnings("unchecked")
+    private List<CompletedTrainingBatch> partition(List<? extends Processor> creators,
+                                                   boolean joined) {
+        Map<Object, Part> parts = new HashMap<>();
+        for (Processor creator : creators)
+            parts.put(History.getCreatorKey(creator), new Part());
+
+        for (int i = 0; i < mediators.length; ++i) {
+            boolean isSuccessful = successfulPositions.get(i);
+            List<Mediator> members = joined
+                    ? (List<Mediator>) mediators[i].getData()
+                    : Collections.singletonList(mediators[i]);
+
+            for (Mediator member : members) {
+                Processor creator = member.getHistory().getCreator();
+                Part part = parts.get(History.getCreatorKey(creator));
+                if (part == null)
+                    throw new RuntimeException("Training batch contains a mediator created by "
+                                                       + creator + ", which isn't a child");
+                part.add(member, isSuccessful);
+            }
+        }
+
+        List<CompletedTrainingBatch> batches = new ArrayList<>(creators.size());
+        for (Processor creator : creators)
+            batches.add(parts.get(History.getCreatorKey(creator)).toBatch());
+        return batches;
+    }
+
+    /**
+     * The distinct mediators of a batch being built, in the order they were added.
+     */
+    private static class Part {
+        private final List<Mediator> mediators = new ArrayList<>();
+        private final Map<Mediator, Integer> positions = new IdentityHashMap<>();
+        private final BitSet successfulPositions = new BitSet();
+
+        private void add(Mediator mediator, boolean isSuccessful) {
+            Integer position = positions.get(mediator);
+            if (position == null) {
+                position = mediators.size();
+                positions.put(mediator, position);
+                mediators.add(mediator);
+            }
+            if (isSuccessful)
+                successfulPositions.set(position);
+        }
+
+        private CompletedTrainingBatch toBatch() {
+            return new CompletedTrainingBatch(mediators.toArray(new Mediator[mediators.size()]),
+                                              successfulPositions, positions);
+        }
+    }
+
+    /**
+     * An unmodifiable view of the batch's mediators at the given positions (or all of them, if
+     * the positions are null).
+     */
+    private class MediatorSet extends AbstractSet<Mediator> {
+        private final BitSet members;
+        private final int size;
+
+        private MediatorSet(BitSet members) {
+            this.members = members;
+            size = members == null ? mediators.length : members.cardinality();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            Integer position = positions.get(o);
+            return position != null && (members == null || members.get(position));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Mediator> iterator() {
+            return new Iterator<Mediator>() {
+                private int next = advance(0);
+
+                private int advance(int position) {
+                    if (members == null)
+                        return position;
+                    int next = members.nextSetBit(position);
+                    return next < 0 ? mediators.length : next;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next < mediators.length;
+                }
+
+                @Override
+                public Mediator next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    Mediator mediator = mediators[next];
+                    next = advance(next + 1);
+                    return mediator;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("Training batches can't be changed");
+                }
+            };
+        }
+    }
 }
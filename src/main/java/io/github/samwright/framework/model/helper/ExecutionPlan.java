@@ -0,0 +1,193 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.controller.ModelController;
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Workflow;
+import io.github.samwright.framework.model.common.ElementObserver;
+import io.github.samwright.framework.model.common.StaticSource;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An immutable {@link Workflow}'s elements, their observers and their controllers, resolved
+ * into arrays so that processing a frame doesn't have to walk (or allocate) any collections.
+ * <p/>
+ * A plan is compiled against the model as it was at the time, so it goes out of date as soon
+ * as the model is mutated (eg. a new version becomes current, or a controller is changed).
+ * Check {@code isCurrent()} before using it.
+ * <p/>
+ * The plan keeps a moving average of how long each element takes, so a frame with a deadline
+ * (see {@link FrameContext}) is abandoned as soon as the remaining elements can't be expected to
+ * finish in time, rather than when the deadline has already passed.
+ * <p/>
+ * If there is a shared {@link ProcessingMemo}, the outputs of elements given data derived from a
+ * {@link StaticSource} are cached, so re-processing the same data only runs the elements that
+ * have changed since.  Sinks, observers and workflow containers always run (though the elements
+ * inside a container have their own plans).
+ */
+public class ExecutionPlan {
+
+    private final long modelStamp;
+    private final Element[] elements;
+    private final ElementObserver[][] observers;
+    private final ModelController[] controllers;
+    private final boolean[] memoisable;
+    private final AtomicLongArray averageNanos;
+
+    /**
+     * How much weight each new timing is given in an element's moving average (as a power of
+     * two, ie. 1/8).
+     */
+    private static final int averageWeightShift = 3;
+
+    private ExecutionPlan(Workflow workflow) {
+        // Read the stamp first, so a mutation during compilation makes the plan out of date.
+        modelStamp = MutabilityHelper.getModelStamp();
+
+        List<Element> children = workflow.getChildren();
+        elements = children.toArray(new Element[children.size()]);
+        observers = new ElementObserver[elements.length][];
+        controllers = new ModelController[elements.length];
+        memoisable = new boolean[elements.length];
+        averageNanos = new AtomicLongArray(elements.length);
+
+        for (int i = 0; i < elements.length; ++i) {
+            Set<ElementObserver> elementObservers = elements[i].getObservers();
+            observers[i] = elementObservers.toArray(new ElementObserver[elementObservers.size()]);
+            controllers[i] = elements[i].getController();
+            memoisable[i] = SharedPrefixPlan.isShareable(elements[i])
+                    && !(elements[i] instanceof StaticSource);
+        }
+    }
+
+    /**
+     * Compiles a plan for the given workflow.
+     *
+     * @param workflow the (immutable) workflow to compile.
+     * @return the plan for the workflow.
+     * @throws RuntimeException if the workflow is mutable.
+     */
+    public static ExecutionPlan compile(Workflow workflow) {
+        if (workflow.isMutable())
+            throw new RuntimeException("Can only compile an immutable workflow");
+
+        return new ExecutionPlan(workflow);
+    }
+
+    /**
+     * @return true if the model hasn't been mutated since this plan was compiled.
+     */
+    public boolean isCurrent() {
+        return modelStamp == MutabilityHelper.getModelStamp();
+    }
+
+    /**
+     * Has each element process the output of the previous element, notifying each element's
+     * observers and controller of its output (through the shared {@link NotificationBus}, so
+     * observers get every output and controllers may only get the latest).
+     *
+     * @param input the input to the first element.
+     * @return the output of the last element (or the input, if there are no elements).
+     * @throws NullPointerException if an element returned null.
+     * @throws FrameAbandonedException if the input's frame is cancelled, or can't be finished
+     *                                 within its budget.
+     */
+    public Mediator process(Mediator input) {
+        NotificationBus bus = NotificationBus.getShared();
+        FrameContext context = input.getContext();
+        ProcessingMemo memo = ProcessingMemo.getShared();
+        Mediator output = input;
+
+        for (int i = 0; i < elements.length; ++i) {
+            if (context.hasDeadline()) {
+                long estimate = getEstimatedNanos(i);
+
+                // The remaining elements won't get a new timing from an abandoned frame, so
+                // decay their averages instead, in case they were skewed by a one-off slow frame
+                // (otherwise every later frame could be abandoned here too).
+                if (context.getRemainingNanos() < estimate)
+                    decayAverages(i);
+
+                context.checkpoint(elements[i], estimate);
+            } else {
+                context.checkpoint(elements[i]);
+            }
+
+            Mediator elementInput = output;
+            Object memoised = memoisable[i] && memo != null
+                    ? memo.lookup(elements[i], elementInput) : null;
+
+            if (memoised != null) {
+                // Not a timing of the element, so its average is left alone.
+                output = elementInput.createNext(elements[i], memoised);
+                context.recordStage(elements[i], 0);
+            } else {
+                long start = System.nanoTime();
+                output = elements[i].process(elementInput);
+                long nanos = System.nanoTime() - start;
+
+                updateAverage(i, nanos);
+                context.recordStage(elements[i], nanos);
+
+                if (output == null)
+                    throw new NullPointerException("Element " + elements[i]
+                            + " returned null as processed data");
+
+                if (memo != null)
+                    memoise(memo, i, elementInput, output);
+            }
+
+            for (ElementObserver observer : observers[i])
+                bus.publish(observer, output, NotificationBus.Policy.EVERY);
+
+            if (controllers[i] != null)
+                bus.publish(controllers[i], output, NotificationBus.Policy.LATEST);
+        }
+
+        return output;
+    }
+
+    /**
+     * Caches the output of a memoisable element, or marks the output of a static source as static
+     * (so the elements after it can be cached).
+     */
+    private void memoise(ProcessingMemo memo, int i, Mediator input, Mediator output) {
+        if (memoisable[i]) {
+            memo.store(elements[i], input, output.getData());
+        } else if (elements[i] instanceof StaticSource) {
+            if (((StaticSource) elements[i]).hasStaticOutput())
+                memo.markStatic(output);
+        }
+    }
+
+    /**
+     * Gets how long the elements from the given index onwards are expected to take, from their
+     * moving averages.
+     */
+    private long getEstimatedNanos(int from) {
+        long total = 0;
+        for (int i = from; i < elements.length; ++i)
+            total += averageNanos.get(i);
+        return total;
+    }
+
+    private void decayAverages(int from) {
+        for (int i = from; i < elements.length; ++i) {
+            long average = averageNanos.get(i);
+            averageNanos.set(i, average - (average >> averageWeightShift));
+        }
+    }
+
+    private void updateAverage(int i, long nanos) {
+        long average = averageNanos.get(i);
+
+        // The first timing seeds the average.  Concurrent updates may overwrite one another,
+        // which only loses a sample.
+        if (average == 0)
+            averageNanos.set(i, nanos);
+        else
+            averageNanos.set(i, average + ((nanos - average) >> averageWeightShift));
+    }
+}
@@ -0,0 +1,26 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.Processor;
+import lombok.Getter;
+
+/**
+ * Thrown at a checkpoint when a frame is abandoned, because it was cancelled or can't be
+ * finished within its budget (see {@link FrameContext}).
+ */
+public class FrameAbandonedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    @Getter private final FrameContext context;
+    @Getter private final Processor abandonedAt;
+
+    /**
+     * @param context the context of the abandoned frame.
+     * @param abandonedAt the processor that was about to process the frame.
+     * @param message why the frame was abandoned.
+     */
+    public FrameAbandonedException(FrameContext context, Processor abandonedAt, String message) {
+        super(message + ", before " + abandonedAt);
+        this.context = context;
+        this.abandonedAt = abandonedAt;
+    }
+}
@@ -0,0 +1,172 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.Processor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The deadline and cancellation state of a single frame, which travels with every
+ * {@link Mediator} created from it (see {@code Mediator.createEmpty(context)}).
+ * <p/>
+ * Workflows and containers call {@code checkpoint(..)} between stages, so a frame that has been
+ * cancelled (or can no longer be finished within its budget) is abandoned with a
+ * {@link FrameAbandonedException} instead of holding up the frames behind it.  The time spent in
+ * each stage is recorded, so it can be seen where the budget went.
+ * <p/>
+ * Frames that aren't given a context share {@code FrameContext.NONE}, which has no deadline,
+ * can't be cancelled and records nothing.
+ * <p/>
+ * A shadow frame (see {@link ShadowEvaluator}) is a copy of a live frame being processed by a
+ * candidate version of the model.  Its outputs aren't given to any observer or controller, and
+ * elements with side effects (eg. pressing keys) should skip them for shadow frames.
+ */
+public class FrameContext {
+
+    /**
+     * The context of frames with no deadline.
+     */
+    public static final FrameContext NONE = new FrameContext(0, false, false);
+
+    @Getter private final long startTime;
+    private final long budget;
+    private final boolean recording;
+    @Getter private final boolean shadow;
+    @Getter private volatile boolean cancelled = false;
+    private final List<StageRecord> stageRecords = new ArrayList<>();
+
+    private FrameContext(long budget, boolean recording, boolean shadow) {
+        this.startTime = System.nanoTime();
+        this.budget = budget;
+        this.recording = recording;
+        this.shadow = shadow;
+    }
+
+    /**
+     * Creates the context for a frame that must be processed within the given budget, starting
+     * now.
+     *
+     * @param budgetMillis the number of milliseconds the frame has to be processed in, or 0 for
+     *                     no deadline.
+     * @return the new context.
+     */
+    public static FrameContext withBudget(long budgetMillis) {
+        if (budgetMillis < 0)
+            throw new IllegalArgumentException("Budget can't be negative: " + budgetMillis);
+        return new FrameContext(budgetMillis * 1000000L, true, false);
+    }
+
+    /**
+     * Creates the context for a shadow frame, which has no deadline but records the time spent
+     * in each stage.
+     *
+     * @return the new context.
+     */
+    public static FrameContext forShadow() {
+        return new FrameContext(0, true, true);
+    }
+
+    /**
+     * @return true if the frame has a deadline.
+     */
+    public boolean hasDeadline() {
+        return budget > 0;
+    }
+
+    /**
+     * @return the number of nanoseconds since the frame was started.
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * @return the number of nanoseconds left before the deadline (negative if it has passed), or
+     *         {@code Long.MAX_VALUE} if there is no deadline.
+     */
+    public long getRemainingNanos() {
+        return hasDeadline() ? budget - getElapsedNanos() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Cancels the frame, so it is abandoned at its next checkpoint.  Does nothing to
+     * {@code FrameContext.NONE}.
+     */
+    public void cancel() {
+        if (this != NONE)
+            cancelled = true;
+    }
+
+    /**
+     * Abandons the frame if it has been cancelled or its deadline has passed.
+     *
+     * @param next the processor about to process the frame.
+     * @throws FrameAbandonedException if the frame should be abandoned.
+     */
+    public void checkpoint(Processor next) {
+        checkpoint(next, 0);
+    }
+
+    /**
+     * Abandons the frame if it has been cancelled, or if it can't be finished before its
+     * deadline given an estimate of how much work is left.
+     *
+     * @param next the processor about to process the frame.
+     * @param estimatedRemainingNanos how long the rest of the frame's processing is expected to
+     *                                take.
+     * @throws FrameAbandonedException if the frame should be abandoned.
+     */
+    public void checkpoint(Processor next, long estimatedRemainingNanos) {
+        if (cancelled)
+            throw new FrameAbandonedException(this, next, "Frame was cancelled");
+
+        if (hasDeadline() && getRemainingNanos() < estimatedRemainingNanos)
+            throw new FrameAbandonedException(this, next, "Frame can't be finished within its "
+                    + budget / 1000000L + "ms budget (" + getElapsedNanos() / 1000000L
+                    + "ms elapsed)");
+    }
+
+    /**
+     * Records how long a processor took to process the frame.
+     *
+     * @param processor the processor.
+     * @param nanos the number of nanoseconds it took.
+     */
+    public void recordStage(Processor processor, long nanos) {
+        if (!recording)
+            return;
+
+        synchronized (stageRecords) {
+            stageRecords.add(new StageRecord(processor, nanos));
+        }
+    }
+
+    /**
+     * @return the time spent in each stage so far, in the order the stages finished.
+     */
+    public List<StageRecord> getStageRecords() {
+        synchronized (stageRecords) {
+            return Collections.unmodifiableList(new ArrayList<>(stageRecords));
+        }
+    }
+
+    /**
+     * How long a single processor took to process the frame.
+     */
+    public static class StageRecord {
+        @Getter private final Processor processor;
+        @Getter private final long nanos;
+
+        private StageRecord(Processor processor, long nanos) {
+            this.processor = processor;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return processor + ": " + nanos / 1000 + "us";
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package io.github.samwright.framework.model.helper;
+
+import com.google.common.collect.MapMaker;
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Processor;
+import io.github.samwright.framework.model.Workflow;
+import io.github.samwright.framework.model.WorkflowContainer;
+import io.github.samwright.framework.model.WorkflowImpl;
+import io.github.samwright.framework.model.common.SinkElement;
+import lombok.Getter;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Continuously streams frames through a {@link Workflow}, with several frames being processed
+ * concurrently, each by its own worker thread.
+ * <p/>
+ * Unlike a {@link StagePipeline}, the throughput isn't limited by the slowest element, since
+ * every worker can be running that element on a different frame at the same time.
+ * <p/>
+ * Frames are numbered as they come out of the source element (which only one worker runs at a
+ * time), and are delivered to the first element that is (or contains) a {@link SinkElement}
+ * in that order, through a reorder buffer.  From there on, frames are processed one at a
+ * time, so sinks see frames in the order they were captured and outputs are handled in that
+ * order too.  A frame that fails before reaching the sinks is skipped.  Each version of the
+ * workflow (see {@code publish(..)}) has its own first sink.
+ */
+public abstract class FrameParallelStream extends FrameStream {
+
+    @Getter private final int workerCount;
+    private final ConcurrentMap<List<Element>, Integer> firstOrderedStages
+            = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * Creates a (stopped) stream for the given workflow.
+     *
+     * @param workflow the workflow to process frames with.
+     * @param workerCount the number of frames that can be processed concurrently.
+     */
+    public FrameParallelStream(Workflow workflow, int workerCount) {
+        super(workflow);
+
+        if (workerCount < 1)
+            throw new IllegalArgumentException("Need at least one worker, not " + workerCount);
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Gets the index of the first element that is (or contains) a sink, or the number of
+     * elements if there isn't one.
+     */
+    private int getFirstOrderedStage(List<Element> stages) {
+        Integer firstOrderedStage = firstOrderedStages.get(stages);
+
+        if (firstOrderedStage == null) {
+            int i = 1;
+            while (i < stages.size() && !containsSink(stages.get(i)))
+                ++i;
+            firstOrderedStage = i;
+            firstOrderedStages.put(stages, firstOrderedStage);
+        }
+
+        return firstOrderedStage;
+    }
+
+    /**
+     * Returns true if the given processor is a {@link SinkElement} or contains one.
+     *
+     * @param processor the processor to check.
+     * @return true if the processor is or contains a sink.
+     */
+    public static boolean containsSink(Processor processor) {
+        if (processor instanceof SinkElement)
+            return true;
+
+        if (processor instanceof WorkflowContainer) {
+            for (Workflow workflow : ((WorkflowContainer) processor).getChildren())
+                if (containsSink(workflow))
+                    return true;
+        }
+
+        if (processor instanceof Workflow) {
+            for (Element element : ((Workflow) processor).getChildren())
+                if (containsSink(element))
+                    return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    protected Map<String, Runnable> createWorkers() {
+        // A new reorder buffer for each run, so a worker from a previous run can't block this one.
+        ReorderBuffer buffer = new ReorderBuffer();
+
+        Map<String, Runnable> workers = new LinkedHashMap<>();
+        for (int i = 0; i < workerCount; ++i)
+            workers.put("frame-worker-" + i + "-" + getWorkflow(), new Worker(buffer));
+
+        return workers;
+    }
+
+    /**
+     * Hands out frame numbers at the source, and lets frames into the ordered stages in that
+     * order.
+     */
+    private class ReorderBuffer {
+        private final Object[] sourceLock = new Object[0];
+        private long nextFrameNumber = 0, nextToDeliver = 0;
+
+        private synchronized void awaitTurn(long frameNumber) throws InterruptedException {
+            while (nextToDeliver != frameNumber)
+                wait();
+        }
+
+        private synchronized void endTurn() {
+            ++nextToDeliver;
+            notifyAll();
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final ReorderBuffer buffer;
+
+        private Worker(ReorderBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (isRunning() && !Thread.currentThread().isInterrupted()) {
+                    VersionPublisher.Lease<Version> version;
+                    long frameNumber;
+                    Mediator data;
+                    RuntimeException sourceFailure = null;
+
+                    synchronized (buffer.sourceLock) {
+                        if (!isRunning())
+                            return;
+
+                        version = acquireVersion();
+                        frameNumber = buffer.nextFrameNumber++;
+                        try {
+                            data = WorkflowImpl.processElement(version.get().getStages().get(0),
+                                    createFrame());
+                            handleSourceOutput(data);
+                        } catch (FrameAbandonedException e) {
+                            data = null;
+                            handleAbandoned(e);
+                        } catch (RuntimeException e) {
+                            data = null;
+                            sourceFailure = e;
+                        }
+                    }
+
+                    try {
+                        processFrame(version.get(), frameNumber, data, sourceFailure);
+                    } finally {
+                        version.release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Stream has been stopped.
+            }
+        }
+
+        private void processFrame(Version version, long frameNumber, Mediator data,
+                                  RuntimeException sourceFailure) throws InterruptedException {
+            List<Element> stages = version.getStages();
+            int firstOrderedStage = getFirstOrderedStage(stages);
+
+            // Stop outside of the source lock, since stopping waits for the other
+            // workers (which might be waiting for the source lock).
+            if (sourceFailure != null) {
+                handleException(sourceFailure);
+                stop();
+                return;
+            }
+
+            try {
+                for (int i = 1; data != null && i < firstOrderedStage; ++i)
+                    data = WorkflowImpl.processElement(stages.get(i), data);
+            } catch (FrameAbandonedException e) {
+                data = null;
+                handleAbandoned(e);
+            } catch (RuntimeException e) {
+                data = null;
+                handleException(e);
+            }
+
+            buffer.awaitTurn(frameNumber);
+            try {
+                if (data != null && isRunning())
+                    processOrderedStages(version, data);
+            } finally {
+                buffer.endTurn();
+            }
+        }
+
+        private void processOrderedStages(Version version, Mediator data) {
+            List<Element> stages = version.getStages();
+
+            try {
+                for (int i = getFirstOrderedStage(stages); i < stages.size(); ++i)
+                    data = WorkflowImpl.processElement(stages.get(i), data);
+            } catch (FrameAbandonedException e) {
+                handleAbandoned(e);
+                return;
+            } catch (RuntimeException e) {
+                handleException(e);
+                return;
+            }
+
+            finish(data, version.getWorkflow());
+        }
+    }
+}
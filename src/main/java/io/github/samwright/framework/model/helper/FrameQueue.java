@@ -0,0 +1,158 @@
+package io.github.samwright.framework.model.helper;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A bounded queue of frames waiting to be processed, with a dispatcher that processes
+ * them one at a time in the order they were submitted.
+ * <p/>
+ * Submitting a frame returns a future for its output.  When the queue is full, the
+ * {@link BackpressurePolicy} decides whether the submitter waits or whether waiting frames are
+ * dropped (in which case their futures are cancelled).  Cancelling a frame's future cancels
+ * its {@link FrameContext} too, so a frame that is already being processed is abandoned at its
+ * next checkpoint.
+ * <p/>
+ * The dispatcher only runs (on the shared dispatcher executor - see {@link SharedExecutors})
+ * while there are frames to process.
+ */
+public abstract class FrameQueue {
+
+    @Getter private final BackpressurePolicy policy;
+    @Getter private final int capacity;
+    private final Deque<PendingFrame> frames = new ArrayDeque<>();
+    private boolean dispatching = false;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param policy what to do with a submitted frame when the queue is full.
+     * @param capacity the maximum number of frames waiting to be processed (ignored if the policy
+     *                 is {@link BackpressurePolicy#LATEST_ONLY}, which only ever keeps one).
+     */
+    public FrameQueue(BackpressurePolicy policy, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1, not " + capacity);
+
+        this.policy = policy;
+        this.capacity = policy == BackpressurePolicy.LATEST_ONLY ? 1 : capacity;
+    }
+
+    /**
+     * Submits a frame to be processed.  If the queue is full and the policy is
+     * {@link BackpressurePolicy#BLOCK}, this waits until there is room.
+     *
+     * @param input the frame to process.
+     * @return a future for the output of processing the frame.  It is cancelled if the frame is
+     *         dropped, and fails if processing the frame throws an exception.
+     */
+    public ListenableFuture<Mediator> submit(Mediator input) {
+        PendingFrame frame = new PendingFrame(input);
+
+        synchronized (frames) {
+            while (frames.size() >= capacity) {
+                if (policy == BackpressurePolicy.BLOCK) {
+                    try {
+                        frames.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                } else {
+                    frames.removeFirst().future.cancel(false);
+                }
+            }
+
+            frames.addLast(frame);
+
+            if (!dispatching) {
+                dispatching = true;
+                SharedExecutors.getDispatcher().execute(new Dispatcher());
+            }
+        }
+
+        return frame.future;
+    }
+
+    /**
+     * @return the number of frames waiting to be processed (not including any frame currently
+     *         being processed).
+     */
+    public int size() {
+        synchronized (frames) {
+            return frames.size();
+        }
+    }
+
+    /**
+     * Drops every frame waiting to be processed, cancelling their futures.  A frame currently
+     * being processed is allowed to finish.
+     */
+    public void clear() {
+        synchronized (frames) {
+            for (PendingFrame frame : frames)
+                frame.future.cancel(false);
+            frames.clear();
+            frames.notifyAll();
+        }
+    }
+
+    /**
+     * Processes a frame.  Called from the dispatcher.
+     *
+     * @param input the submitted frame.
+     * @return the output to complete the frame's future with.
+     */
+    protected abstract Mediator processFrame(Mediator input);
+
+    private static class PendingFrame {
+        private final Mediator input;
+        private final SettableFuture<Mediator> future = SettableFuture.create();
+
+        private PendingFrame(final Mediator input) {
+            this.input = input;
+
+            // Cancelling the future (even once the frame is being processed) cancels the frame,
+            // so it is abandoned at its next checkpoint.
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isCancelled())
+                        input.getContext().cancel();
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+    }
+
+    private class Dispatcher implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                PendingFrame frame;
+
+                synchronized (frames) {
+                    frame = frames.pollFirst();
+                    if (frame == null) {
+                        dispatching = false;
+                        return;
+                    }
+                    frames.notifyAll();
+                }
+
+                if (frame.future.isCancelled())
+                    continue;
+
+                try {
+                    frame.future.set(processFrame(frame.input));
+                } catch (RuntimeException | Error e) {
+                    frame.future.setException(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package io.github.samwright.framework.model.helper;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.github.samwright.framework.controller.ModelController;
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Workflow;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Continuously processes frames through a {@link Workflow} using a set of workers, which run on
+ * the shared streaming executor (see {@link SharedExecutors}) while the stream is running.
+ * <p/>
+ * The first element is the source of the frames (eg. an image loader grabbing from the camera)
+ * and is repeatedly given an empty {@link Mediator}.  Subclasses decide how the rest of the work
+ * is split between the worker threads.
+ * <p/>
+ * The workflow must be immutable.  A new version of it (eg. after an edit, or after retraining)
+ * can be published to a running stream with {@code publish(..)}, without stopping it: each
+ * frame is processed by the version that was current when it was grabbed from the source, so
+ * frames already in flight finish with the old version, which is then released (see
+ * {@link VersionPublisher}).  Anything else the frames depend on that is changed in place (eg.
+ * the trained state of the workflow's elements) can be changed between frames with
+ * {@code runBetweenFrames(..)}.
+ * <p/>
+ * If a frame budget is set, each frame is given a {@link FrameContext} with that budget when it
+ * is grabbed from the source, and frames that can't be processed within it are abandoned (see
+ * {@code handleAbandoned(..)}).
+ * <p/>
+ * If a {@link ShadowEvaluator} is set, it is given a copy of each frame as it comes out of the
+ * source and the workflow's output for it, so a candidate version of the workflow can be
+ * compared with the live one.
+ */
+public abstract class FrameStream {
+
+    private final VersionPublisher<Version> versions;
+    private final Set<Version> unreleasedVersions
+            = Collections.synchronizedSet(new HashSet<Version>());
+    private final Object[] publishLock = new Object[0];
+    private final Object[] betweenFramesLock = new Object[0];
+    private CountDownLatch gate;
+    private final List<RunningWorker> workers = new ArrayList<>();
+    @Getter private volatile boolean running = false;
+    @Getter @Setter private volatile long frameBudgetMillis = 0;
+    @Getter private volatile long abandonedFrames = 0;
+    @Getter @Setter private volatile ShadowEvaluator shadowEvaluator;
+
+    /**
+     * Creates a (stopped) stream for the given workflow.
+     *
+     * @param workflow the workflow to process frames with.
+     */
+    public FrameStream(Workflow workflow) {
+        Version initial = new Version(workflow, null);
+        unreleasedVersions.add(initial);
+
+        versions = new VersionPublisher<Version>(initial) {
+            @Override
+            protected void handleReleased(Version version) {
+                unreleasedVersions.remove(version);
+                version.released.countDown();
+            }
+        };
+    }
+
+    /**
+     * @return the current version of the workflow.
+     */
+    public Workflow getWorkflow() {
+        return versions.getCurrent().getWorkflow();
+    }
+
+    /**
+     * Publishes a new version of the workflow, which is used from the next frame grabbed from
+     * the source onwards.  Frames already in flight finish with the version they started with.
+     *
+     * @param workflow the new version of the workflow.
+     */
+    public void publish(Workflow workflow) {
+        synchronized (publishLock) {
+            if (workflow != getWorkflow())
+                publish(new Version(workflow, gate));
+        }
+    }
+
+    /**
+     * Runs a task between frames: frames grabbed from the source from now on wait for the task,
+     * which waits for the frames already in flight to finish.  So no frame is processed partly
+     * before and partly after the task.
+     *
+     * @param task the task to run (eg. publishing the new trained state of the elements).
+     */
+    public void runBetweenFrames(Runnable task) {
+        synchronized (betweenFramesLock) {
+            CountDownLatch newGate = new CountDownLatch(1);
+            List<Version> oldVersions;
+
+            synchronized (publishLock) {
+                gate = newGate;
+                oldVersions = new ArrayList<>(unreleasedVersions);
+                publish(new Version(getWorkflow(), newGate));
+            }
+
+            try {
+                for (Version oldVersion : oldVersions)
+                    Uninterruptibles.awaitUninterruptibly(oldVersion.released);
+                task.run();
+            } finally {
+                synchronized (publishLock) {
+                    gate = null;
+                }
+                newGate.countDown();
+            }
+        }
+    }
+
+    private void publish(Version version) {
+        unreleasedVersions.add(version);
+        versions.publish(version);
+    }
+
+    /**
+     * @return the number of versions of the workflow that still have frames in flight
+     *         (including the current version).
+     */
+    public int getLiveVersions() {
+        return versions.getLiveVersions();
+    }
+
+    /**
+     * @return the elements of the current version of the workflow, in order (the first being
+     *         the source of frames).
+     */
+    protected List<Element> getStages() {
+        return versions.getCurrent().getStages();
+    }
+
+    /**
+     * Acquires the current version of the workflow for a new frame, to be released (exactly
+     * once) when the frame has finished or been dropped.  Waits for any task being run between
+     * frames (see {@code runBetweenFrames(..)}).
+     *
+     * @return a lease on the current version.
+     * @throws InterruptedException if interrupted while waiting (eg. because the stream has
+     *                              been stopped).
+     */
+    protected VersionPublisher.Lease<Version> acquireVersion() throws InterruptedException {
+        VersionPublisher.Lease<Version> lease = versions.acquire();
+
+        CountDownLatch versionGate = lease.get().gate;
+        if (versionGate != null) {
+            try {
+                versionGate.await();
+            } catch (InterruptedException e) {
+                lease.release();
+                throw e;
+            }
+        }
+
+        return lease;
+    }
+
+    /**
+     * Starts the workers.  Does nothing if already running.
+     *
+     * @throws RuntimeException if there aren't enough free streaming threads for every worker
+     *                          (in which case the stream is stopped again).
+     */
+    public void start() {
+        RejectedExecutionException rejection;
+
+        synchronized (this) {
+            if (running || getStages().isEmpty())
+                return;
+
+            running = true;
+            for (Map.Entry<String, Runnable> e : createWorkers().entrySet())
+                workers.add(new RunningWorker(e.getKey(), e.getValue()));
+
+            try {
+                for (RunningWorker worker : workers) {
+                    SharedExecutors.getStreaming().execute(worker);
+                    worker.submitted = true;
+                }
+                return;
+            } catch (RejectedExecutionException e) {
+                rejection = e;
+                for (RunningWorker worker : workers)
+                    if (!worker.submitted)
+                        worker.finished.countDown();
+            }
+        }
+
+        stop();
+        throw new RuntimeException("Not enough threads to stream " + getWorkflow(), rejection);
+    }
+
+    /**
+     * Stops every worker, discarding any frames still being processed.  Waits for the workers
+     * to finish their current element (unless called from a worker).
+     */
+    public void stop() {
+        List<RunningWorker> stoppedWorkers;
+
+        synchronized (this) {
+            if (!running)
+                return;
+
+            running = false;
+            stoppedWorkers = new ArrayList<>(workers);
+            workers.clear();
+        }
+
+        for (RunningWorker worker : stoppedWorkers)
+            worker.interrupt();
+
+        for (RunningWorker worker : stoppedWorkers) {
+            if (worker.isCurrent())
+                continue;
+            try {
+                worker.finished.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        handleStopped();
+    }
+
+    /**
+     * Called when the stream has been stopped (after waiting for the workers), so subclasses can
+     * release the versions of any frames that were left waiting between workers.
+     */
+    protected void handleStopped() {
+    }
+
+    /**
+     * Creates the empty {@link Mediator} to give the source element for a new frame, with a
+     * {@link FrameContext} for the frame budget (if there is one).
+     *
+     * @return the empty {@code Mediator} for a new frame.
+     */
+    protected Mediator createFrame() {
+        long budget = frameBudgetMillis;
+
+        // A shadow evaluator needs each frame to have its own (recording) context.
+        if (budget > 0 || shadowEvaluator != null)
+            return Mediator.createEmpty(FrameContext.withBudget(budget));
+        else
+            return Mediator.createEmpty();
+    }
+
+    /**
+     * Called (from a worker thread) with the output of the source element for each frame, which
+     * is copied to the shadow evaluator (if there is one).
+     *
+     * @param sourceOutput the output of the source element.
+     */
+    protected void handleSourceOutput(Mediator sourceOutput) {
+        ShadowEvaluator evaluator = shadowEvaluator;
+        if (evaluator != null)
+            evaluator.offer(sourceOutput);
+    }
+
+    /**
+     * Called (from a worker thread) when a frame is abandoned because it was cancelled or
+     * couldn't be processed within the frame budget.  The frame is dropped, but (unlike
+     * {@code handleException(..)}) the stream carries on even if the source abandoned it.
+     * <p/>
+     * This counts the abandoned frames and sheds any shadow work (so the live frames get the
+     * spare time), so subclasses overriding it should call it too.
+     *
+     * @param e the exception thrown at the checkpoint where the frame was abandoned.
+     */
+    protected void handleAbandoned(FrameAbandonedException e) {
+        synchronized (this) {
+            ++abandonedFrames;
+        }
+
+        ShadowEvaluator evaluator = shadowEvaluator;
+        if (evaluator != null)
+            evaluator.shed();
+    }
+
+    /**
+     * Creates the workers for a run of the stream.  Workers should finish when
+     * {@code isRunning()} returns false or when they are interrupted.
+     *
+     * @return the workers to run, by the name to give the thread running each one.
+     */
+    protected abstract Map<String, Runnable> createWorkers();
+
+    /**
+     * Called (from a worker thread) with the output of the workflow for each frame.
+     *
+     * @param output the workflow's output for a frame.
+     */
+    protected abstract void handleOutput(Mediator output);
+
+    /**
+     * Called (from a worker thread) when an element fails to process a frame.  The frame
+     * is dropped, and if the element was the source the stream is stopped.
+     *
+     * @param e the exception thrown by the element.
+     */
+    protected abstract void handleException(RuntimeException e);
+
+    /**
+     * Wraps the output of the last element as the workflow's output, then notifies the
+     * workflow's controller and {@code handleOutput(..)}.
+     *
+     * @param output the output of the last element.
+     * @param workflow the version of the workflow that processed the frame.
+     */
+    protected void finish(Mediator output, Workflow workflow) {
+        try {
+            output = output.createNext(workflow, output.getData());
+
+            ModelController controller = workflow.getController();
+            if (controller != null)
+                controller.handleProcessedData(output);
+
+            ShadowEvaluator evaluator = shadowEvaluator;
+            if (evaluator != null)
+                evaluator.compare(output);
+
+            handleOutput(output);
+        } catch (FrameAbandonedException e) {
+            handleAbandoned(e);
+        } catch (RuntimeException e) {
+            handleException(e);
+        }
+    }
+
+    /**
+     * A worker running on a streaming thread, which can be interrupted (only) while it is
+     * running, and which counts down {@code finished} when it has finished.
+     */
+    private class RunningWorker implements Runnable {
+        private final String name;
+        private final Runnable task;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private boolean submitted = false;
+        private boolean interrupted = false;
+        private Thread thread;
+
+        private RunningWorker(String name, Runnable task) {
+            this.name = name;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            Thread current = Thread.currentThread();
+            String poolName = current.getName();
+
+            synchronized (this) {
+                if (interrupted) {
+                    finished.countDown();
+                    return;
+                }
+                thread = current;
+            }
+
+            current.setName(name);
+            try {
+                task.run();
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                }
+                // Don't leave an interrupt for the thread's next task.
+                Thread.interrupted();
+                current.setName(poolName);
+                finished.countDown();
+            }
+        }
+
+        private synchronized void interrupt() {
+            interrupted = true;
+            if (thread != null)
+                thread.interrupt();
+        }
+
+        private synchronized boolean isCurrent() {
+            return thread == Thread.currentThread();
+        }
+    }
+
+    /**
+     * A version of the workflow being streamed, and its elements.  A version published while a
+     * task is being run between frames has to wait for that task (ie. for its gate) before
+     * processing frames.
+     */
+    protected static class Version {
+        @Getter private final Workflow workflow;
+        @Getter private final List<Element> stages;
+        private final CountDownLatch gate;
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        private Version(Workflow workflow, CountDownLatch gate) {
+            if (workflow.isMutable())
+                throw new RuntimeException("Can only stream through an immutable workflow");
+
+            this.workflow = workflow;
+            this.stages = Collections.unmodifiableList(new ArrayList<>(workflow.getChildren()));
+            this.gate = gate;
+        }
+    }
+}
@@ -4,12 +4,17 @@ import io.github.samwright.framework.model.Processor;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.UUID;
 
 /**
  * Each {@code History} object represents a unique sequence of {@link Processor} objects - ie. no
  * two histories share the same sequence of {@code Processor} objects (without being the same
  * object).
  * <p/>
+ * Every version of a {@code Processor} counts as the same {@code Processor} (see
+ * {@code getCreatorKey(..)}).  Editing a model makes new versions of its unchanged elements too,
+ * so this keeps the histories they create (and any trained state looked up by them) the same.
+ * <p/>
  * Each {@code History} object contains a reference to the {@code History} object that came
  * immediately before it, and a list of references to the {@code History} objects which have come
  * after it.
@@ -27,8 +32,9 @@ public abstract class History {
     /**
      * Create a {@code History} object immediately after this one, created by 'creator'.
      *
-     * If the 'creator' already created a new {@code History} object from this one, it is
-     * returned instead (ie. {@code h.createNext(p) == h.createNext(p)} is always true).
+     * If the 'creator' (or another version of it) already created a new {@code History} object
+     * from this one, it is returned instead (ie. {@code h.createNext(p) == h.createNext(p)} is
+     * always true).
      *
      * @param creator the {@code Processor} that created the new object.
      * @return the new {@code History} object.
@@ -83,6 +89,15 @@ public abstract class History {
      */
     public abstract Processor getCreator();
 
+    /**
+     * Get the small integer that identifies this {@code History} object, for cheap lookups (see
+     * {@link HistoryMap}).  No two {@code History} objects have the same ID, and the epoch's ID
+     * is 0.
+     *
+     * @return the ID of this {@code History} object.
+     */
+    public abstract int getId();
+
     /**
      * Discards the {@code History} object created by the {@code creator} from this one.
      *
@@ -91,6 +106,29 @@ public abstract class History {
      */
     public abstract void discardFutureFrom(Processor creator);
 
+    /**
+     * Gets what identifies the given {@link Processor} as a creator of histories: its UUID, which
+     * every version of it shares, or the {@code Processor} itself if it doesn't have one.
+     *
+     * @param creator the {@code Processor}.
+     * @return the key of the {@code Processor} and all its versions.
+     */
+    public static Object getCreatorKey(Processor creator) {
+        UUID uuid = creator.getUUID();
+        return uuid == null ? creator : uuid;
+    }
+
+    /**
+     * Gets what identifies the model that the given {@link Processor} is in: the creator key of
+     * the model's top processor, which every version of the model shares.
+     *
+     * @param processor a {@code Processor} in the model.
+     * @return the key of the model and all its versions.
+     */
+    public static Object getModelKey(Processor processor) {
+        return getCreatorKey(MutabilityHelper.getTopModel(processor));
+    }
+
     public static Set<Processor> getAllCreators(History history) {
         Set<Processor> allCreators = new HashSet<>();
         addCreatorsToSet(history, allCreators);
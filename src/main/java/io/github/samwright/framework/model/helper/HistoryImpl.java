@@ -1,57 +1,122 @@
 package io.github.samwright.framework.model.helper;
 
+import com.google.common.collect.MapMaker;
 import io.github.samwright.framework.model.Processor;
 import lombok.Getter;
 import lombok.NonNull;
 
+import java.lang.ref.WeakReference;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Implementation of {@link History}.  Don't use this class - access it via {@code History}.
+ * <p/>
+ * Concurrent branches (eg. in a split/join) can extend the same {@code History} object at
+ * once, so the next histories are added with compare-and-set (without a lock).
+ * <p/>
+ * The next histories are only weakly referenced, so a history is forgotten once nothing (eg. a
+ * {@link Mediator} or a map of trained state) refers to it, and neither it nor its creator (eg.
+ * an old version of a {@link Processor}) is kept alive by the history tree.  Since nothing
+ * refers to a forgotten history, nothing can tell that a later {@code createNext(..)} returns
+ * a different object.
+ * <p/>
+ * The next histories are found by the keys of their creators (see
+ * {@code History.getCreatorKey(..)}), so every version of a creator extends a history the same
+ * way.  The history keeps the version that first created it.
+ * <p/>
+ * Most histories only ever have one next history and are never joined from, and there can be
+ * very many of them, so they are kept small: a single next history is referenced directly, a
+ * map of next histories is only made when a second creator extends the history, and a map of
+ * joins is only made when the history is first joined from.
  */
 final public class HistoryImpl extends History {
-    @Getter private final static History epoch = new HistoryImpl(null, null);
+    private final static AtomicInteger nextId = new AtomicInteger();
+    @Getter private final static History epoch = new HistoryImpl(null, null, null);
 
+    private final static AtomicReferenceFieldUpdater<HistoryImpl, Object> nextUpdater
+            = AtomicReferenceFieldUpdater.newUpdater(HistoryImpl.class, Object.class, "next");
+    private final static AtomicReferenceFieldUpdater<HistoryImpl, Object> joinsUpdater
+            = AtomicReferenceFieldUpdater.newUpdater(HistoryImpl.class, Object.class,
+                                                     "nextByJoinedHistory");
+
+    @Getter private final int id = nextId.getAndIncrement();
     @Getter private final History previous;
     @Getter private final Processor creator;
-    private final Map<Processor, History> nextByCreator = new HashMap<>();
-    private final Map<Set<History>, History> nextByJoinedHistory = new HashMap<>();
     @Getter private final Set<History> joined;
 
-    private HistoryImpl(History previous, Processor creator) {
-        this.previous = previous;
-        this.creator = creator;
-        joined = null;
-    }
+    // Either null, a weak reference to the only next history, or a map of the next histories by
+    // the keys of their creators.
+    private volatile Object next;
+    // Either null or a map of the next histories by the histories joined to make them.
+    private volatile Object nextByJoinedHistory;
 
     private HistoryImpl(History previous, Processor creator, Set<History> toJoin) {
         this.previous = previous;
         this.creator = creator;
-        joined = Collections.unmodifiableSet(toJoin);
+        joined = toJoin == null ? null : Collections.unmodifiableSet(toJoin);
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public History createNext(@NonNull Processor creator) {
-        History next = nextByCreator.get(creator);
+        while (true) {
+            Object current = next;
+
+            if (current instanceof ConcurrentMap)
+                return createNext(creator, (ConcurrentMap<Object, History>) current);
+
+            History only = current == null ? null : ((WeakReference<History>) current).get();
+
+            if (only == null) {
+                // There isn't a next history yet (or it has been forgotten).
+                History created = new HistoryImpl(this, creator, null);
+                if (nextUpdater.compareAndSet(this, current, new WeakReference<>(created)))
+                    return created;
+            } else if (isSameCreator(only, creator)) {
+                return only;
+            } else {
+                // Another creator is extending this history, so it needs a map.
+                ConcurrentMap<Object, History> nextByCreator
+                        = new MapMaker().weakValues().makeMap();
+                nextByCreator.put(getCreatorKey(only.getCreator()), only);
+                nextUpdater.compareAndSet(this, current, nextByCreator);
+            }
+        }
+    }
+
+    private History createNext(Processor creator, ConcurrentMap<Object, History> nextByCreator) {
+        Object key = getCreatorKey(creator);
+        History next = nextByCreator.get(key);
 
         if (next == null) {
-            next = new HistoryImpl(this, creator);
-            nextByCreator.put(creator, next);
+            next = new HistoryImpl(this, creator, null);
+            History existing = nextByCreator.putIfAbsent(key, next);
+            if (existing != null)
+                next = existing;
         }
 
         return next;
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public History join(@NonNull Processor creator, @NonNull Set<History> toJoin) {
-        History next = nextByJoinedHistory.get(toJoin);
+        if (nextByJoinedHistory == null)
+            joinsUpdater.compareAndSet(this, null, new MapMaker().weakValues().makeMap());
+
+        ConcurrentMap<Set<History>, History> joins
+                = (ConcurrentMap<Set<History>, History>) nextByJoinedHistory;
+        History next = joins.get(toJoin);
 
         if (next == null) {
             next = new HistoryImpl(this, creator, toJoin);
-            nextByJoinedHistory.put(toJoin, next);
+            History existing = joins.putIfAbsent(toJoin, next);
+            if (existing != null)
+                next = existing;
         }
 
         return next;
@@ -63,7 +128,27 @@ final public class HistoryImpl extends History {
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public void discardFutureFrom(@NonNull Processor creator) {
-        nextByCreator.remove(creator);
+        while (true) {
+            Object current = next;
+
+            if (current instanceof ConcurrentMap) {
+                ((ConcurrentMap<Object, History>) current).remove(getCreatorKey(creator));
+                return;
+            }
+
+            History only = current == null ? null : ((WeakReference<History>) current).get();
+            if (current == null || (only != null && !isSameCreator(only, creator)))
+                return;
+
+            if (nextUpdater.compareAndSet(this, current, null))
+                return;
+        }
+    }
+
+    private static boolean isSameCreator(History history, Processor creator) {
+        return history.getCreator() == creator
+                || getCreatorKey(history.getCreator()).equals(getCreatorKey(creator));
     }
 }
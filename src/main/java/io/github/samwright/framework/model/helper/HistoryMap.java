@@ -0,0 +1,176 @@
+package io.github.samwright.framework.model.helper;
+
+import java.util.*;
+
+/**
+ * A map from {@link History} objects to values, which looks them up by their IDs (see
+ * {@code History.getId()}) in an open-addressed array rather than through hash map entries.
+ * This is for state (eg. trained nets, chosen workflows) that is looked up by the history of
+ * every frame processed.
+ * <p/>
+ * It isn't synchronised, so it should be filled in before it is shared with other threads (eg.
+ * by publishing it through a volatile field), after which it can be read concurrently.  Null
+ * keys and values aren't allowed, and mappings can't be removed (so it should be shared as an
+ * unmodifiable view).
+ *
+ * @param <V> the type of the values.
+ */
+public class HistoryMap<V> extends AbstractMap<History, V> {
+
+    private static final int EMPTY = -1;
+
+    private int[] ids;
+    private History[] keys;
+    private Object[] values;
+    private int size = 0;
+
+    /**
+     * Creates an empty map.
+     */
+    public HistoryMap() {
+        allocate(8);
+    }
+
+    /**
+     * Creates a map with the same mappings as the given map.
+     *
+     * @param map the mappings to copy.
+     */
+    public HistoryMap(Map<History, ? extends V> map) {
+        this();
+        putAll(map);
+    }
+
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        Arrays.fill(ids, EMPTY);
+        keys = new History[capacity];
+        values = new Object[capacity];
+    }
+
+    /**
+     * Gets the slot with the given ID, or the empty slot where it would go.
+     */
+    private int slotOf(int id) {
+        int mask = ids.length - 1;
+        // Spread sequential IDs across the table.
+        int hash = id * 0x9E3779B9;
+        int slot = (hash ^ hash >>> 16) & mask;
+
+        while (ids[slot] != EMPTY && ids[slot] != id)
+            slot = (slot + 1) & mask;
+
+        return slot;
+    }
+
+    /**
+     * Gets the value for a history.
+     *
+     * @param history the history.
+     * @return the value for the history, or null if there isn't one.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(History history) {
+        int slot = slotOf(history.getId());
+        return ids[slot] == EMPTY ? null : (V) values[slot];
+    }
+
+    @Override
+    public V get(Object key) {
+        return key instanceof History ? get((History) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(History history, V value) {
+        if (value == null)
+            throw new NullPointerException("Can't map a history to null");
+
+        int slot = slotOf(history.getId());
+        if (ids[slot] != EMPTY) {
+            V old = (V) values[slot];
+            values[slot] = value;
+            return old;
+        }
+
+        ids[slot] = history.getId();
+        keys[slot] = history;
+        values[slot] = value;
+
+        // Keep the table at most half full, so probes stay short.
+        if (++size * 2 > ids.length)
+            resize();
+
+        return null;
+    }
+
+    private void resize() {
+        History[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(ids.length * 2);
+
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != null) {
+                int slot = slotOf(oldKeys[i].getId());
+                ids[slot] = oldKeys[i].getId();
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<History, V>> entrySet() {
+        return new AbstractSet<Entry<History, V>>() {
+            @Override
+            public Iterator<Entry<History, V>> iterator() {
+                return new Iterator<Entry<History, V>>() {
+                    private int next = advance(0);
+
+                    private int advance(int slot) {
+                        while (slot < keys.length && keys[slot] == null)
+                            ++slot;
+                        return slot;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < keys.length;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Entry<History, V> next() {
+                        if (!hasNext())
+                            throw new NoSuchElementException();
+
+                        Entry<History, V> entry
+                                = new SimpleImmutableEntry<>(keys[next], (V) values[next]);
+                        next = advance(next + 1);
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException("HistoryMap can't be shrunk");
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
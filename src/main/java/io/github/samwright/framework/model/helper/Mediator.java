@@ -34,7 +34,20 @@ public abstract class Mediator {
      *         can be created.
      */
     public static Mediator createEmpty() {
-        return MediatorImpl.createEmpty();
+        return MediatorImpl.createEmpty(FrameContext.NONE);
+    }
+
+    /**
+     * Creates an empty {@code Mediator} for a frame with the given {@link FrameContext}.  Every
+     * {@code Mediator} created from it (through {@code createNext(..)} or {@code join(..)})
+     * carries the same context.
+     *
+     * @param context the frame's deadline and cancellation state.
+     * @return an empty {@code Mediator}, from which {@code Mediator} objects (which contain data)
+     *         can be created.
+     */
+    public static Mediator createEmpty(FrameContext context) {
+        return MediatorImpl.createEmpty(context);
     }
 
     /**
@@ -83,10 +96,27 @@ public abstract class Mediator {
     /**
      * Gets the data contained in this {@code Mediator} object.
      *
-     * @return the data contained in this {@code Mediator} object.
+     * @return the data contained in this {@code Mediator} object, or null if it has been
+     *         released.
      */
     public abstract Object getData();
 
+    /**
+     * Drops this {@code Mediator} object's reference to its data, so the data can be garbage
+     * collected once nothing else refers to it, while the {@code Mediator} is kept (eg. to roll
+     * back a {@link CompletedTrainingBatch}, which only needs its history and identity).  The
+     * data of an empty or join {@code Mediator} is never released.
+     *
+     * @return true if the data was released (ie. it hadn't been already, and isn't an empty or
+     *         join {@code Mediator}).
+     */
+    public abstract boolean releaseData();
+
+    /**
+     * @return true if this {@code Mediator} object's data has been released.
+     */
+    public abstract boolean isReleased();
+
     /**
      * Gets the {@link History} object (ie. the sequence of {@link Processor} which led to this
      * {@code Mediator} object's creation).
@@ -107,6 +137,14 @@ public abstract class Mediator {
      */
     public abstract Mediator getPrevious();
 
+    /**
+     * Gets the {@link FrameContext} of the frame this {@code Mediator} belongs to, which is
+     * {@code FrameContext.NONE} unless one was given to {@code createEmpty(context)}.
+     *
+     * @return the context of this {@code Mediator}'s frame.
+     */
+    public abstract FrameContext getContext();
+
     /**
      * For every {@code Mediator m} in {@code mediators}, this returns {@code m.getPrevious()} in
      * a set.
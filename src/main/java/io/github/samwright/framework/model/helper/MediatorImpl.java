@@ -1,8 +1,6 @@
 package io.github.samwright.framework.model.helper;
 
 import io.github.samwright.framework.model.Processor;
-import lombok.AccessLevel;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NonNull;
 
@@ -13,18 +11,27 @@ import java.util.Set;
 /**
  * Implementation of {@link Mediator}.  Don't use this - create via {@code Mediator} instead.
  */
-@AllArgsConstructor(access = AccessLevel.PRIVATE)
 final public class MediatorImpl extends Mediator {
-    @Getter private final Object data;
-    @Getter @NonNull private final History history;
+    @Getter private volatile Object data;
+    @Getter private volatile boolean released = false;
+    @Getter private final History history;
     @Getter private final Mediator previous;
+    @Getter private final FrameContext context;
+
+    private MediatorImpl(Object data, @NonNull History history, Mediator previous,
+                         @NonNull FrameContext context) {
+        this.data = data;
+        this.history = history;
+        this.previous = previous;
+        this.context = context;
+    }
 
-    public static Mediator createEmpty() {
-        return new MediatorImpl(null, History.getEpoch(), null);
+    public static Mediator createEmpty(FrameContext context) {
+        return new MediatorImpl(null, History.getEpoch(), null, context);
     }
 
     public Mediator createNext(@NonNull Processor creator, @NonNull Object data) {
-        return new MediatorImpl(data, history.createNext(creator), this);
+        return new MediatorImpl(data, history.createNext(creator), this, context);
     }
 
     public Mediator join(@NonNull Processor creator, @NonNull List<Mediator> mediatorsToJoin) {
@@ -32,10 +39,20 @@ final public class MediatorImpl extends Mediator {
         for (Mediator mediatorToJoin : mediatorsToJoin)
             joinedHistories.add(mediatorToJoin.getHistory());
 
-        return new MediatorImpl(mediatorsToJoin, history.join(creator, joinedHistories), this);
+        return new MediatorImpl(mediatorsToJoin, history.join(creator, joinedHistories), this,
+                context);
     }
 
     public boolean isEmpty() {
         return previous == null;
     }
+
+    public synchronized boolean releaseData() {
+        if (released || isEmpty() || history.isJoinPoint())
+            return false;
+
+        data = null;
+        released = true;
+        return true;
+    }
 }
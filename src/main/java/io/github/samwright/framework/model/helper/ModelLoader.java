@@ -1,5 +1,6 @@
 package io.github.samwright.framework.model.helper;
 
+import com.google.common.collect.MapMaker;
 import io.github.samwright.framework.model.Processor;
 import org.w3c.dom.Element;
 
@@ -7,9 +8,14 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The class with which Processors are registered, and from which Processors can be loaded.
+ * <p/>
+ * The current version of each UUID is only weakly referenced, so a version is forgotten once
+ * nothing else (eg. a model tree, an older version or a controller) refers to it, rather than
+ * being kept alive by the registry after it has been discarded.
  */
 public class ModelLoader {
     public static final class ModelLoadException extends RuntimeException {
@@ -31,8 +37,9 @@ public class ModelLoader {
 
     private ModelLoader() {}
 
-    private static Map<UUID,Processor> processors = new HashMap<>();
-    private static Map<String,Processor> prototypeModels = new HashMap<>();
+    // Separate models can be edited and loaded at the same time (see MutabilityHelper).
+    private static Map<UUID,Processor> processors = new MapMaker().weakValues().makeMap();
+    private static Map<String,Processor> prototypeModels = new ConcurrentHashMap<>();
 
     /**
      * Registers this {@link Processor} as the current version for its UUID.
@@ -56,6 +63,16 @@ public class ModelLoader {
         return processors.get(UUID);
     }
 
+    /**
+     * Gets the number of UUIDs with a registered current version (including any that have been
+     * forgotten but not yet cleaned up).
+     *
+     * @return the number of registered UUIDs.
+     */
+    public static int getRegisteredCount() {
+        return processors.size();
+    }
+
     /**
      * Get all registered prototype models.  These are the {@link Processor} objects which are
      * cloned when a model needs to be loaded.
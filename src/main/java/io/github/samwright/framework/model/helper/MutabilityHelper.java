@@ -5,18 +5,30 @@ import io.github.samwright.framework.model.Processor;
 import io.github.samwright.framework.model.common.ChildOf;
 import io.github.samwright.framework.model.common.Replaceable;
 import io.github.samwright.framework.model.mock.TopProcessor;
+import com.google.common.collect.MapMaker;
 import lombok.Getter;
 import lombok.NonNull;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A helper object that manages mutations in a {@link Processor} object (which delegates to this).
+ * <p/>
+ * A mutation (eg. replacing an element, which replaces its parents up to the top model) locks
+ * the model tree it is in, so separate models can be edited and loaded at the same time.  Every
+ * version of a top model shares the same lock.  The mutations that a mutation causes (on the
+ * same thread) are part of it, so they don't lock anything else.
  */
 public class MutabilityHelper {
-    private static final Object[] writeLock = new Object[0];
-    private static MutabilityHelper mutationStarter;
-    private static Reason reason;
+    private static final ConcurrentMap<Processor, ReentrantLock> treeLocks
+            = new MapMaker().weakKeys().makeMap();
+    private static final ThreadLocal<Mutation> currentMutation = new ThreadLocal<>();
+    private static final AtomicLong modelStamp = new AtomicLong();
 
     @Getter private boolean mutable;
     @Getter private ModelController controller;
@@ -30,6 +42,22 @@ public class MutabilityHelper {
         SETTING_UUID, SETTING_CONTROLLER, SETTING_CURRENT
     }
 
+    /**
+     * The mutation that a thread is part way through, and the locks on the model trees it
+     * touches.
+     */
+    private static class Mutation {
+        private final ReentrantLock treeLock;
+        private final List<ReentrantLock> otherTreeLocks = new ArrayList<>();
+        private int depth = 1;
+        private MutabilityHelper starter;
+        private Reason reason;
+
+        private Mutation(ReentrantLock treeLock) {
+            this.treeLock = treeLock;
+        }
+    }
+
     /**
      * Construct a new {@code MutabilityHelper} to manage the given {@link Processor}
      * with the given mutability.
@@ -46,25 +74,24 @@ public class MutabilityHelper {
         if (replacement == next)
             return;
 
+        enterMutation(managedProcessor);
         try {
-            synchronized (writeLock) {
-                Processor replacementProcessor = (Processor) replacement;
-                checkReplacementValidity(managedProcessor, replacementProcessor);
+            Processor replacementProcessor = (Processor) replacement;
+            checkReplacementValidity(managedProcessor, replacementProcessor);
 
-                startMutation(Reason.BEING_REPLACED);
+            startMutation(Reason.BEING_REPLACED);
 
-                if (getNext() != null)
-                    managedProcessor.discardNext();
+            if (getNext() != null)
+                managedProcessor.discardNext();
 
-                next = replacementProcessor;
-                next.replace(managedProcessor);
+            next = replacementProcessor;
+            next.replace(managedProcessor);
 
-                if (thisStartedMutation(Reason.BEING_REPLACED)) {
-                    getTopModel(next).afterReplacement();
-                }
+            if (thisStartedMutation(Reason.BEING_REPLACED)) {
+                getTopModel(next).afterReplacement();
             }
         } finally {
-            endMutationIfThisMethodStartedIt(Reason.BEING_REPLACED);
+            exitMutation();
         }
     }
 
@@ -72,29 +99,32 @@ public class MutabilityHelper {
         if (toReplace == previous && toReplace != null)
             return;
 
+        enterMutation(toReplace == null ? managedProcessor : (Processor) toReplace);
         try {
-            synchronized (writeLock) {
-                checkReplacementValidity((Processor) toReplace, managedProcessor);
+            checkReplacementValidity((Processor) toReplace, managedProcessor);
 
-                startMutation(Reason.REPLACING);
-                previous = (Processor) toReplace;
-                if (toReplace != null)
-                    toReplace.replaceWith(managedProcessor);
+            startMutation(Reason.REPLACING);
+            previous = (Processor) toReplace;
+            if (toReplace != null)
+                toReplace.replaceWith(managedProcessor);
 
-                this.mutable = false;
+            // A new version of a top model shares the old version's tree lock.
+            if (previous != null && getTopModel(previous) == previous)
+                treeLocks.put(managedProcessor, getTreeLock(previous));
 
-                if (toReplace != null) {
-                    managedProcessor.setController(previous.getController());
-                    managedProcessor.setUUID(previous.getUUID());
-                }
+            this.mutable = false;
 
-                setAsCurrentVersion();
-
-                if (thisStartedMutation((Reason.REPLACING)))
-                    getTopModel(managedProcessor).afterReplacement();
+            if (toReplace != null) {
+                managedProcessor.setController(previous.getController());
+                managedProcessor.setUUID(previous.getUUID());
             }
+
+            setAsCurrentVersion();
+
+            if (thisStartedMutation((Reason.REPLACING)))
+                getTopModel(managedProcessor).afterReplacement();
         } finally {
-            endMutationIfThisMethodStartedIt(Reason.REPLACING);
+            exitMutation();
         }
     }
 
@@ -115,6 +145,17 @@ public class MutabilityHelper {
         }
     }
 
+    /**
+     * Gets a number which changes every time any model is mutated (eg. when a new version
+     * becomes current, or a controller is changed), so anything derived from an immutable model
+     * (eg. an {@link ExecutionPlan}) can tell when it is out of date.
+     *
+     * @return the current model stamp.
+     */
+    public static long getModelStamp() {
+        return modelStamp.get();
+    }
+
     public TopProcessor getTopProcessor() {
         Processor topProcessor = getTopModel(managedProcessor);
         if (topProcessor instanceof TopProcessor)
@@ -123,73 +164,151 @@ public class MutabilityHelper {
             return null;
     }
 
-    private static Processor getTopModel(Processor processor) {
+    /**
+     * Gets the top model of the tree that a processor is in (which is the processor itself if it
+     * has no parent).
+     *
+     * @param processor the processor.
+     * @return the top model of the processor's tree.
+     */
+    static Processor getTopModel(Processor processor) {
         while (processor instanceof ChildOf && ((ChildOf) processor).getParent() != null)
             processor = (Processor) ((ChildOf) processor).getParent();
 
         return processor;
     }
 
-    private void startMutation(Reason forThisReason) {
-        if (mutationStarter == null) {
-            mutationStarter = this;
-            reason = forThisReason;
+    /**
+     * Starts (or continues, if this thread is already part way through one) a mutation of the
+     * model tree that the given processor is in, which waits for any other thread's mutation of
+     * the same tree to finish.  Must be followed by {@code exitMutation()}.
+     *
+     * @param treeMember a processor in the model tree to lock.
+     */
+    private static void enterMutation(Processor treeMember) {
+        Mutation mutation = currentMutation.get();
+        if (mutation != null) {
+            lockOtherTree(mutation, getTreeLock(getTopModel(treeMember)));
+            ++mutation.depth;
+            return;
+        }
+
+        while (true) {
+            ReentrantLock treeLock = getTreeLock(getTopModel(treeMember));
+            treeLock.lock();
+
+            // Check the processor wasn't moved to another tree while waiting for the lock.
+            if (getTreeLock(getTopModel(treeMember)) == treeLock) {
+                currentMutation.set(new Mutation(treeLock));
+                return;
+            }
+            treeLock.unlock();
         }
     }
 
-    private boolean thisStartedMutation(Reason forThisReason) {
-        return mutationStarter == this && reason == forThisReason;
+    /**
+     * Locks another tree that the current mutation touches (eg. a new mutable clone, which is a
+     * tree of its own until it gets a parent) until the mutation ends.  Waiting for the lock could
+     * deadlock with a mutation of that tree that is waiting for this one, so it must be free.
+     *
+     * @param mutation the current mutation.
+     * @param treeLock the lock on the other tree.
+     */
+    private static void lockOtherTree(Mutation mutation, ReentrantLock treeLock) {
+        if (treeLock.isHeldByCurrentThread())
+            return;
+
+        if (!treeLock.tryLock())
+            throw new IllegalStateException(
+                    "Tried mutating a model tree that another thread is mutating, "
+                            + "part way through a mutation of another tree");
+
+        mutation.otherTreeLocks.add(treeLock);
+    }
+
+    /**
+     * Ends the current mutation (once every method that entered it has exited), and notifies
+     * the top model's controller if the mutation changed something.
+     */
+    private static void exitMutation() {
+        Mutation mutation = currentMutation.get();
+        if (--mutation.depth > 0)
+            return;
+
+        currentMutation.remove();
+        for (ReentrantLock otherTreeLock : mutation.otherTreeLocks)
+            otherTreeLock.unlock();
+        mutation.treeLock.unlock();
+
+        if (mutation.starter != null) {
+            modelStamp.incrementAndGet();
+            mutation.starter.notifyTopController();
+        }
+    }
+
+    private static ReentrantLock getTreeLock(Processor topModel) {
+        ReentrantLock treeLock = treeLocks.get(topModel);
+        if (treeLock == null) {
+            treeLock = new ReentrantLock();
+            ReentrantLock existing = treeLocks.putIfAbsent(topModel, treeLock);
+            if (existing != null)
+                treeLock = existing;
+        }
+        return treeLock;
     }
 
-    private void endMutationIfThisMethodStartedIt(Reason forThisReason) {
-        if (thisStartedMutation(forThisReason) && !Thread.holdsLock(writeLock)) {
-            mutationStarter = null;
-            reason = null;
-            notifyTopController();
+    private void startMutation(Reason forThisReason) {
+        Mutation mutation = currentMutation.get();
+        if (mutation.starter == null) {
+            mutation.starter = this;
+            mutation.reason = forThisReason;
         }
     }
 
+    private boolean thisStartedMutation(Reason forThisReason) {
+        Mutation mutation = currentMutation.get();
+        return mutation.starter == this && mutation.reason == forThisReason;
+    }
+
     public void discardNext() {
+        enterMutation(managedProcessor);
         try {
-            synchronized (writeLock) {
-                startMutation(Reason.DISCARDING_NEXT);
-                if (getNext() != null) {
-                    Processor oldNext = getNext();
-                    next = null;
-                    oldNext.discardPrevious();
-                }
-
-                if (thisStartedMutation(Reason.DISCARDING_NEXT))
-                    restoreCurrentAfterDiscard(managedProcessor);
+            startMutation(Reason.DISCARDING_NEXT);
+            if (getNext() != null) {
+                Processor oldNext = getNext();
+                next = null;
+                oldNext.discardPrevious();
             }
+
+            if (thisStartedMutation(Reason.DISCARDING_NEXT))
+                restoreCurrentAfterDiscard(managedProcessor);
         } finally {
-            endMutationIfThisMethodStartedIt(Reason.DISCARDING_NEXT);
+            exitMutation();
         }
     }
 
     public void discardPrevious() {
+        enterMutation(managedProcessor);
         try {
-            synchronized (writeLock) {
-                if (getPrevious() != null) {
-                    startMutation(Reason.DISCARDING_PREV);
-                    Processor oldPrevious = getPrevious();
-                    previous = null;
-                    managedProcessor.setUUID(ModelLoader.makeNewUUID());
-
-                    ModelController oldPreviousController = oldPrevious.getController();
-                    if (oldPreviousController == null)
-                        managedProcessor.setController(null);
-                    else
-                        managedProcessor.setController(oldPreviousController.createClone());
-
-                    oldPrevious.discardNext();
-
-                    if (thisStartedMutation(Reason.DISCARDING_PREV))
-                        restoreCurrentAfterDiscard(oldPrevious);
-                }
+            if (getPrevious() != null) {
+                startMutation(Reason.DISCARDING_PREV);
+                Processor oldPrevious = getPrevious();
+                previous = null;
+                managedProcessor.setUUID(ModelLoader.makeNewUUID());
+
+                ModelController oldPreviousController = oldPrevious.getController();
+                if (oldPreviousController == null)
+                    managedProcessor.setController(null);
+                else
+                    managedProcessor.setController(oldPreviousController.createClone());
+
+                oldPrevious.discardNext();
+
+                if (thisStartedMutation(Reason.DISCARDING_PREV))
+                    restoreCurrentAfterDiscard(oldPrevious);
             }
         } finally {
-            endMutationIfThisMethodStartedIt(Reason.DISCARDING_PREV);
+            exitMutation();
         }
     }
 
@@ -216,37 +335,37 @@ public class MutabilityHelper {
     }
 
     public void setAsCurrentVersion() {
+        enterMutation(managedProcessor);
         try {
-            synchronized (writeLock) {
-                startMutation(Reason.SETTING_CURRENT);
+            startMutation(Reason.SETTING_CURRENT);
+            modelStamp.incrementAndGet();
 
-                if (managedProcessor.getController() != null)
-                    managedProcessor.getController().proposeModel(managedProcessor);
+            if (managedProcessor.getController() != null)
+                managedProcessor.getController().proposeModel(managedProcessor);
 
-                ModelLoader.registerProcessor(managedProcessor);
-            }
+            ModelLoader.registerProcessor(managedProcessor);
         } finally {
-            endMutationIfThisMethodStartedIt(Reason.SETTING_CURRENT);
+            exitMutation();
         }
     }
 
     public void setController(ModelController controller) {
+        enterMutation(managedProcessor);
         try {
-            synchronized (writeLock) {
-                if (this.controller != controller) {
-                    startMutation(Reason.SETTING_CONTROLLER);
+            if (this.controller != controller) {
+                startMutation(Reason.SETTING_CONTROLLER);
+                modelStamp.incrementAndGet();
 
-                    this.controller = controller;
-                    if (getNext() != null)
-                        getNext().setController(controller);
+                this.controller = controller;
+                if (getNext() != null)
+                    getNext().setController(controller);
 
-                    else if (thisStartedMutation(Reason.SETTING_CONTROLLER)
-                            && controller != null)
-                        controller.proposeModel(getCurrentVersion());
-                }
+                else if (thisStartedMutation(Reason.SETTING_CONTROLLER)
+                        && controller != null)
+                    controller.proposeModel(getCurrentVersion());
             }
         } finally {
-            endMutationIfThisMethodStartedIt(Reason.SETTING_CONTROLLER);
+            exitMutation();
         }
     }
 
@@ -255,26 +374,25 @@ public class MutabilityHelper {
     }
 
     public void setUUID(UUID uuid) {
+        enterMutation(managedProcessor);
         try {
-            synchronized (writeLock) {
-                if (getUUID() == null || !getUUID().equals(uuid)) {
-                    startMutation(Reason.SETTING_UUID);
-
-                    this.uuid = uuid;
-                    if (getNext() != null)
-                        getNext().setUUID(uuid);
-
-                    if (thisStartedMutation(Reason.SETTING_UUID)) {
-                        Processor currentVersion = getCurrentVersion();
-                        if (currentVersion == null)
-                            managedProcessor.setAsCurrentVersion();
-                        else if (currentVersion.getUUID().equals(getUUID()))
-                            currentVersion.setAsCurrentVersion();
-                    }
+            if (getUUID() == null || !getUUID().equals(uuid)) {
+                startMutation(Reason.SETTING_UUID);
+
+                this.uuid = uuid;
+                if (getNext() != null)
+                    getNext().setUUID(uuid);
+
+                if (thisStartedMutation(Reason.SETTING_UUID)) {
+                    Processor currentVersion = getCurrentVersion();
+                    if (currentVersion == null)
+                        managedProcessor.setAsCurrentVersion();
+                    else if (currentVersion.getUUID().equals(getUUID()))
+                        currentVersion.setAsCurrentVersion();
                 }
             }
         } finally {
-            endMutationIfThisMethodStartedIt(Reason.SETTING_UUID);
+            exitMutation();
         }
 
     }
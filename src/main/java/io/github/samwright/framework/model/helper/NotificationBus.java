@@ -0,0 +1,206 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.controller.ModelController;
+import io.github.samwright.framework.model.common.ElementObserver;
+import lombok.Getter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Delivers processed data to {@link ElementObserver} and {@link ModelController} objects from a
+ * dispatcher, so slow subscribers (eg. previews in the GUI) don't hold up processing.
+ * <p/>
+ * Each notification is published with a {@link Policy}:
+ * <ul>
+ *     <li>{@code EVERY} notifications wait in a bounded ring buffer and are all delivered, in
+ *     the order they were published.  If the buffer is full, the publisher waits.</li>
+ *     <li>{@code LATEST} notifications are coalesced per subscriber, so a subscriber that
+ *     can't keep up only sees the most recent data.  Publishing never waits.</li>
+ * </ul>
+ * The dispatcher only runs (on the shared notifier executor - see {@link SharedExecutors})
+ * while there are notifications to deliver.
+ * <p/>
+ * Data from shadow frames (see {@link FrameContext}) is never delivered.
+ */
+public class NotificationBus {
+
+    /**
+     * Which of a subscriber's notifications are delivered.
+     */
+    public static enum Policy {
+        EVERY, LATEST
+    }
+
+    /**
+     * The default number of {@code EVERY} notifications that can wait to be delivered.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final NotificationBus shared = new NotificationBus(DEFAULT_CAPACITY);
+
+    private final Object[] lock = new Object[0];
+    private final Notification[] ring;
+    private int head = 0;
+    private int size = 0;
+    private final Map<Object, Notification> latest = new LinkedHashMap<>();
+    private boolean dispatching = false;
+
+    /**
+     * Creates a bus with the given ring buffer capacity.
+     *
+     * @param capacity the number of {@code EVERY} notifications that can wait to be delivered.
+     */
+    public NotificationBus(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1, not " + capacity);
+        ring = new Notification[capacity];
+    }
+
+    /**
+     * @return the bus used when processing data.
+     */
+    public static NotificationBus getShared() {
+        return shared;
+    }
+
+    /**
+     * Publishes processed data to an observer.
+     *
+     * @param observer the observer to notify.
+     * @param processedData the data to give it.
+     * @param policy whether the observer must be given every notification, or just the latest.
+     */
+    public void publish(final ElementObserver observer, Mediator processedData, Policy policy) {
+        if (isShadow(processedData))
+            return;
+
+        publish(new Notification(observer, processedData) {
+            @Override
+            void deliver() {
+                observer.handleProcessedData(getData());
+            }
+        }, policy);
+    }
+
+    /**
+     * Publishes processed data to a controller.
+     *
+     * @param controller the controller to notify.
+     * @param processedData the data to give it.
+     * @param policy whether the controller must be given every notification, or just the latest.
+     */
+    public void publish(final ModelController controller, Mediator processedData, Policy policy) {
+        if (isShadow(processedData))
+            return;
+
+        publish(new Notification(controller, processedData) {
+            @Override
+            void deliver() {
+                controller.handleProcessedData(getData());
+            }
+        }, policy);
+    }
+
+    private static boolean isShadow(Mediator processedData) {
+        return processedData != null && processedData.getContext().isShadow();
+    }
+
+    private void publish(Notification notification, Policy policy) {
+        synchronized (lock) {
+            if (policy == Policy.LATEST) {
+                // Replace any undelivered notification for the subscriber, keeping its place.
+                latest.put(notification.subscriber, notification);
+            } else {
+                while (size == ring.length) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                }
+                ring[(head + size) % ring.length] = notification;
+                ++size;
+            }
+
+            if (!dispatching) {
+                dispatching = true;
+                SharedExecutors.getNotifier().execute(new Dispatcher());
+            }
+        }
+    }
+
+    /**
+     * @return the number of {@code EVERY} notifications waiting to be delivered.
+     */
+    public int size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    /**
+     * Waits until every notification published so far has been delivered.  If a notification
+     * is published while waiting, that one is waited for too.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void flush() throws InterruptedException {
+        synchronized (lock) {
+            while (dispatching)
+                lock.wait();
+        }
+    }
+
+    private Notification takeNext() {
+        synchronized (lock) {
+            Notification next = null;
+
+            if (size > 0) {
+                next = ring[head];
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                --size;
+            } else if (!latest.isEmpty()) {
+                Iterator<Notification> itr = latest.values().iterator();
+                next = itr.next();
+                itr.remove();
+            } else {
+                dispatching = false;
+            }
+
+            lock.notifyAll();
+            return next;
+        }
+    }
+
+    private abstract static class Notification {
+        private final Object subscriber;
+        @Getter private final Mediator data;
+
+        private Notification(Object subscriber, Mediator data) {
+            this.subscriber = subscriber;
+            this.data = data;
+        }
+
+        abstract void deliver();
+    }
+
+    private class Dispatcher implements Runnable {
+        @Override
+        public void run() {
+            Notification notification;
+
+            while ((notification = takeNext()) != null) {
+                try {
+                    notification.deliver();
+                } catch (RuntimeException e) {
+                    // A failing subscriber mustn't stop the others from being notified.
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package io.github.samwright.framework.model.helper;
+
+import com.google.common.collect.MapMaker;
+import io.github.samwright.framework.model.Processor;
+import io.github.samwright.framework.model.common.NativeMemoryUser;
+import io.github.samwright.framework.model.common.StaticSource;
+import lombok.Getter;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An in-memory cache of the data that processors output while processing (not training), so
+ * that re-processing the same input (eg. a selected image, after an edit in the GUI) only
+ * recomputes from the first processor that has changed.
+ * <p/>
+ * Each entry is keyed by the processor's UUID and structural signature (see
+ * {@code XMLHelper.getStructuralSignature(..)}), and the identity and {@link History} of each of
+ * its inputs.  Editing a model makes a new version of every element in it, so an unchanged
+ * element is recognised by having the same UUID and signature as before.  Only inputs
+ * derived from a {@link StaticSource}'s static output are cached (every other input is assumed
+ * to be new, eg. a frame from the camera), and only elements whose output depends on nothing
+ * but their input and configuration should be cached (see {@code ExecutionPlan}).  Processors
+ * that are changed in place (eg. by training) need their model's entries to be cleared.
+ * <p/>
+ * Outputs are evicted, least recently used first, once the native memory they hold (see
+ * {@link NativeMemoryUser}) is over the limit.
+ * <p/>
+ * There is no shared memo unless one is set with {@code ProcessingMemo.setShared(..)}.
+ */
+public class ProcessingMemo {
+
+    /**
+     * The most outputs that are kept, however little native memory they hold.
+     */
+    public static final int MAX_ENTRIES = 1024;
+
+    private static volatile ProcessingMemo shared;
+
+    @Getter private final long maxNativeBytes;
+    private final Object[] lock = new Object[0];
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Object> staticData
+            = Collections.newSetFromMap(new MapMaker().weakKeys().<Object, Boolean>makeMap());
+    private final ConcurrentMap<Processor, String> signatures = new MapMaker().weakKeys().makeMap();
+    private long nativeBytes = 0;
+
+    /**
+     * Creates a memo that evicts outputs once they hold more than the given amount of native
+     * memory.
+     *
+     * @param maxNativeBytes the most native memory the memo's outputs can hold.
+     */
+    public ProcessingMemo(long maxNativeBytes) {
+        this.maxNativeBytes = maxNativeBytes;
+    }
+
+    /**
+     * @return the memo used while processing, or null if there isn't one.
+     */
+    public static ProcessingMemo getShared() {
+        return shared;
+    }
+
+    /**
+     * @param memo the memo to use while processing, or null to stop memoising.
+     */
+    public static void setShared(ProcessingMemo memo) {
+        shared = memo;
+    }
+
+    /**
+     * Marks an output of a {@link StaticSource} (while it has a static output) as static, so
+     * that anything derived from it can be cached.
+     *
+     * @param output the static output.
+     */
+    public void markStatic(Mediator output) {
+        if (output.getData() != null)
+            staticData.add(output.getData());
+    }
+
+    /**
+     * @param mediator the mediator to check.
+     * @return true if the mediator's data is a static source's output, or was derived from one.
+     */
+    public boolean isStatic(Mediator mediator) {
+        return mediator.getData() != null && staticData.contains(mediator.getData());
+    }
+
+    /**
+     * Gets the data the processor output the last time it was given the same inputs.
+     *
+     * @param processor the processor.
+     * @param inputs the processor's inputs (eg. the mediators it is joining).
+     * @return the cached output data, or null if there isn't any.
+     */
+    public Object lookup(Processor processor, List<Mediator> inputs) {
+        if (!areStatic(inputs))
+            return null;
+
+        return lookup(new Key(processor, getSignature(processor), inputs));
+    }
+
+    /**
+     * Gets the data the processor output the last time it was given the same input.  This is
+     * the same as {@code lookup(processor, Collections.singletonList(input))}, without making a
+     * list for every frame.
+     *
+     * @param processor the processor.
+     * @param input the processor's input.
+     * @return the cached output data, or null if there isn't any.
+     */
+    public Object lookup(Processor processor, Mediator input) {
+        if (!isStatic(input))
+            return null;
+
+        return lookup(new Key(processor, getSignature(processor), input));
+    }
+
+    private Object lookup(Key key) {
+        synchronized (lock) {
+            Entry entry = entries.get(key);
+            return entry == null ? null : entry.data;
+        }
+    }
+
+    /**
+     * Caches the data the processor output for the given inputs, if they are static (see
+     * {@code isStatic(..)}), and marks the data as static.  Null data isn't cached.
+     *
+     * @param processor the processor.
+     * @param inputs the processor's inputs (eg. the mediators it is joining).
+     * @param data the data the processor output.
+     */
+    public void store(Processor processor, List<Mediator> inputs, Object data) {
+        if (data == null || !areStatic(inputs))
+            return;
+
+        store(processor, new Key(processor, getSignature(processor), inputs), data,
+              isInputData(data, inputs));
+    }
+
+    /**
+     * Caches the data the processor output for the given input.  This is the same as
+     * {@code store(processor, Collections.singletonList(input), data)}, without making a list
+     * for every frame.
+     *
+     * @param processor the processor.
+     * @param input the processor's input.
+     * @param data the data the processor output.
+     */
+    public void store(Processor processor, Mediator input, Object data) {
+        if (data == null || !isStatic(input))
+            return;
+
+        store(processor, new Key(processor, getSignature(processor), input), data,
+              input.getData() == data);
+    }
+
+    private void store(Processor processor, Key key, Object data, boolean isInputData) {
+        // Data passed on from an input was accounted for by the entry that first output it.
+        long bytes = 0;
+        if (data instanceof NativeMemoryUser && !isInputData)
+            bytes = ((NativeMemoryUser) data).getNativeBytes();
+
+        staticData.add(data);
+
+        synchronized (lock) {
+            Entry replaced = entries.put(key,
+                    new Entry(data, bytes, History.getModelKey(processor)));
+            if (replaced != null)
+                nativeBytes -= replaced.bytes;
+            nativeBytes += bytes;
+
+            Iterator<Entry> itr = entries.values().iterator();
+            while (itr.hasNext() && (nativeBytes > maxNativeBytes || entries.size() > MAX_ENTRIES)) {
+                nativeBytes -= itr.next().bytes;
+                itr.remove();
+            }
+        }
+    }
+
+    /**
+     * @return how much native memory the cached outputs hold, in bytes.
+     */
+    public long getNativeBytes() {
+        synchronized (lock) {
+            return nativeBytes;
+        }
+    }
+
+    /**
+     * @return the number of cached outputs.
+     */
+    public int size() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Discards every cached output.
+     */
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+            nativeBytes = 0;
+        }
+    }
+
+    /**
+     * Discards the cached outputs of a model's processors (eg. after it has been trained, which
+     * changes its processors in place).
+     *
+     * @param model the model (or any processor in it).
+     */
+    public void clear(Processor model) {
+        Object modelKey = History.getModelKey(model);
+
+        synchronized (lock) {
+            Iterator<Entry> itr = entries.values().iterator();
+            while (itr.hasNext()) {
+                Entry entry = itr.next();
+                if (entry.model.equals(modelKey)) {
+                    nativeBytes -= entry.bytes;
+                    itr.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the processor's structural signature, or null if it doesn't have a UUID (eg. a stub),
+     * in which case it is only recognised by its identity.
+     */
+    private String getSignature(Processor processor) {
+        if (processor.getUUID() == null)
+            return null;
+
+        String signature = signatures.get(processor);
+
+        if (signature == null || processor.isMutable()) {
+            signature = XMLHelper.getStructuralSignature(processor);
+            signatures.put(processor, signature);
+        }
+
+        return signature;
+    }
+
+    private boolean areStatic(List<Mediator> inputs) {
+        for (Mediator input : inputs)
+            if (!isStatic(input))
+                return false;
+        return true;
+    }
+
+    private static boolean isInputData(Object data, List<Mediator> inputs) {
+        for (Mediator input : inputs)
+            if (input.getData() == data)
+                return true;
+        return false;
+    }
+
+    /**
+     * Cached output data, the native memory it holds and the key of the model that output it.
+     */
+    private static class Entry {
+        private final Object data;
+        private final long bytes;
+        private final Object model;
+
+        private Entry(Object data, long bytes, Object model) {
+            this.data = data;
+            this.bytes = bytes;
+            this.model = model;
+        }
+    }
+
+    /**
+     * A processor's UUID and signature, and the identity of each of its inputs' data and
+     * history.
+     */
+    private static class Key {
+        private final Object[] parts;
+        private final int hash;
+
+        private Key(Processor processor, String signature, List<Mediator> inputs) {
+            parts = new Object[2 + 2 * inputs.size()];
+            parts[0] = History.getCreatorKey(processor);
+            parts[1] = signature;
+            for (int i = 0; i < inputs.size(); ++i) {
+                parts[2 + 2 * i] = inputs.get(i).getData();
+                parts[3 + 2 * i] = inputs.get(i).getHistory();
+            }
+            hash = hashOf(parts);
+        }
+
+        private Key(Processor processor, String signature, Mediator input) {
+            parts = new Object[] {History.getCreatorKey(processor), signature, input.getData(),
+                                  input.getHistory()};
+            hash = hashOf(parts);
+        }
+
+        private static int hashOf(Object[] parts) {
+            int h = Objects.hash(parts[0], parts[1]);
+            for (int i = 2; i < parts.length; ++i)
+                h = 31 * h + System.identityHashCode(parts[i]);
+            return h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+
+            Object[] otherParts = ((Key) o).parts;
+            if (otherParts.length != parts.length || !otherParts[0].equals(parts[0])
+                    || !Objects.equals(otherParts[1], parts[1]))
+                return false;
+
+            for (int i = 2; i < parts.length; ++i)
+                if (otherParts[i] != parts[i])
+                    return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Workflow;
+import io.github.samwright.framework.model.WorkflowContainer;
+import io.github.samwright.framework.model.common.ReadsTrainingPayloads;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when the data of intermediate training data {@link Mediator} objects can be released
+ * while training, so a training batch doesn't keep every intermediate image of every chain alive
+ * until training completes.
+ * <p/>
+ * Rolling a {@link CompletedTrainingBatch} back only needs the history and identity of each
+ * {@code Mediator} in a chain, not its data.  So once an element's outputs have been processed by
+ * the next element in the workflow, their data is released (see {@code Mediator.releaseData()}),
+ * unless either element is a {@link ReadsTrainingPayloads}.  A {@link WorkflowContainer} passes
+ * its inputs straight to the first element of each of its workflows, so it counts as reading
+ * them if any of those elements does.  The outputs of a workflow (ie. of
+ * its last element) are never released, and nor are joins (whose data is needed to roll back
+ * through a {@link io.github.samwright.framework.model.SplitJoinWorkflowContainer}).
+ * <p/>
+ * Released data can't be reused, so a {@link TrainingRecord} retrains every element whose
+ * outputs were released, and controllers and observers that look at training data after it was
+ * processed (eg. previews) find it gone.  There is no shared policy (so nothing is released)
+ * unless one is set with {@code RetentionPolicy.setShared(..)}.
+ */
+public class RetentionPolicy {
+
+    private static volatile RetentionPolicy shared;
+
+    private final AtomicLong released = new AtomicLong();
+
+    /**
+     * @return the policy used while training, or null if there isn't one (so no training data is
+     *         released).
+     */
+    public static RetentionPolicy getShared() {
+        return shared;
+    }
+
+    /**
+     * @param policy the policy to use while training, or null to keep all training data.
+     */
+    public static void setShared(RetentionPolicy policy) {
+        shared = policy;
+    }
+
+    /**
+     * Called once an element's training data outputs have been processed by the next element in
+     * the workflow, to release them if neither element needs their data when it is trained.
+     *
+     * @param producer the element that output the training data.
+     * @param consumer the next element, which has processed the training data.
+     * @param outputs the producer's training data outputs.
+     */
+    public void afterConsumed(Element producer, Element consumer, List<Mediator> outputs) {
+        if (producer instanceof ReadsTrainingPayloads || readsInputs(consumer))
+            return;
+
+        for (Mediator output : outputs)
+            if (output.releaseData())
+                released.incrementAndGet();
+    }
+
+    /**
+     * Returns true if the element reads its training data inputs when it is trained, or is a
+     * container that gives them to an element that does.
+     */
+    private static boolean readsInputs(Element element) {
+        if (element instanceof ReadsTrainingPayloads)
+            return true;
+
+        if (element instanceof WorkflowContainer) {
+            for (Workflow workflow : ((WorkflowContainer) element).getChildren()) {
+                List<Element> elements = workflow.getChildren();
+                if (!elements.isEmpty() && readsInputs(elements.get(0)))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the number of {@code Mediator} objects whose data has been released.
+     */
+    public long getReleased() {
+        return released.get();
+    }
+}
@@ -0,0 +1,367 @@
+package io.github.samwright.framework.model.helper;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Processor;
+import io.github.samwright.framework.model.Workflow;
+import io.github.samwright.framework.model.WorkflowImpl;
+import lombok.Getter;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a candidate version of a {@link Workflow} in shadow alongside the live version, on
+ * copies of the same frames, and records how often their outputs agree and how long each stage
+ * takes in each version.  This is for checking a candidate (eg. an edited version of the model)
+ * before it is promoted.
+ * <p/>
+ * Retraining can't be checked this way yet: training publishes the new state into the trained
+ * elements themselves (see {@link TrainingSession}), which the live version shares, so there is
+ * no separate retrained version to run in shadow.
+ * <p/>
+ * A {@link FrameStream} with a shadow evaluator gives it a copy of each frame as it comes out of
+ * the source element (see {@code offer(..)}), which the candidate processes from its second
+ * element onwards, and then gives it the live output to compare (see {@code compare(..)}).
+ * Shadow frames have a shadow {@link FrameContext}, so their outputs never reach observers or
+ * controllers, and sinks with side effects (eg. pressing keys) skip them.
+ * <p/>
+ * Shadow frames are processed by a few low-priority threads (using spare cores), as are the
+ * branches of any split/joins in the candidate (see {@code BranchExecutor.getShadow()}), and are
+ * shed before any live work is held up: a frame is dropped if every shadow thread is busy, and
+ * shadow frames in flight are abandoned when the live stream starts abandoning frames (see
+ * {@code shed()}).
+ */
+public class ShadowEvaluator {
+
+    @Getter private final Workflow candidate;
+    private final List<Element> stages;
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentMap<FrameContext, Trial> trials = new MapMaker().weakKeys().makeMap();
+    private final Set<FrameContext> inFlight
+            = Collections.newSetFromMap(new ConcurrentHashMap<FrameContext, Boolean>());
+
+    private final Object[] lock = new Object[0];
+    private int comparedFrames = 0, agreeingFrames = 0, shedFrames = 0, failedFrames = 0;
+    private final Map<Object, StageLatency> latencies = new LinkedHashMap<>();
+
+    /**
+     * Creates an evaluator with a shadow thread for each spare core (ie. all but one, but at
+     * least one).
+     *
+     * @param candidate the (immutable) candidate version of the workflow.
+     */
+    public ShadowEvaluator(Workflow candidate) {
+        this(candidate, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Creates an evaluator with the given number of shadow threads.
+     *
+     * @param candidate the (immutable) candidate version of the workflow.
+     * @param workers the number of frames that can be processed in shadow at the same time.
+     */
+    public ShadowEvaluator(Workflow candidate, int workers) {
+        if (candidate.isMutable())
+            throw new RuntimeException("Can only shadow an immutable workflow");
+        if (workers < 1)
+            throw new IllegalArgumentException("Need at least one worker, not " + workers);
+
+        this.candidate = candidate;
+        this.stages = new ArrayList<>(candidate.getChildren());
+
+        // No queue, so a frame is shed unless a shadow thread is free to take it.
+        executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("shadow-%d").setDaemon(true)
+                        .setPriority(Thread.MIN_PRIORITY).build(),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        synchronized (lock) {
+                            ++shedFrames;
+                        }
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Processes a copy of a live frame with the candidate, if a shadow thread is free (otherwise
+     * the frame is shed).  Never waits.
+     *
+     * @param sourceOutput the output of the live version's source element for the frame.  Its
+     *                     context must be unique to the frame (ie. not
+     *                     {@code FrameContext.NONE}), so the live output can be matched to it.
+     */
+    public void offer(Mediator sourceOutput) {
+        FrameContext liveContext = sourceOutput.getContext();
+        if (liveContext == FrameContext.NONE || executor.isShutdown())
+            return;
+
+        final Trial trial = new Trial(liveContext);
+        final FrameContext shadowContext = FrameContext.forShadow();
+        final Mediator input = Mediator.createEmpty(shadowContext)
+                .createNext(sourceOutput.getHistory().getCreator(), sourceOutput.getData());
+
+        trials.put(liveContext, trial);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runShadow(trial, shadowContext, input);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shut down since checking.
+            trials.remove(liveContext);
+        }
+    }
+
+    private void runShadow(Trial trial, FrameContext shadowContext, Mediator data) {
+        inFlight.add(shadowContext);
+        try {
+            for (int i = 1; i < stages.size(); ++i)
+                data = WorkflowImpl.processElement(stages.get(i), data);
+            trial.setShadow(data.getData(), shadowContext);
+        } catch (FrameAbandonedException e) {
+            trials.remove(trial.liveContext);
+            synchronized (lock) {
+                ++shedFrames;
+            }
+        } catch (RuntimeException e) {
+            trials.remove(trial.liveContext);
+            synchronized (lock) {
+                ++failedFrames;
+            }
+        } finally {
+            inFlight.remove(shadowContext);
+        }
+    }
+
+    /**
+     * Compares the live output of a frame with the candidate's output for the same frame (once
+     * both have finished).  Does nothing if the frame wasn't processed in shadow.
+     *
+     * @param liveOutput the live version's output for the frame.
+     */
+    public void compare(Mediator liveOutput) {
+        Trial trial = trials.get(liveOutput.getContext());
+        if (trial != null)
+            trial.setLive(liveOutput.getData());
+    }
+
+    /**
+     * Abandons every shadow frame in flight (eg. because the live stream can't keep up).
+     */
+    public void shed() {
+        for (FrameContext context : inFlight)
+            context.cancel();
+    }
+
+    /**
+     * Stops processing frames in shadow.  Shadow frames in flight are abandoned.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        shed();
+    }
+
+    /**
+     * @return the number of frames whose live and shadow outputs have been compared.
+     */
+    public int getComparedFrames() {
+        synchronized (lock) {
+            return comparedFrames;
+        }
+    }
+
+    /**
+     * @return the number of compared frames for which the candidate agreed with the live
+     *         version.
+     */
+    public int getAgreeingFrames() {
+        synchronized (lock) {
+            return agreeingFrames;
+        }
+    }
+
+    /**
+     * @return the fraction of compared frames for which the candidate agreed with the live
+     *         version, or 0 if none have been compared.
+     */
+    public double getAgreementRate() {
+        synchronized (lock) {
+            return comparedFrames == 0 ? 0 : (double) agreeingFrames / comparedFrames;
+        }
+    }
+
+    /**
+     * @return the number of frames that were shed (not processed in shadow, or abandoned).
+     */
+    public int getShedFrames() {
+        synchronized (lock) {
+            return shedFrames;
+        }
+    }
+
+    /**
+     * @return the number of frames that the candidate failed to process.
+     */
+    public int getFailedFrames() {
+        synchronized (lock) {
+            return failedFrames;
+        }
+    }
+
+    /**
+     * @return the latency of each stage in the live and shadow versions of the compared frames,
+     *         in the order the stages were first seen.
+     */
+    public List<StageLatency> getStageLatencies() {
+        synchronized (lock) {
+            List<StageLatency> snapshot = new ArrayList<>();
+            for (StageLatency latency : latencies.values())
+                snapshot.add(latency.copy());
+            return snapshot;
+        }
+    }
+
+    /**
+     * Returns true if the candidate's output for a frame agrees with the live output.  By
+     * default, the outputs agree if they are equal.
+     *
+     * @param liveData the data output by the live version.
+     * @param shadowData the data output by the candidate.
+     * @return true if they agree.
+     */
+    protected boolean agree(Object liveData, Object shadowData) {
+        return Objects.equal(liveData, shadowData);
+    }
+
+    private void record(Object liveData, FrameContext liveContext, Object shadowData,
+                        FrameContext shadowContext) {
+        boolean agreed = agree(liveData, shadowData);
+
+        synchronized (lock) {
+            ++comparedFrames;
+            if (agreed)
+                ++agreeingFrames;
+
+            for (FrameContext.StageRecord record : liveContext.getStageRecords())
+                getLatency(record.getProcessor()).addLive(record.getNanos());
+            for (FrameContext.StageRecord record : shadowContext.getStageRecords())
+                getLatency(record.getProcessor()).addShadow(record.getNanos());
+        }
+    }
+
+    /**
+     * Gets the latency of a stage, which is the same in both versions if it has the same UUID
+     * (ie. it is a version of the same element).
+     */
+    private StageLatency getLatency(Processor processor) {
+        Object key = processor.getUUID() == null ? processor : processor.getUUID();
+        StageLatency latency = latencies.get(key);
+        if (latency == null) {
+            latency = new StageLatency(processor.toString());
+            latencies.put(key, latency);
+        }
+        return latency;
+    }
+
+    /**
+     * The live and shadow outputs of a frame, which are compared once both have arrived.
+     */
+    private class Trial {
+        private final FrameContext liveContext;
+        private boolean hasLive = false, hasShadow = false;
+        private Object liveData, shadowData;
+        private FrameContext shadowContext;
+
+        private Trial(FrameContext liveContext) {
+            this.liveContext = liveContext;
+        }
+
+        private void setLive(Object data) {
+            synchronized (this) {
+                liveData = data;
+                hasLive = true;
+                if (!hasShadow)
+                    return;
+            }
+            finish();
+        }
+
+        private void setShadow(Object data, FrameContext context) {
+            synchronized (this) {
+                shadowData = data;
+                shadowContext = context;
+                hasShadow = true;
+                if (!hasLive)
+                    return;
+            }
+            finish();
+        }
+
+        private void finish() {
+            if (trials.remove(liveContext, this))
+                record(liveData, liveContext, shadowData, shadowContext);
+        }
+    }
+
+    /**
+     * The total time a stage took in the live and shadow versions of the compared frames.
+     */
+    public static class StageLatency {
+        @Getter private final String stage;
+        @Getter private long liveNanos = 0, shadowNanos = 0;
+        @Getter private int liveFrames = 0, shadowFrames = 0;
+
+        private StageLatency(String stage) {
+            this.stage = stage;
+        }
+
+        private void addLive(long nanos) {
+            liveNanos += nanos;
+            ++liveFrames;
+        }
+
+        private void addShadow(long nanos) {
+            shadowNanos += nanos;
+            ++shadowFrames;
+        }
+
+        private StageLatency copy() {
+            StageLatency copy = new StageLatency(stage);
+            copy.liveNanos = liveNanos;
+            copy.shadowNanos = shadowNanos;
+            copy.liveFrames = liveFrames;
+            copy.shadowFrames = shadowFrames;
+            return copy;
+        }
+
+        /**
+         * @return the mean time the stage took in the live version, in nanoseconds (or 0 if it
+         *         isn't in the live version).
+         */
+        public long getLiveMeanNanos() {
+            return liveFrames == 0 ? 0 : liveNanos / liveFrames;
+        }
+
+        /**
+         * @return the mean time the stage took in the candidate, in nanoseconds (or 0 if it isn't
+         *         in the candidate).
+         */
+        public long getShadowMeanNanos() {
+            return shadowFrames == 0 ? 0 : shadowNanos / shadowFrames;
+        }
+
+        @Override
+        public String toString() {
+            return stage + ": " + getLiveMeanNanos() / 1000 + "us live, "
+                    + getShadowMeanNanos() / 1000 + "us shadow";
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package io.github.samwright.framework.model.helper;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.*;
+
+/**
+ * Executors shared by everything that needs to run work in the background, so that work isn't
+ * given a new thread each time (eg. for each frame processed).
+ * <p/>
+ * The dispatcher, notifier and streaming executors have a bounded number of threads.  Frame
+ * dispatchers and notifications have separate executors, since a frame being processed can
+ * wait for notifications to be delivered (see {@link NotificationBus}).
+ * <p/>
+ * All threads are daemon threads, so they never keep the application running.
+ */
+public class SharedExecutors {
+
+    /**
+     * The number of threads that the dispatcher and notifier executors can each have.
+     */
+    public static final int DISPATCH_THREADS
+            = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The number of stream worker threads that can be running at once.
+     */
+    public static final int STREAM_THREADS = 256;
+
+    private static final ExecutorService background = new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new ThreadFactoryBuilder().setNameFormat("background-%d").setDaemon(true).build());
+
+    private static final ExecutorService training = new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new ThreadFactoryBuilder().setNameFormat("training-%d").setDaemon(true)
+                    .setPriority(Thread.MIN_PRIORITY).build());
+
+    private static final ExecutorService dispatcher = createQueueing(DISPATCH_THREADS,
+            "dispatcher-%d");
+
+    private static final ExecutorService notifier = createQueueing(DISPATCH_THREADS,
+            "notifier-%d");
+
+    private static final ExecutorService streaming = new ThreadPoolExecutor(
+            0, STREAM_THREADS, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new ThreadFactoryBuilder().setNameFormat("stream-worker-%d").setDaemon(true).build());
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("scheduler-%d").setDaemon(true).build());
+
+    private SharedExecutors() {
+    }
+
+    /**
+     * Creates an executor with up to the given number of threads (which are discarded after
+     * being idle for 30 seconds), where tasks wait once every thread is busy.
+     */
+    private static ExecutorService createQueueing(int threads, String nameFormat) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Gets the executor for one-off background tasks (eg. processing a frame without blocking
+     * the GUI).  Idle threads are reused, and are discarded after 30 seconds.
+     *
+     * @return the shared background executor.
+     */
+    public static ExecutorService getBackground() {
+        return background;
+    }
+
+    /**
+     * Gets the executor for training, which is like the background executor except that its
+     * threads run at the lowest priority, so training doesn't hold up live processing.
+     *
+     * @return the shared training executor.
+     */
+    public static ExecutorService getTraining() {
+        return training;
+    }
+
+    /**
+     * Gets the executor that runs the dispatchers of {@link FrameQueue} objects.  Once every
+     * thread is busy, dispatchers wait for a free thread.
+     *
+     * @return the shared dispatcher executor.
+     */
+    public static ExecutorService getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Gets the executor that delivers the notifications of {@link NotificationBus} objects.
+     * Once every thread is busy, deliveries wait for a free thread.
+     *
+     * @return the shared notifier executor.
+     */
+    public static ExecutorService getNotifier() {
+        return notifier;
+    }
+
+    /**
+     * Gets the executor that runs the workers of streams (see {@link FrameStream}), which run
+     * until the stream stops.  Since the workers of a stream must all run at once, a worker is
+     * rejected (rather than made to wait) once every thread is busy.
+     *
+     * @return the shared streaming executor.
+     */
+    public static ExecutorService getStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Gets the executor for periodic housekeeping tasks (eg. timeouts).  It has a single
+     * thread, so tasks must be quick and must not block.
+     *
+     * @return the shared scheduler.
+     */
+    public static ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+}
@@ -0,0 +1,270 @@
+package io.github.samwright.framework.model.helper;
+
+import com.google.common.util.concurrent.SettableFuture;
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Workflow;
+import io.github.samwright.framework.model.WorkflowContainer;
+import io.github.samwright.framework.model.WorkflowImpl;
+import io.github.samwright.framework.model.common.ElementObserver;
+import io.github.samwright.framework.model.common.SinkElement;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Which of a set of alternative {@link Workflow} objects (eg. the children of a
+ * {@link io.github.samwright.framework.model.ChooserWorkflowContainer}) begin with the same
+ * elements, so that the training data outputs of those elements can be computed once and shared,
+ * rather than once per workflow.
+ * <p/>
+ * Two elements are the same if they have the same structural signature (ie. the same type and
+ * configuration, see {@code XMLHelper.getStructuralSignature(..)}).  Elements that are (or
+ * contain) something whose outputs might not only depend on its input and configuration (ie.
+ * sinks, observers and workflow containers) are never shared.
+ * <p/>
+ * Each workflow that reuses another's outputs gets copies of them, re-created by its own elements
+ * (see {@code Mediator.createNext(..)}), so the outputs' {@link History} objects are the same as
+ * if the workflow had processed the data itself.  This relies on shared elements creating their
+ * outputs from their inputs (ie. {@code input.createNext(..)}); if an element doesn't, the
+ * workflow falls back to processing the data itself.
+ * <p/>
+ * A plan is compiled against the model as it was at the time, so check {@code isCurrent()}
+ * before using it.
+ */
+public class SharedPrefixPlan {
+
+    private final long modelStamp;
+    private final List<Workflow> workflows;
+
+    /**
+     * prefixKeys[w][k] identifies the first k+1 elements of workflow w, for each element it
+     * shares with another workflow.
+     */
+    private final String[][] prefixKeys;
+
+    private SharedPrefixPlan(List<Workflow> workflows) {
+        modelStamp = MutabilityHelper.getModelStamp();
+        this.workflows = new ArrayList<>(workflows);
+
+        List<List<String>> allKeys = new ArrayList<>();
+        Map<String, Integer> keyCounts = new HashMap<>();
+
+        for (Workflow workflow : this.workflows) {
+            List<String> keys = new ArrayList<>();
+            StringBuilder prefix = new StringBuilder();
+
+            if (workflow instanceof WorkflowImpl) {
+                for (Element element : workflow.getChildren()) {
+                    if (!isShareable(element))
+                        break;
+                    prefix.append(XMLHelper.getStructuralSignature(element)).append('\n');
+                    keys.add(prefix.toString());
+                }
+            }
+
+            for (String key : keys) {
+                Integer count = keyCounts.get(key);
+                keyCounts.put(key, count == null ? 1 : count + 1);
+            }
+            allKeys.add(keys);
+        }
+
+        // Each workflow shares the elements whose prefix is in at least one other workflow.
+        prefixKeys = new String[this.workflows.size()][];
+        for (int w = 0; w < prefixKeys.length; ++w) {
+            List<String> keys = allKeys.get(w);
+            int sharedLength = 0;
+            while (sharedLength < keys.size() && keyCounts.get(keys.get(sharedLength)) > 1)
+                ++sharedLength;
+            prefixKeys[w] = keys.subList(0, sharedLength).toArray(new String[sharedLength]);
+        }
+    }
+
+    /**
+     * Compiles a plan for the given workflows.
+     *
+     * @param workflows the alternative workflows, which all process the same inputs.
+     * @return the plan for the workflows.
+     */
+    public static SharedPrefixPlan compile(List<Workflow> workflows) {
+        return new SharedPrefixPlan(workflows);
+    }
+
+    /**
+     * Returns true if the element's outputs only depend on its input and configuration, as far
+     * as can be told (ie. it isn't a sink, an observer or a workflow container).
+     */
+    static boolean isShareable(Element element) {
+        return !(element instanceof SinkElement)
+                && !(element instanceof ElementObserver)
+                && !(element instanceof WorkflowContainer);
+    }
+
+    /**
+     * @return true if the model hasn't been mutated since this plan was compiled.
+     */
+    public boolean isCurrent() {
+        return modelStamp == MutabilityHelper.getModelStamp();
+    }
+
+    /**
+     * Gets the number of elements at the start of the given workflow whose outputs can be shared
+     * with another workflow.
+     *
+     * @param workflowIndex the index of the workflow (in the list the plan was compiled with).
+     * @return the number of shared elements at the start of the workflow.
+     */
+    public int getSharedLength(int workflowIndex) {
+        return prefixKeys[workflowIndex].length;
+    }
+
+    /**
+     * Starts processing a training data input through the workflows.  Each workflow should then
+     * be processed with {@code pass.processTrainingData(workflowIndex)} (possibly concurrently).
+     *
+     * @param input the training data input to every workflow.
+     * @return the pass for the input.
+     */
+    public Pass startPass(Mediator input) {
+        return new Pass(input);
+    }
+
+    /**
+     * The processing of a single training data input through every workflow, which remembers the
+     * outputs of each shared prefix of elements.
+     */
+    public class Pass {
+        private final Mediator input;
+        private final ConcurrentMap<String, SharedStage> stages = new ConcurrentHashMap<>();
+
+        private Pass(Mediator input) {
+            this.input = input;
+        }
+
+        /**
+         * Processes the input with the given workflow, as {@code workflow.processTrainingData(input)}
+         * would, reusing the outputs of any shared elements if another workflow has already
+         * processed them (or waiting for them, if another workflow is processing them).
+         *
+         * @param workflowIndex the index of the workflow (in the list the plan was compiled with).
+         * @return the workflow's training data outputs.
+         */
+        public List<Mediator> processTrainingData(int workflowIndex) {
+            Workflow workflow = workflows.get(workflowIndex);
+            String[] keys = prefixKeys[workflowIndex];
+
+            if (keys.length == 0)
+                return workflow.processTrainingData(input);
+
+            List<Element> elements = workflow.getChildren();
+            List<Mediator> inputs = Arrays.asList(input);
+            TrainingRecord record = TrainingRecord.getShared();
+
+            for (int k = 0; k < keys.length; ++k) {
+                Element element = elements.get(k);
+                SharedStage mine = new SharedStage(inputs);
+                SharedStage shared = stages.putIfAbsent(keys[k], mine);
+                List<Mediator> outputs;
+
+                // Whatever happens, the other workflows waiting for this stage must be told.
+                try {
+                    outputs = processSharedElement(element, inputs, shared, record);
+                } catch (RuntimeException | Error e) {
+                    if (shared == null)
+                        mine.outputs.setException(e);
+                    throw e;
+                }
+
+                if (shared == null)
+                    mine.outputs.set(outputs);
+
+                inputs = outputs;
+            }
+
+            return ((WorkflowImpl) workflow).processTrainingData(inputs, keys.length);
+        }
+
+        /**
+         * Processes the inputs with an element of a shared prefix, reusing its outputs from last
+         * time or the outputs of the shared stage (if another workflow is processing it).
+         */
+        private List<Mediator> processSharedElement(Element element, List<Mediator> inputs,
+                                                    SharedStage shared, TrainingRecord record) {
+            // Outputs this workflow's own element gave last time are better than re-created
+            // ones, since the elements after it can reuse theirs too.
+            List<Mediator> outputs = record == null ? null : record.getOutputs(element, inputs);
+
+            if (outputs == null && shared != null) {
+                outputs = shared.recreate(element, inputs);
+                if (outputs != null && record != null)
+                    outputs = record.recordOutputs(element, inputs, outputs);
+            }
+
+            if (outputs != null) {
+                WorkflowImpl.notifyTrainingData(element, outputs);
+                return outputs;
+            }
+
+            return WorkflowImpl.processTrainingElement(element, inputs);
+        }
+    }
+
+    /**
+     * The outputs of the first workflow to process a shared prefix of elements, and the inputs
+     * it gave to the last of those elements.
+     */
+    private static class SharedStage {
+        private final List<Mediator> inputs;
+        private final SettableFuture<List<Mediator>> outputs = SettableFuture.create();
+
+        private SharedStage(List<Mediator> inputs) {
+            this.inputs = inputs;
+        }
+
+        /**
+         * Waits for the shared outputs, then re-creates them as if the given element had
+         * processed the given inputs (which correspond, in order, to the inputs the outputs were
+         * created from).
+         *
+         * @return the re-created outputs, or null if they can't be re-created.
+         */
+        private List<Mediator> recreate(Element element, List<Mediator> myInputs) {
+            List<Mediator> sharedOutputs;
+            try {
+                sharedOutputs = outputs.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new RuntimeException(e.getCause());
+            }
+
+            if (myInputs.size() != inputs.size())
+                return null;
+
+            Map<Mediator, Mediator> myInputsBySharedInput = new IdentityHashMap<>();
+            for (int i = 0; i < inputs.size(); ++i)
+                myInputsBySharedInput.put(inputs.get(i), myInputs.get(i));
+
+            TrainingCache cache = TrainingCache.getShared();
+            List<Mediator> recreated = new ArrayList<>(sharedOutputs.size());
+
+            for (Mediator sharedOutput : sharedOutputs) {
+                Mediator myInput = myInputsBySharedInput.get(sharedOutput.getPrevious());
+                if (myInput == null)
+                    return null;
+
+                Mediator myOutput = myInput.createNext(element, sharedOutput.getData());
+                if (cache != null)
+                    cache.setKey(myOutput, cache.getKey(sharedOutput));
+                recreated.add(myOutput);
+            }
+
+            return recreated;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Workflow;
+import io.github.samwright.framework.model.WorkflowImpl;
+import io.github.samwright.framework.model.common.BatchProcessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Continuously streams frames through a {@link Workflow}, with each of its {@link Element}
+ * objects (ie. each stage) running on its own worker thread.
+ * <p/>
+ * Each stage hands its output to the next stage through a bounded queue, so frame N+1 can be
+ * processed by an early stage while frame N is still being processed by a later one.  When a
+ * queue is full, the stage before it waits (so the source only grabs a new frame when there is
+ * room for it).
+ * <p/>
+ * A stage whose element is a {@link BatchProcessor} processes every frame waiting for it as a
+ * single batch, so a slow batch is followed by a bigger (and cheaper per frame) one.
+ * <p/>
+ * The number of stages is fixed when the pipeline starts.  If a version of the workflow with
+ * fewer elements is published, its frames pass straight through the extra stages, and if one
+ * with more elements is published, the last stage runs the extra elements too.
+ */
+public abstract class StagePipeline extends FrameStream {
+
+    private final int queueCapacity;
+    private volatile List<BlockingQueue<Frame>> queues = Collections.emptyList();
+
+    /**
+     * Creates a (stopped) pipeline for the given workflow.
+     *
+     * @param workflow the workflow whose elements will be the stages of the pipeline.
+     * @param queueCapacity the number of frames that can wait between each pair of stages.
+     */
+    public StagePipeline(Workflow workflow, int queueCapacity) {
+        super(workflow);
+        this.queueCapacity = queueCapacity;
+    }
+
+    @Override
+    protected Map<String, Runnable> createWorkers() {
+        List<Element> stages = getStages();
+
+        // queues.get(i) feeds stage i (the source stage doesn't need one).  New queues are used
+        // for each run, so a worker from a previous run can't leave a frame in this one.
+        List<BlockingQueue<Frame>> queues = new ArrayList<>();
+        queues.add(null);
+        for (int i = 1; i < stages.size(); ++i)
+            queues.add(new ArrayBlockingQueue<Frame>(queueCapacity));
+        queues.add(null);
+        this.queues = queues;
+
+        Map<String, Runnable> workers = new LinkedHashMap<>();
+        for (int i = 0; i < stages.size(); ++i) {
+            Stage stage = new Stage(i, i == stages.size() - 1, queues.get(i), queues.get(i + 1));
+            workers.put("stage-" + i + "-" + stages.get(i), stage);
+        }
+
+        return workers;
+    }
+
+    @Override
+    protected void handleStopped() {
+        List<Frame> discarded = new ArrayList<>();
+        for (BlockingQueue<Frame> queue : queues)
+            if (queue != null)
+                queue.drainTo(discarded);
+
+        for (Frame frame : discarded)
+            frame.version.release();
+    }
+
+    /**
+     * A frame, and the version of the workflow it is being processed with.
+     */
+    private static class Frame {
+        private final VersionPublisher.Lease<Version> version;
+        private Mediator data;
+
+        private Frame(VersionPublisher.Lease<Version> version, Mediator data) {
+            this.version = version;
+            this.data = data;
+        }
+    }
+
+    private class Stage implements Runnable {
+        private final int index;
+        private final boolean last;
+        private final BlockingQueue<Frame> inputQueue, outputQueue;
+
+        private Stage(int index, boolean last, BlockingQueue<Frame> inputQueue,
+                      BlockingQueue<Frame> outputQueue) {
+            this.index = index;
+            this.last = last;
+            this.inputQueue = inputQueue;
+            this.outputQueue = outputQueue;
+        }
+
+        @Override
+        public void run() {
+            List<Frame> frames = new ArrayList<>();
+
+            try {
+                while (isRunning() && !Thread.currentThread().isInterrupted()) {
+                    takeFrames(frames);
+                    processFrames(frames);
+
+                    Iterator<Frame> itr = frames.iterator();
+                    while (itr.hasNext()) {
+                        handOn(itr.next());
+                        itr.remove();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Pipeline has been stopped.
+            } finally {
+                for (Frame frame : frames)
+                    frame.version.release();
+            }
+        }
+
+        /**
+         * Gets the next frame for the stage, along with every other frame waiting for it if
+         * its element is a {@link BatchProcessor} (waiting for at least one).
+         */
+        private void takeFrames(List<Frame> frames) throws InterruptedException {
+            if (inputQueue == null) {
+                frames.add(new Frame(acquireVersion(), createFrame()));
+                return;
+            }
+
+            Frame first = inputQueue.take();
+            frames.add(first);
+            if (getElement(first) instanceof BatchProcessor)
+                inputQueue.drainTo(frames);
+        }
+
+        /**
+         * Processes the frames with the stage's element in each frame's version of the
+         * workflow, leaving out (and releasing) the frames that fail or are abandoned.  Frames
+         * with the same element are processed as a single batch if it is a
+         * {@link BatchProcessor}.
+         */
+        private void processFrames(List<Frame> frames) {
+            List<Frame> processed = new ArrayList<>();
+
+            int start = 0;
+            while (start < frames.size()) {
+                Element element = getElement(frames.get(start));
+                int end = start + 1;
+                while (end < frames.size() && getElement(frames.get(end)) == element)
+                    ++end;
+
+                List<Frame> group = frames.subList(start, end);
+                if (element == null)
+                    processed.addAll(group);
+                else if (element instanceof BatchProcessor && inputQueue != null)
+                    processBatch(element, group, processed);
+                else
+                    for (Frame frame : group)
+                        if (process(element, frame))
+                            processed.add(frame);
+
+                start = end;
+            }
+
+            // The last stage also runs any elements beyond it in a longer version.
+            if (last) {
+                Iterator<Frame> itr = processed.iterator();
+                while (itr.hasNext()) {
+                    Frame frame = itr.next();
+                    List<Element> stages = frame.version.get().getStages();
+                    for (int i = index + 1; i < stages.size(); ++i) {
+                        if (!process(stages.get(i), frame)) {
+                            itr.remove();
+                            break;
+                        }
+                    }
+                }
+            }
+
+            frames.clear();
+            frames.addAll(processed);
+        }
+
+        /**
+         * Processes a frame with an element, or drops it (releasing its version) if the element
+         * fails or the frame is abandoned.
+         *
+         * @return true if the frame was processed.
+         */
+        private boolean process(Element element, Frame frame) {
+            try {
+                frame.data = WorkflowImpl.processElement(element, frame.data);
+                if (index == 0 && element == getElement(frame))
+                    handleSourceOutput(frame.data);
+                return true;
+            } catch (FrameAbandonedException e) {
+                frame.version.release();
+                handleAbandoned(e);
+            } catch (RuntimeException e) {
+                frame.version.release();
+                handleException(e);
+                if (index == 0)
+                    stop();
+            }
+            return false;
+        }
+
+        /**
+         * Processes the frames as a single batch, leaving out frames that have been abandoned.
+         */
+        private void processBatch(Element element, List<Frame> frames, List<Frame> processed) {
+            List<Frame> batch = new ArrayList<>();
+            List<Mediator> inputs = new ArrayList<>();
+
+            for (Frame frame : frames) {
+                try {
+                    frame.data.getContext().checkpoint(element);
+                    batch.add(frame);
+                    inputs.add(frame.data);
+                } catch (FrameAbandonedException e) {
+                    frame.version.release();
+                    handleAbandoned(e);
+                }
+            }
+
+            List<Mediator> outputs;
+            try {
+                outputs = WorkflowImpl.processElementBatch(element, inputs);
+            } catch (RuntimeException e) {
+                for (Frame frame : batch)
+                    frame.version.release();
+                handleException(e);
+                return;
+            }
+
+            for (int i = 0; i < batch.size(); ++i) {
+                batch.get(i).data = outputs.get(i);
+                processed.add(batch.get(i));
+            }
+        }
+
+        private void handOn(Frame frame) throws InterruptedException {
+            if (outputQueue != null) {
+                outputQueue.put(frame);
+                return;
+            }
+
+            try {
+                finish(frame.data, frame.version.get().getWorkflow());
+            } finally {
+                frame.version.release();
+            }
+        }
+
+        /**
+         * @return the stage's element in the frame's version of the workflow, or null if that
+         *         version has no element for this stage.
+         */
+        private Element getElement(Frame frame) {
+            List<Element> stages = frame.version.get().getStages();
+            return index < stages.size() ? stages.get(index) : null;
+        }
+    }
+}
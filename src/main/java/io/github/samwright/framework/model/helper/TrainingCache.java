@@ -0,0 +1,376 @@
+package io.github.samwright.framework.model.helper;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Processor;
+import io.github.samwright.framework.model.common.ContentAddressable;
+import lombok.Getter;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A persistent, content-addressed cache of training data outputs, so that re-training a model
+ * only recomputes the elements that have changed (or come after one that has).
+ * <p/>
+ * Each training data {@link Mediator} is given a key: either the hash of its data (if it is
+ * {@link ContentAddressable}, eg. a loaded image), or a hash of the key of the input it was
+ * created from and the structural signature of the {@link Processor} that created it (see
+ * {@code XMLHelper.getStructuralSignature(..)}).  So a key identifies the source data and the
+ * configuration of every element it has been through.  A {@code Mediator} that just passes on
+ * its previous {@code Mediator}'s data (eg. the output of a workflow) has the same key.
+ * <p/>
+ * Outputs are written with the first registered {@link Codec} that can write them.  Outputs that
+ * no codec can write (or {@code Mediator} objects with no key, eg. the outputs of a source
+ * element that aren't {@code ContentAddressable}) are simply recomputed.
+ * <p/>
+ * There is no shared cache unless one is set with {@code TrainingCache.setShared(..)}.
+ */
+public class TrainingCache {
+
+    /**
+     * Writes and reads data of a certain type to and from a file.
+     */
+    public interface Codec {
+
+        /**
+         * @param data the data to write.
+         * @return true if the data can be written, and read back as an equivalent object of the
+         *         same class.
+         */
+        boolean canWrite(Object data);
+
+        /**
+         * @param data the data to write.
+         * @param file the file to write the data to.
+         * @throws IOException if the data couldn't be written.
+         */
+        void write(Object data, File file) throws IOException;
+
+        /**
+         * @param file the file to read the data from.
+         * @return the data that was written to the file.
+         * @throws IOException if the data couldn't be read.
+         */
+        Object read(File file) throws IOException;
+    }
+
+    /**
+     * Writes and reads {@link Serializable} data using java serialisation.
+     */
+    public static class SerializableCodec implements Codec {
+        @Override
+        public boolean canWrite(Object data) {
+            return data instanceof Serializable;
+        }
+
+        @Override
+        public void write(Object data, File file) throws IOException {
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)))) {
+                out.writeObject(data);
+            }
+        }
+
+        @Override
+        public Object read(File file) throws IOException {
+            try (ObjectInputStream in = new ObjectInputStream(
+                    new BufferedInputStream(new FileInputStream(file)))) {
+                return in.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static final String indexFilename = "index";
+    private static final List<Codec> codecs = new CopyOnWriteArrayList<>();
+    private static volatile TrainingCache shared;
+
+    static {
+        registerCodec(new SerializableCodec());
+    }
+
+    @Getter private final File directory;
+    private final Map<Mediator, String> keys
+            = Collections.synchronizedMap(new WeakHashMap<Mediator, String>());
+    private final Map<Processor, String> signatures
+            = Collections.synchronizedMap(new WeakHashMap<Processor, String>());
+
+    /**
+     * Creates a cache that keeps its entries in the given directory (which is created if it
+     * doesn't exist).
+     *
+     * @param directory the directory to keep the entries in.
+     */
+    public TrainingCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Registers a codec, which is tried before any previously-registered codecs.
+     *
+     * @param codec the codec to register.
+     */
+    public static void registerCodec(Codec codec) {
+        codecs.add(0, codec);
+    }
+
+    /**
+     * @return the cache used while training, or null if there isn't one.
+     */
+    public static TrainingCache getShared() {
+        return shared;
+    }
+
+    /**
+     * @param cache the cache to use while training, or null to stop caching.
+     */
+    public static void setShared(TrainingCache cache) {
+        shared = cache;
+    }
+
+    /**
+     * Gets the content hash of data loaded from a file, which depends on the file's content and
+     * anything else the data was given (eg. the tag that an image takes from its filename, so
+     * that renaming the file changes the hash).
+     *
+     * @param fileHash the hash of the file's content.
+     * @param properties the data's other properties.
+     * @return the hash of the data's content.
+     */
+    public static String getContentHash(String fileHash, String... properties) {
+        StringBuilder builder = new StringBuilder(fileHash);
+        for (String property : properties)
+            builder.append('\n').append(property);
+        return hash(builder.toString());
+    }
+
+    /**
+     * Gets the key of a training data {@link Mediator}.
+     *
+     * @param mediator the training data.
+     * @return the mediator's key, or null if it doesn't have one.
+     */
+    public String getKey(Mediator mediator) {
+        Object data = mediator.getData();
+
+        if (data instanceof ContentAddressable) {
+            String hash = ((ContentAddressable) data).getContentHash();
+            if (hash != null)
+                return hash;
+        }
+
+        String key = keys.get(mediator);
+
+        if (key == null && data != null && !mediator.isEmpty()
+                && mediator.getPrevious().getData() == data)
+            key = getKey(mediator.getPrevious());
+
+        return key;
+    }
+
+    /**
+     * Sets the key of a training data {@link Mediator} (eg. to the key of another
+     * {@code Mediator} with the same data and history).
+     *
+     * @param mediator the training data.
+     * @param key the mediator's key, or null if it doesn't have one.
+     */
+    public void setKey(Mediator mediator, String key) {
+        if (key != null)
+            keys.put(mediator, key);
+    }
+
+    /**
+     * Gets the key of the entry for the outputs of a processor given the inputs.
+     *
+     * @param processor the processor.
+     * @param inputs the processor's inputs (eg. the mediators it is joining).
+     * @return the key of the entry, or null if an input doesn't have a key.
+     */
+    public String getEntryKey(Processor processor, List<Mediator> inputs) {
+        StringBuilder builder = new StringBuilder(getSignature(processor));
+
+        for (Mediator input : inputs) {
+            String key = getKey(input);
+            if (key == null)
+                return null;
+            builder.append('\n').append(key);
+        }
+
+        return hash(builder.toString());
+    }
+
+    /**
+     * Gives each output the key derived from the key of the entry they were (or would be) cached
+     * in, and their position in it.
+     *
+     * @param entryKey the key of the entry for the outputs.
+     * @param outputs the outputs.
+     */
+    public void setOutputKeys(String entryKey, List<Mediator> outputs) {
+        for (int i = 0; i < outputs.size(); ++i)
+            keys.put(outputs.get(i), hash(entryKey + "#" + i));
+    }
+
+    /**
+     * Reads an entry.
+     *
+     * @param entryKey the key of the entry.
+     * @return the data in the entry, or null if there is no complete entry with that key (or it
+     *         couldn't be read).
+     */
+    public List<Object> read(String entryKey) {
+        File entryDirectory = getEntryDirectory(entryKey);
+        File indexFile = new File(entryDirectory, indexFilename);
+
+        if (!indexFile.isFile())
+            return null;
+
+        try {
+            List<Object> data = new ArrayList<>();
+            List<String> codecNames = Files.readLines(indexFile, Charsets.UTF_8);
+
+            for (int i = 0; i < codecNames.size(); ++i) {
+                Codec codec = getCodec(codecNames.get(i));
+                if (codec == null)
+                    return null;
+                data.add(codec.read(new File(entryDirectory, String.valueOf(i))));
+            }
+
+            return data;
+        } catch (IOException | RuntimeException e) {
+            // Treat an unreadable entry as missing, so it is recomputed (and rewritten).
+            e.printStackTrace();
+            indexFile.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Writes an entry, if there is a codec for every piece of data.  The entry is only readable
+     * once it has been completely written.
+     *
+     * @param entryKey the key of the entry.
+     * @param data the data to write.
+     */
+    public void write(String entryKey, List<?> data) {
+        List<Codec> dataCodecs = new ArrayList<>(data.size());
+        for (Object datum : data) {
+            Codec codec = findCodec(datum);
+            if (codec == null)
+                return;
+            dataCodecs.add(codec);
+        }
+
+        File entryDirectory = getEntryDirectory(entryKey);
+
+        try {
+            if (!entryDirectory.isDirectory() && !entryDirectory.mkdirs())
+                throw new IOException("Couldn't create " + entryDirectory);
+
+            StringBuilder index = new StringBuilder();
+            for (int i = 0; i < data.size(); ++i) {
+                dataCodecs.get(i).write(data.get(i), new File(entryDirectory, String.valueOf(i)));
+                index.append(dataCodecs.get(i).getClass().getName()).append('\n');
+            }
+
+            // Write the index last (and atomically), since it marks the entry as complete.
+            File tempIndexFile = File.createTempFile(indexFilename, null, entryDirectory);
+            Files.write(index, tempIndexFile, Charsets.UTF_8);
+            if (!tempIndexFile.renameTo(new File(entryDirectory, indexFilename)))
+                tempIndexFile.delete();
+        } catch (IOException | RuntimeException e) {
+            // The cache is only an optimisation, so carry on without the entry.
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Has the element process a training data input, as {@code element.processTrainingData(input)}
+     * would, reading its outputs from the cache if possible (and writing them to it otherwise).
+     *
+     * @param element the element to process the input with.
+     * @param input the training data input.
+     * @return the element's outputs.
+     */
+    public List<Mediator> processTrainingData(Element element, Mediator input) {
+        if (!SharedPrefixPlan.isShareable(element))
+            return element.processTrainingData(input);
+
+        String entryKey = getEntryKey(element, Arrays.asList(input));
+        if (entryKey == null)
+            return element.processTrainingData(input);
+
+        List<Mediator> outputs;
+        List<Object> cachedData = read(entryKey);
+
+        if (cachedData == null) {
+            outputs = element.processTrainingData(input);
+
+            List<Object> data = new ArrayList<>(outputs.size());
+            for (Mediator output : outputs)
+                data.add(output.getData());
+            write(entryKey, data);
+        } else {
+            outputs = new ArrayList<>(cachedData.size());
+            for (Object data : cachedData)
+                outputs.add(input.createNext(element, data));
+        }
+
+        setOutputKeys(entryKey, outputs);
+        return outputs;
+    }
+
+    /**
+     * Deletes every entry in the cache.
+     */
+    public void clear() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        file.delete();
+    }
+
+    private String getSignature(Processor processor) {
+        String signature = signatures.get(processor);
+
+        if (signature == null || processor.isMutable()) {
+            signature = XMLHelper.getStructuralSignature(processor);
+            signatures.put(processor, signature);
+        }
+
+        return signature;
+    }
+
+    private File getEntryDirectory(String entryKey) {
+        return new File(new File(directory, entryKey.substring(0, 2)), entryKey);
+    }
+
+    private static Codec findCodec(Object data) {
+        for (Codec codec : codecs)
+            if (codec.canWrite(data))
+                return codec;
+        return null;
+    }
+
+    private static Codec getCodec(String className) {
+        for (Codec codec : codecs)
+            if (codec.getClass().getName().equals(className))
+                return codec;
+        return null;
+    }
+
+    private static String hash(String string) {
+        return Hashing.sha1().hashString(string, Charsets.UTF_8).toString();
+    }
+}
@@ -0,0 +1,113 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.Element;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Has an {@link Element} process a list of training data inputs in parallel, on a shared
+ * fork-join pool.
+ * <p/>
+ * The inputs are split in half recursively until the chunks are small enough, and the
+ * outputs of each half are concatenated, so the outputs are always in the same order as if
+ * the inputs had been processed one after another.  If there is a shared {@link TrainingCache},
+ * each input's outputs are read from (or written to) the cache.
+ * <p/>
+ * If an element processes its training data with the same pool (eg. a workflow nested inside
+ * a container), the nested work joins the same pool rather than waiting on it.  The pool's
+ * threads run at the lowest priority, so training doesn't hold up live processing.
+ */
+public class TrainingFanOut {
+
+    private static final ForkJoinPool pool = new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread
+                            = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            }, null, false);
+
+    /**
+     * The number of chunks to aim for per thread in the pool, so that threads which finish
+     * early can steal work from those that don't.
+     */
+    private static final int chunksPerThread = 4;
+
+    /**
+     * Has the element process every input (ie. call {@code element.processTrainingData(input)}
+     * for each input), in parallel.
+     *
+     * @param element the element to process the inputs with.
+     * @param inputs the training data inputs.
+     * @return the concatenation of the element's outputs for each input, in input order.
+     */
+    public static List<Mediator> processAll(Element element, List<Mediator> inputs) {
+        if (inputs.size() < 2)
+            return processRange(element, inputs, 0, inputs.size());
+
+        int chunkSize = Math.max(1, inputs.size() / (pool.getParallelism() * chunksPerThread));
+        FanOutTask task = new FanOutTask(element, inputs, 0, inputs.size(), chunkSize);
+
+        if (ForkJoinTask.inForkJoinPool())
+            return task.invoke();
+        else
+            return pool.invoke(task);
+    }
+
+    private static List<Mediator> processRange(Element element, List<Mediator> inputs,
+                                               int from, int to) {
+        TrainingCache cache = TrainingCache.getShared();
+
+        List<Mediator> outputs = new ArrayList<>();
+        for (Mediator input : inputs.subList(from, to)) {
+            if (cache == null)
+                outputs.addAll(element.processTrainingData(input));
+            else
+                outputs.addAll(cache.processTrainingData(element, input));
+        }
+        return outputs;
+    }
+
+    private static class FanOutTask extends RecursiveTask<List<Mediator>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Element element;
+        private final List<Mediator> inputs;
+        private final int from, to, chunkSize;
+
+        private FanOutTask(Element element, List<Mediator> inputs, int from, int to,
+                           int chunkSize) {
+            this.element = element;
+            this.inputs = inputs;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected List<Mediator> compute() {
+            if (to - from <= chunkSize)
+                return processRange(element, inputs, from, to);
+
+            int middle = (from + to) >>> 1;
+            FanOutTask left = new FanOutTask(element, inputs, from, middle, chunkSize);
+            FanOutTask right = new FanOutTask(element, inputs, middle, to, chunkSize);
+
+            left.fork();
+            List<Mediator> outputs = right.compute();
+            List<Mediator> leftOutputs = left.join();
+
+            leftOutputs.addAll(outputs);
+            return leftOutputs;
+        }
+    }
+}
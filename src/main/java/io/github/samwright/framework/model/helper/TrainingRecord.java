@@ -0,0 +1,321 @@
+package io.github.samwright.framework.model.helper;
+
+import com.google.common.collect.MapMaker;
+import io.github.samwright.framework.model.Processor;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A record of what each element did in the last training pass it took part in, so the next pass
+ * only retrains the elements that have changed since (or whose inputs or results have).
+ * <p/>
+ * Editing a model makes a new version of every element in it, so elements are recorded by their
+ * UUID (which every version of an element shares) along with their structural signature (see
+ * {@code XMLHelper.getStructuralSignature(..)}).  An element is unchanged if it has the same
+ * signature as the version that was recorded.  So if an unchanged element is given the same input
+ * {@link Mediator} objects as last time, it outputs the same training data as last time, which is
+ * reused (keeping the same {@code Mediator} objects, so the elements after it get the same inputs
+ * too).  Likewise, if it is given the same {@link CompletedTrainingBatch} as last time, its
+ * trained state is still current and it rolls the batch back to the same inputs as last time.
+ * <p/>
+ * Elements at the start of a workflow (ie. given empty inputs) are always re-run, since they may
+ * load different training data each time (eg. if images have been added).  If they output the
+ * same data as last time, their previous outputs are kept.
+ * <p/>
+ * Elements that aren't used in a pass are forgotten at the end of it (see {@code endPass(..)}),
+ * so old versions of the model don't keep their training data alive.  Elements of models that
+ * weren't trained in the pass are kept.  There is no shared record
+ * unless one is set with {@code TrainingRecord.setShared(..)}.
+ */
+public class TrainingRecord {
+
+    private static volatile TrainingRecord shared;
+
+    private final ConcurrentMap<Object, Step> steps = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Processor, String> signatures = new MapMaker().weakKeys().makeMap();
+    private final AtomicLong lastPass = new AtomicLong();
+    private final Set<Long> activePasses = new HashSet<>();
+    private final Set<Object> passModels = new HashSet<>();
+
+    /**
+     * @return the record used while training, or null if there isn't one (so every element is
+     *         retrained every time).
+     */
+    public static TrainingRecord getShared() {
+        return shared;
+    }
+
+    /**
+     * @param record the record to use while training, or null to always retrain every element.
+     */
+    public static void setShared(TrainingRecord record) {
+        shared = record;
+    }
+
+    /**
+     * Starts a training pass.  Must be followed by {@code endPass(..)}.
+     *
+     * @return the pass number, to give to {@code endPass(..)}.
+     */
+    public long startPass() {
+        synchronized (activePasses) {
+            long pass = lastPass.incrementAndGet();
+            activePasses.add(pass);
+            return pass;
+        }
+    }
+
+    /**
+     * Ends a training pass, forgetting every element of the models trained in it that wasn't
+     * used by it (unless another pass is still running).
+     *
+     * @param pass the number of the pass, from {@code startPass()}.
+     */
+    public void endPass(long pass) {
+        synchronized (activePasses) {
+            activePasses.remove(pass);
+            if (!activePasses.isEmpty())
+                return;
+
+            for (Object key : steps.keySet()) {
+                Step step = steps.get(key);
+                if (step != null && step.pass < pass && passModels.contains(step.model))
+                    steps.remove(key, step);
+            }
+            passModels.clear();
+        }
+    }
+
+    /**
+     * Gets the element's training data outputs from last time, if it is given the same inputs
+     * (and their data hasn't been released since).
+     *
+     * @param element the element.
+     * @param inputs the element's training data inputs.
+     * @return the element's outputs from last time, or null if it hasn't processed these inputs.
+     */
+    public List<Mediator> getOutputs(Processor element, List<Mediator> inputs) {
+        Step step = getStep(element, getSignature(element));
+        if (step == null || step.inputs == null || !areSame(step.inputs, inputs)
+                || areReleased(step.outputs))
+            return null;
+
+        touch(element, step);
+        return step.outputs;
+    }
+
+    /**
+     * Records the element's training data outputs.  If the element was given empty inputs (ie.
+     * it's at the start of a workflow) and it output the same data as last time, its outputs from
+     * last time are kept (and returned), unless their data has been released (see
+     * {@link RetentionPolicy}).
+     *
+     * @param element the element.
+     * @param inputs the element's training data inputs.
+     * @param outputs the element's training data outputs.
+     * @return the outputs to use from now on.
+     */
+    public List<Mediator> recordOutputs(Processor element, List<Mediator> inputs,
+                                        List<Mediator> outputs) {
+        String signature = getSignature(element);
+        Step previous = getStep(element, signature);
+
+        if (previous != null && previous.outputs != null && areEmpty(inputs)
+                && !areReleased(previous.outputs) && areEquivalent(previous.outputs, outputs)) {
+            put(element, new Step(element, signature, inputs, previous.outputs,
+                    previous.outputBatch, previous.inputBatch, lastPass.get()));
+            return previous.outputs;
+        }
+
+        put(element, new Step(element, signature, inputs, outputs, null, null, lastPass.get()));
+        return outputs;
+    }
+
+    /**
+     * Gets the batch the element rolled the given batch back to last time, if it was given the
+     * same batch (in which case the element's trained state is still current).
+     *
+     * @param element the element.
+     * @param outputBatch the completed batch of the element's outputs.
+     * @return the batch of the element's inputs from last time, or null if it hasn't been
+     *         trained with this batch.
+     */
+    public CompletedTrainingBatch getInputBatch(Processor element,
+                                                CompletedTrainingBatch outputBatch) {
+        Step step = getStep(element, getSignature(element));
+        if (step == null || step.outputBatch == null || !areSame(step.outputBatch, outputBatch))
+            return null;
+
+        touch(element, step);
+        return step.inputBatch;
+    }
+
+    /**
+     * Records the batch the element rolled the given batch back to (after being trained with
+     * it).
+     *
+     * @param element the element.
+     * @param outputBatch the completed batch of the element's outputs.
+     * @param inputBatch the batch of the element's inputs that it returned.
+     */
+    public void recordInputBatch(Processor element, CompletedTrainingBatch outputBatch,
+                                 CompletedTrainingBatch inputBatch) {
+        String signature = getSignature(element);
+        Step step = getStep(element, signature);
+
+        if (step == null)
+            put(element, new Step(element, signature, null, null, outputBatch, inputBatch,
+                    lastPass.get()));
+        else
+            put(element, new Step(element, signature, step.inputs, step.outputs, outputBatch,
+                    inputBatch, lastPass.get()));
+    }
+
+    /**
+     * @return the number of elements in the record.
+     */
+    public int size() {
+        return steps.size();
+    }
+
+    /**
+     * Forgets every element, so they are all retrained next time.
+     */
+    public void clear() {
+        steps.clear();
+    }
+
+    /**
+     * Forgets every element of a model, so they are all retrained the next time it is trained.
+     *
+     * @param model the model (or any processor in it).
+     */
+    public void clear(Processor model) {
+        Object modelKey = History.getModelKey(model);
+
+        for (Object key : steps.keySet()) {
+            Step step = steps.get(key);
+            if (step != null && step.model.equals(modelKey))
+                steps.remove(key, step);
+        }
+    }
+
+    private static Object getKey(Processor element) {
+        return History.getCreatorKey(element);
+    }
+
+    private void put(Processor element, Step step) {
+        steps.put(getKey(element), step);
+        synchronized (activePasses) {
+            passModels.add(step.model);
+        }
+    }
+
+    /**
+     * Gets what the element did last time, if it hasn't changed since.
+     */
+    private Step getStep(Processor element, String signature) {
+        Step step = steps.get(getKey(element));
+        return step == null || !step.signature.equals(signature) ? null : step;
+    }
+
+    private String getSignature(Processor element) {
+        String signature = signatures.get(element);
+
+        if (signature == null || element.isMutable()) {
+            signature = XMLHelper.getStructuralSignature(element);
+            signatures.put(element, signature);
+        }
+
+        return signature;
+    }
+
+    private void touch(Processor element, Step step) {
+        if (steps.replace(getKey(element), step, new Step(step.model, step.signature, step.inputs,
+                step.outputs, step.outputBatch, step.inputBatch, lastPass.get()))) {
+            synchronized (activePasses) {
+                passModels.add(step.model);
+            }
+        }
+    }
+
+    private static boolean areSame(List<Mediator> a, List<Mediator> b) {
+        if (a.size() != b.size())
+            return false;
+        for (int i = 0; i < a.size(); ++i)
+            if (a.get(i) != b.get(i))
+                return false;
+        return true;
+    }
+
+    private static boolean areSame(CompletedTrainingBatch a, CompletedTrainingBatch b) {
+        return a == b || (a.getAll().equals(b.getAll())
+                && a.getSuccessful().equals(b.getSuccessful()));
+    }
+
+    /**
+     * Returns true if any of the mediators' data has been released, so they can't be processed
+     * again.
+     */
+    private static boolean areReleased(List<Mediator> outputs) {
+        for (Mediator output : outputs)
+            if (output.isReleased())
+                return true;
+        return false;
+    }
+
+    private static boolean areEmpty(List<Mediator> inputs) {
+        for (Mediator input : inputs)
+            if (!input.isEmpty())
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns true if the mediators have the same data objects and histories, in the same order.
+     */
+    private static boolean areEquivalent(List<Mediator> a, List<Mediator> b) {
+        if (a.size() != b.size())
+            return false;
+        for (int i = 0; i < a.size(); ++i)
+            if (a.get(i).getData() != b.get(i).getData()
+                    || a.get(i).getHistory() != b.get(i).getHistory())
+                return false;
+        return true;
+    }
+
+    /**
+     * What an element did in its last training pass, and the key of the model it is in.
+     */
+    private static class Step {
+        private final Object model;
+        private final String signature;
+        private final List<Mediator> inputs, outputs;
+        private final CompletedTrainingBatch outputBatch, inputBatch;
+        private final long pass;
+
+        private Step(Object model, String signature, List<Mediator> inputs,
+                     List<Mediator> outputs, CompletedTrainingBatch outputBatch,
+                     CompletedTrainingBatch inputBatch, long pass) {
+            this.model = model;
+            this.signature = signature;
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.outputBatch = outputBatch;
+            this.inputBatch = inputBatch;
+            this.pass = pass;
+        }
+
+        private Step(Processor element, String signature, List<Mediator> inputs,
+                     List<Mediator> outputs, CompletedTrainingBatch outputBatch,
+                     CompletedTrainingBatch inputBatch, long pass) {
+            this(History.getModelKey(element), signature, inputs, outputs, outputBatch,
+                 inputBatch, pass);
+        }
+    }
+}
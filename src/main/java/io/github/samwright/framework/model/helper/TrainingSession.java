@@ -0,0 +1,121 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.controller.ModelController;
+import io.github.samwright.framework.model.Processor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the trained state that processors produce while a model is being trained, so that
+ * it can all be published at once when training completes.  Until then, live processing carries
+ * on with the state from the last time the model was trained.
+ * <p/>
+ * A processor that is trained (eg. a classifier) builds its new state without touching its
+ * current state, then hands over a task that swaps the new state in to
+ * {@code TrainingSession.publish(..)}.  If no session is running for the processor's model, the
+ * task is run straight away.
+ * <p/>
+ * Each model has its own session, shared by every version of it (see
+ * {@code History.getModelKey(..)}), so separate models can be trained at the same time.  Only
+ * one session runs at a time for each model (a second {@code start(..)} waits for the first to
+ * finish).
+ */
+public class TrainingSession {
+
+    private static final Object[] sessionLock = new Object[0];
+    private static final Map<Object, TrainingSession> active = new HashMap<>();
+
+    private final Object modelKey;
+    private final List<Processor> processors = new ArrayList<>();
+    private final List<Runnable> publications = new ArrayList<>();
+    private boolean finished = false;
+
+    private TrainingSession(Object modelKey) {
+        this.modelKey = modelKey;
+    }
+
+    /**
+     * Starts a session for the model, waiting for any other session for it to finish first.
+     * Must be followed by {@code finish()}.
+     *
+     * @param model the model being trained (or any processor in it).
+     * @return the new session.
+     */
+    public static TrainingSession start(Processor model) {
+        Object modelKey = History.getModelKey(model);
+
+        synchronized (sessionLock) {
+            while (active.containsKey(modelKey)) {
+                try {
+                    sessionLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+
+            TrainingSession session = new TrainingSession(modelKey);
+            active.put(modelKey, session);
+            return session;
+        }
+    }
+
+    /**
+     * Publishes a processor's new trained state when the session running for its model
+     * finishes, or straight away if no session is running for it.
+     *
+     * @param processor the processor that was trained.
+     * @param publication the task that swaps the processor's new state in.
+     */
+    public static void publish(Processor processor, Runnable publication) {
+        Object modelKey = History.getModelKey(processor);
+        TrainingSession session;
+        synchronized (sessionLock) {
+            session = active.get(modelKey);
+        }
+
+        if (session != null && session.add(processor, publication))
+            return;
+
+        publication.run();
+    }
+
+    private synchronized boolean add(Processor processor, Runnable publication) {
+        if (finished)
+            return false;
+
+        processors.add(processor);
+        publications.add(publication);
+        return true;
+    }
+
+    /**
+     * Ends this session, publishing the new state of every processor that was trained (in the
+     * order they were trained), then notifying their controllers.
+     */
+    public void finish() {
+        List<Processor> trainedProcessors;
+
+        synchronized (this) {
+            finished = true;
+            for (Runnable publication : publications)
+                publication.run();
+            trainedProcessors = new ArrayList<>(processors);
+        }
+
+        synchronized (sessionLock) {
+            if (active.get(modelKey) == this)
+                active.remove(modelKey);
+            sessionLock.notifyAll();
+        }
+
+        for (Processor processor : trainedProcessors) {
+            ModelController controller = processor.getController();
+            if (controller != null)
+                controller.handleTrained();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package io.github.samwright.framework.model.helper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the current version of something (eg. the workflow a {@link FrameStream} processes
+ * frames with) to the threads that use it, without a lock.
+ * <p/>
+ * Each unit of work (eg. a frame) acquires a lease on the current version when it starts and
+ * uses that version until it finishes, when it releases the lease.  Publishing a new version
+ * only affects work started afterwards, so work already in flight isn't disturbed.  An old
+ * version is released (ie. forgotten, and {@code handleReleased(..)} called) once the last
+ * lease on it is released.
+ *
+ * @param <T> the type of the versions.
+ */
+public class VersionPublisher<T> {
+
+    private final AtomicReference<Lease<T>> current = new AtomicReference<>();
+    private final AtomicInteger liveVersions = new AtomicInteger();
+
+    /**
+     * Creates a publisher with the given version as the current one.
+     *
+     * @param initial the first version.
+     */
+    public VersionPublisher(T initial) {
+        publish(initial);
+    }
+
+    /**
+     * @return the current version.
+     */
+    public T getCurrent() {
+        return current.get().get();
+    }
+
+    /**
+     * Acquires a lease on the current version, which must be released exactly once when it is
+     * finished with.
+     *
+     * @return a lease on the current version.
+     */
+    public Lease<T> acquire() {
+        while (true) {
+            Lease<T> lease = current.get();
+            if (lease.retain())
+                return lease;
+            // The version was replaced and released in the meantime, so try the new one.
+        }
+    }
+
+    /**
+     * Makes the given version the current one.  The old version is released once every lease
+     * on it has been released.  Does nothing if the version is already the current one.
+     *
+     * @param version the new version.
+     */
+    public void publish(T version) {
+        if (version == null)
+            throw new NullPointerException("Can't publish a null version");
+
+        Lease<T> newLease = new Lease<>(this, version);
+        liveVersions.incrementAndGet();
+
+        Lease<T> oldLease;
+        do {
+            oldLease = current.get();
+            if (oldLease != null && oldLease.get() == version) {
+                liveVersions.decrementAndGet();
+                return;
+            }
+        } while (!current.compareAndSet(oldLease, newLease));
+
+        // Drop the publisher's own hold on the old version.
+        if (oldLease != null)
+            oldLease.release();
+    }
+
+    /**
+     * @return the number of versions that haven't been released (including the current one).
+     */
+    public int getLiveVersions() {
+        return liveVersions.get();
+    }
+
+    /**
+     * Called (from the thread that released the last lease) when an old version is released.
+     *
+     * @param version the released version.
+     */
+    protected void handleReleased(T version) {
+    }
+
+    /**
+     * A version and the number of holds on it (one for each unreleased {@code acquire()}, plus
+     * one while it is the current version).  It is released when there are no holds left.
+     *
+     * @param <T> the type of the version.
+     */
+    public static class Lease<T> {
+        private final VersionPublisher<T> publisher;
+        private final T version;
+        // Starts with the publisher's own hold, which is dropped when the version is replaced.
+        private final AtomicInteger holds = new AtomicInteger(1);
+
+        private Lease(VersionPublisher<T> publisher, T version) {
+            this.publisher = publisher;
+            this.version = version;
+        }
+
+        /**
+         * @return the leased version.
+         */
+        public T get() {
+            return version;
+        }
+
+        /**
+         * Releases the lease.  Must be called exactly once for each {@code acquire()}.
+         */
+        public void release() {
+            int remaining = holds.decrementAndGet();
+            if (remaining < 0)
+                throw new IllegalStateException("Lease released too many times: " + version);
+
+            if (remaining == 0) {
+                publisher.liveVersions.decrementAndGet();
+                publisher.handleReleased(version);
+            }
+        }
+
+        private boolean retain() {
+            while (true) {
+                int n = holds.get();
+                if (n == 0)
+                    return false;
+                if (holds.compareAndSet(n, n + 1))
+                    return true;
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package io.github.samwright.framework.model.helper;
 import io.github.samwright.framework.model.Processor;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -18,6 +19,9 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /**
  * Helper class containing useful methods for dealing with XML (de)serialisation.
@@ -138,6 +142,18 @@ public class XMLHelper {
         return iterator.next();
     }
 
+    /**
+     * Checks if the node has a child (not grandchild, great-grandchild, ...) with the specified
+     * name.  Useful for reading optional data that older files might not contain.
+     *
+     * @param node the node to look under.
+     * @param name the name to match the child's tag name with.
+     * @return true iff the node has a child with the supplied name.
+     */
+    public static boolean hasChildWithName(Element node, String name) {
+        return new ElementIterable(node, name).iterator().hasNext();
+    }
+
     /**
      * Gets data under the given node, ie.
      * <p/>
@@ -213,8 +229,54 @@ public class XMLHelper {
         writeProcessorToResult(processor, new StreamResult(new File(filename)));
     }
 
+    /**
+     * Gets a signature of the given {@link Processor}'s type and configuration, from its XML
+     * without any UUIDs or observers.  Two {@code Processor} objects of the same type with the
+     * same configuration (eg. two {@code SkinDetector} objects with the same colour ranges) have
+     * equal signatures, even though they are different objects.
+     *
+     * @param processor the {@code Processor} to get the signature of.
+     * @return the signature of the given {@code Processor}.
+     */
+    public static String getStructuralSignature(Processor processor) {
+        StringBuilder signature = new StringBuilder();
+        appendSignature(processor.getXMLForDocument(createDocument()), signature);
+        return signature.toString();
+    }
+
+    private static void appendSignature(Node node, StringBuilder signature) {
+        if (node.getNodeType() == Node.TEXT_NODE) {
+            String text = node.getNodeValue().trim();
+            if (!text.isEmpty())
+                signature.append('"').append(text).append('"');
+            return;
+        }
+
+        if (node.getNodeType() != Node.ELEMENT_NODE || node.getNodeName().equals("Observers"))
+            return;
+
+        signature.append('<').append(node.getNodeName());
+
+        NamedNodeMap attributes = node.getAttributes();
+        SortedMap<String, String> sortedAttributes = new TreeMap<>();
+        for (int i = 0; i < attributes.getLength(); ++i)
+            if (!attributes.item(i).getNodeName().equals("UUID"))
+                sortedAttributes.put(attributes.item(i).getNodeName(),
+                        attributes.item(i).getNodeValue());
+        for (Map.Entry<String, String> e : sortedAttributes.entrySet())
+            signature.append(' ').append(e.getKey()).append("=\"").append(e.getValue()).append('"');
+
+        signature.append('>');
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+            appendSignature(child, signature);
+        signature.append("</>");
+    }
+
     private static Document createDocument() {
-        return docBuilder.newDocument();
+        // DocumentBuilder isn't thread-safe, and signatures are taken from worker threads.
+        synchronized (docBuilder) {
+            return docBuilder.newDocument();
+        }
     }
 
     private static Processor loadProcessorFromDocument(Document doc, boolean useExistingIfPossible) {
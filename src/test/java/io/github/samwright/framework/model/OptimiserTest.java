@@ -0,0 +1,76 @@
+package io.github.samwright.framework.model;
+
+import io.github.samwright.framework.model.helper.CompletedTrainingBatch;
+import io.github.samwright.framework.model.helper.Mediator;
+import io.github.samwright.framework.model.helper.SharedPrefixPlanTest.Appender;
+import io.github.samwright.framework.model.helper.TrainingSession;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static junit.framework.TestCase.*;
+
+/**
+ * Tests for {@link Optimiser}.
+ */
+public class OptimiserTest {
+
+    private Optimiser optimiser;
+    private Workflow first, second;
+    private Mediator input;
+
+    @Before
+    public void setUp() throws Exception {
+        optimiser = (Optimiser) new Optimiser().withChildren(Arrays.asList(
+                new WorkflowImpl().withChildren(Arrays.<Element>asList(new Appender())),
+                new WorkflowImpl().withChildren(Arrays.<Element>asList(new Appender()))));
+        first = optimiser.getChildren().get(0);
+        second = optimiser.getChildren().get(1);
+        input = Mediator.createEmpty().createNext(new Appender(), "x");
+    }
+
+    /**
+     * Trains the optimiser in a training session, where only the outputs of the given workflow
+     * are successful.
+     *
+     * @return the batch the optimiser rolled the outputs back to (before the session finished).
+     */
+    private CompletedTrainingBatch train(Workflow winner) {
+        TrainingSession session = TrainingSession.start(optimiser);
+        try {
+            List<Mediator> outputs = optimiser.processTrainingData(input);
+
+            Set<Mediator> successful = new HashSet<>();
+            for (Mediator output : outputs)
+                if (output.getPrevious().getHistory().getCreator() == winner)
+                    successful.add(output);
+
+            return optimiser.processCompletedTrainingBatch(
+                    new CompletedTrainingBatch(new HashSet<>(outputs), successful));
+        } finally {
+            session.finish();
+        }
+    }
+
+    @Test
+    public void testReturnedBatchUsesTheNewChoices() throws Exception {
+        CompletedTrainingBatch batch = train(first);
+        assertEquals(Collections.singleton(input), batch.getAll());
+        assertEquals(Collections.singleton(input), batch.getSuccessful());
+        assertSame(first, optimiser.chooseWorkflow(input));
+
+        // Retrain with a different winner (while the first is still chosen, until the session
+        // finishes).
+        batch = train(second);
+        assertEquals(Collections.singleton(input), batch.getAll());
+        assertEquals(Collections.singleton(input), batch.getSuccessful());
+        assertSame(second, optimiser.chooseWorkflow(input));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSuccessRatesAreUnmodifiable() throws Exception {
+        train(first);
+        optimiser.getSuccessRates().remove(first);
+    }
+}
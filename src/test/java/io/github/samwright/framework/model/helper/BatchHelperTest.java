@@ -0,0 +1,90 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.common.BatchProcessor;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.TestCase.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link BatchHelper}.
+ */
+public class BatchHelperTest {
+
+    private BatchProcessor batchProcessor;
+    private Element element;
+    private List<Mediator> inputs;
+
+    private static Mediator increment(Mediator input, Element creator) {
+        return input.createNext(creator, (Integer) input.getData() + 1);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        element = mock(Element.class);
+        when(element.process(any(Mediator.class))).thenAnswer(new Answer<Mediator>() {
+            @Override
+            public Mediator answer(InvocationOnMock invocation) throws Throwable {
+                return increment((Mediator) invocation.getArguments()[0], element);
+            }
+        });
+
+        batchProcessor = mock(BatchProcessor.class);
+        when(batchProcessor.processBatch(anyListOf(Mediator.class))).thenAnswer(
+                new Answer<List<Mediator>>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public List<Mediator> answer(InvocationOnMock invocation) throws Throwable {
+                        List<Mediator> outputs = new ArrayList<>();
+                        for (Mediator input : (List<Mediator>) invocation.getArguments()[0])
+                            outputs.add(increment(input, element));
+                        return outputs;
+                    }
+                });
+
+        inputs = new ArrayList<>();
+        for (int i = 0; i < 5; ++i)
+            inputs.add(Mediator.createEmpty().createNext(element, i));
+    }
+
+    private static List<Object> getData(List<Mediator> mediators) {
+        List<Object> data = new ArrayList<>();
+        for (Mediator mediator : mediators)
+            data.add(mediator.getData());
+        return data;
+    }
+
+    @Test
+    public void testBatchProcessorProcessesWholeBatch() throws Exception {
+        List<Mediator> outputs = BatchHelper.processBatch(batchProcessor, inputs);
+
+        assertEquals(Arrays.<Object>asList(1, 2, 3, 4, 5), getData(outputs));
+        verify(batchProcessor).processBatch(inputs);
+        verify(batchProcessor, never()).process(any(Mediator.class));
+    }
+
+    @Test
+    public void testOtherProcessorsProcessEachInput() throws Exception {
+        List<Mediator> outputs = BatchHelper.processBatch(element, inputs);
+
+        assertEquals(Arrays.<Object>asList(1, 2, 3, 4, 5), getData(outputs));
+        verify(element, times(5)).process(any(Mediator.class));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testBatchMissingOutputsIsRejected() throws Exception {
+        when(batchProcessor.processBatch(anyListOf(Mediator.class)))
+                .thenReturn(new ArrayList<Mediator>());
+        BatchHelper.processBatch(batchProcessor, inputs);
+    }
+}
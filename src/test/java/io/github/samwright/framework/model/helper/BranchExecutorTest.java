@@ -0,0 +1,154 @@
+package io.github.samwright.framework.model.helper;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static junit.framework.TestCase.*;
+
+/**
+ * Tests for {@link BranchExecutor}.
+ */
+public class BranchExecutorTest {
+
+    private static Callable<Integer> returning(final int value) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                Thread.sleep(10 - value);
+                return value;
+            }
+        };
+    }
+
+    @Test
+    public void testResultsAreInTaskOrder() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; ++i)
+            tasks.add(returning(i));
+
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9),
+                BranchExecutor.getInstance(3).runAll(tasks));
+    }
+
+    @Test
+    public void testNoTasks() throws Exception {
+        assertTrue(BranchExecutor.getShared().runAll(new ArrayList<Callable<Integer>>()).isEmpty());
+    }
+
+    @Test
+    public void testExecutorsAreSharedByPoolSize() throws Exception {
+        assertSame(BranchExecutor.getInstance(2), BranchExecutor.getInstance(2));
+        assertSame(BranchExecutor.getShared(), BranchExecutor.getInstance(0));
+        assertNotSame(BranchExecutor.getInstance(1), BranchExecutor.getInstance(2));
+    }
+
+    @Test
+    public void testLastTaskRunsOnCallingThread() throws Exception {
+        Callable<Thread> currentThread = new Callable<Thread>() {
+            @Override
+            public Thread call() throws Exception {
+                return Thread.currentThread();
+            }
+        };
+
+        List<Thread> threads = BranchExecutor.getShared()
+                .runAll(Arrays.asList(currentThread, currentThread));
+
+        assertSame(Thread.currentThread(), threads.get(1));
+    }
+
+    @Test(timeout = 5000)
+    public void testShadowBranchesRunAtLowestPriority() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        Callable<Integer> onPool = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                started.countDown();
+                return Thread.currentThread().getPriority();
+            }
+        };
+        // Runs first on the calling thread, and holds it until the pool has started the other.
+        Callable<Integer> onCaller = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                started.await();
+                return Thread.currentThread().getPriority();
+            }
+        };
+
+        List<Integer> priorities = BranchExecutor.getShadow()
+                .runAll(Arrays.asList(onPool, onCaller));
+
+        assertEquals(Thread.MIN_PRIORITY, (int) priorities.get(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExceptionIsRethrown() throws Exception {
+        Callable<Integer> failing = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                throw new IllegalStateException();
+            }
+        };
+
+        BranchExecutor.getInstance(2).runAll(Arrays.asList(returning(1), failing, returning(2)));
+    }
+
+    @Test(timeout = 5000)
+    public void testNestedTasksDontDeadlock() throws Exception {
+        final BranchExecutor executor = BranchExecutor.getInstance(1);
+        Callable<Integer> nested = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                int sum = 0;
+                for (int value : executor.runAll(Arrays.asList(returning(1), returning(2))))
+                    sum += value;
+                return sum;
+            }
+        };
+
+        assertEquals(Arrays.asList(3, 3, 3),
+                executor.runAll(Arrays.asList(nested, nested, nested)));
+    }
+
+    @Test(timeout = 5000)
+    public void testFailureCancelsSiblings() throws Exception {
+        final AtomicBoolean siblingInterrupted = new AtomicBoolean(false);
+        final CountDownLatch siblingStarted = new CountDownLatch(1);
+
+        Callable<Integer> slow = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                siblingStarted.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    siblingInterrupted.set(true);
+                    throw e;
+                }
+                return 0;
+            }
+        };
+        Callable<Integer> failing = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                siblingStarted.await();
+                throw new IllegalStateException();
+            }
+        };
+
+        try {
+            BranchExecutor.getInstance(2).runAll(Arrays.asList(slow, failing));
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        // runAll(..) waits for the cancelled sibling to stop before returning.
+        assertTrue(siblingInterrupted.get());
+    }
+}
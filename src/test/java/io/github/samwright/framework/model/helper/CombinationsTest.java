@@ -0,0 +1,84 @@
+package io.github.samwright.framework.model.helper;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static junit.framework.TestCase.*;
+
+/**
+ * Tests for {@link Combinations}.
+ */
+public class CombinationsTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSameCombinationsAsCartesianProduct() throws Exception {
+        List<List<Integer>> axes = Arrays.asList(
+                Arrays.asList(1, 2, 3),
+                Arrays.asList(4, 5),
+                Arrays.asList(6, 7, 8, 9));
+
+        List<Set<Integer>> sets = new ArrayList<>();
+        for (List<Integer> axis : axes)
+            sets.add(ImmutableSet.copyOf(axis));
+        Set<List<Integer>> expected = Sets.cartesianProduct(sets);
+
+        Combinations<Integer> combinations = new Combinations<>(axes);
+        assertEquals(24, combinations.size());
+
+        Set<List<Integer>> actual = new HashSet<>();
+        for (long i = 0; i < combinations.size(); ++i)
+            actual.add(combinations.get(i));
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testLastAxisVariesFastest() throws Exception {
+        Combinations<Integer> combinations = new Combinations<>(Arrays.asList(
+                Arrays.asList(1, 2),
+                Arrays.asList(3, 4)));
+
+        assertEquals(Arrays.asList(1, 3), combinations.get(0));
+        assertEquals(Arrays.asList(1, 4), combinations.get(1));
+        assertEquals(Arrays.asList(2, 3), combinations.get(2));
+        assertEquals(Arrays.asList(2, 4), combinations.get(3));
+    }
+
+    @Test
+    public void testEmptyAxisHasNoCombinations() throws Exception {
+        List<List<Integer>> axes = Arrays.asList(Arrays.asList(1, 2), Collections.<Integer>emptyList());
+        assertEquals(0, new Combinations<>(axes).size());
+    }
+
+    @Test
+    public void testNoAxesHasOneEmptyCombination() throws Exception {
+        Combinations<Integer> combinations = new Combinations<>(new ArrayList<List<Integer>>());
+        assertEquals(1, combinations.size());
+        assertTrue(combinations.get(0).isEmpty());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testIndexOutOfBounds() throws Exception {
+        new Combinations<>(Arrays.asList(Arrays.asList(1, 2))).get(2);
+    }
+
+    @Test
+    public void testHugeProductIsNotMaterialised() throws Exception {
+        List<List<Integer>> axes = new ArrayList<>();
+        for (int i = 0; i < 10; ++i)
+            axes.add(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+
+        Combinations<Integer> combinations = new Combinations<>(axes);
+        assertEquals(10000000000L, combinations.size());
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 0), combinations.get(1234567890L));
+    }
+}
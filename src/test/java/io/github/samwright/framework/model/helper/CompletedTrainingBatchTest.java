@@ -7,11 +7,9 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 
-import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.*;
 
 /**
  * User: Sam Wright Date: 15/07/2013 Time: 12:11
@@ -23,7 +21,7 @@ public class CompletedTrainingBatchTest {
     private Set<Mediator> all, successful;
 
     @Mock
-    private Processor intProvider;
+    private Processor intProvider, doubler, tripler, joiner;
 
     @Before
     public void setUp() throws Exception {
@@ -50,4 +48,68 @@ public class CompletedTrainingBatchTest {
     public void testSuccessfulMustBeSubsetOfAll() throws Exception {
         batch = new CompletedTrainingBatch(successful, all);
     }
+
+    @Test
+    public void testRollBack() throws Exception {
+        Mediator input = Mediator.createEmpty().createNext(intProvider, 1);
+        Mediator doubled = input.createNext(doubler, 2);
+        Mediator tripled = input.createNext(tripler, 3);
+        Mediator other = Mediator.createEmpty().createNext(intProvider, 5);
+        Mediator otherDoubled = other.createNext(doubler, 10);
+
+        batch = new CompletedTrainingBatch(
+                new HashSet<>(Arrays.asList(doubled, tripled, otherDoubled)),
+                new HashSet<>(Arrays.asList(tripled)));
+        CompletedTrainingBatch rolledBack = batch.rollBack();
+
+        assertEquals(new HashSet<>(Arrays.asList(input, other)), rolledBack.getAll());
+        assertEquals(Collections.singleton(input), rolledBack.getSuccessful());
+        assertTrue(rolledBack.getAll().contains(other));
+        assertFalse(rolledBack.getSuccessful().contains(other));
+    }
+
+    @Test
+    public void testPartitionByCreator() throws Exception {
+        Mediator doubled = one.createNext(doubler, 2);
+        Mediator tripled = one.createNext(tripler, 3);
+        Mediator twoDoubled = two.createNext(doubler, 4);
+
+        batch = new CompletedTrainingBatch(
+                new HashSet<>(Arrays.asList(doubled, tripled, twoDoubled)),
+                new HashSet<>(Arrays.asList(doubled)));
+        List<CompletedTrainingBatch> parts
+                = batch.partitionByCreator(Arrays.asList(doubler, tripler, intProvider));
+
+        assertEquals(new HashSet<>(Arrays.asList(doubled, twoDoubled)), parts.get(0).getAll());
+        assertEquals(Collections.singleton(doubled), parts.get(0).getSuccessful());
+        assertEquals(Collections.singleton(tripled), parts.get(1).getAll());
+        assertTrue(parts.get(1).getSuccessful().isEmpty());
+        assertTrue(parts.get(2).getAll().isEmpty());
+    }
+
+    @Test
+    public void testPartitionJoinedByCreator() throws Exception {
+        Mediator doubled = one.createNext(doubler, 2);
+        Mediator tripled = one.createNext(tripler, 3);
+        Mediator otherTripled = one.createNext(tripler, 33);
+        Mediator joined = one.join(joiner, Arrays.asList(doubled, tripled));
+        Mediator otherJoined = one.join(joiner, Arrays.asList(doubled, otherTripled));
+
+        batch = new CompletedTrainingBatch(
+                new HashSet<>(Arrays.asList(joined, otherJoined)),
+                new HashSet<>(Arrays.asList(joined)));
+        List<CompletedTrainingBatch> parts
+                = batch.partitionJoinedByCreator(Arrays.asList(doubler, tripler));
+
+        // The doubled mediator is in both joins, and is successful because one of them is.
+        assertEquals(Collections.singleton(doubled), parts.get(0).getAll());
+        assertEquals(Collections.singleton(doubled), parts.get(0).getSuccessful());
+        assertEquals(new HashSet<>(Arrays.asList(tripled, otherTripled)), parts.get(1).getAll());
+        assertEquals(Collections.singleton(tripled), parts.get(1).getSuccessful());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testPartitionRejectsUnknownCreator() throws Exception {
+        batch.partitionByCreator(Arrays.asList(doubler));
+    }
 }
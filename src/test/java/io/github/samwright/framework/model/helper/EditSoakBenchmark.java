@@ -0,0 +1,67 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Workflow;
+import io.github.samwright.framework.model.WorkflowImpl;
+import io.github.samwright.framework.model.helper.SharedPrefixPlanTest.Appender;
+import io.github.samwright.framework.model.helper.SharedPrefixPlanTest.Splitter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Edits a model over and over (without keeping its undo history), and opens and drops other
+ * models, printing the heap used and the size of the {@link ModelLoader} registry as it goes.
+ * Both should stay flat.  This isn't a unit test - run it with:
+ * <p/>
+ * {@code java -cp <test classpath> io.github.samwright.framework.model.helper.EditSoakBenchmark
+ * [edits]}
+ */
+public class EditSoakBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int edits = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int reportEvery = Math.max(1, edits / 10);
+
+        Workflow workflow = createModel();
+        System.out.printf("%10s %16s %12s%n", "edits", "heap (bytes)", "registered");
+        report(0);
+
+        for (int i = 1; i <= edits; ++i) {
+            // Replace the last element...
+            List<Element> children = new ArrayList<>(workflow.getChildren());
+            children.set(children.size() - 1, new Appender());
+            workflow = workflow.withChildren(children);
+
+            // ...and forget the old version (like loading a model does), which gives the new
+            // version a new UUID.
+            workflow.discardPrevious();
+
+            // Open another model, and close it again.
+            createModel();
+
+            if (i % reportEvery == 0)
+                report(i);
+        }
+
+        // Keep the model reachable until the end.
+        if (workflow.getChildren().isEmpty())
+            throw new AssertionError();
+    }
+
+    private static Workflow createModel() {
+        return new WorkflowImpl().withChildren(Arrays.<Element>asList(
+                new Splitter(), new Appender(), new Appender()));
+    }
+
+    private static void report(int edits) throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; ++i) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        System.out.printf("%10d %,16d %12d%n", edits, runtime.totalMemory() - runtime.freeMemory(),
+                          ModelLoader.getRegisteredCount());
+    }
+}
@@ -0,0 +1,141 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.controller.ModelController;
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Workflow;
+import io.github.samwright.framework.model.common.ElementObserver;
+import io.github.samwright.framework.model.mock.MockElement;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static junit.framework.TestCase.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link ExecutionPlan}.
+ */
+public class ExecutionPlanTest {
+
+    private Workflow workflow;
+    private Element first, second;
+    private ElementObserver observer;
+    private ModelController controller;
+
+    private Element appending(final String suffix) {
+        final Element element = mock(Element.class);
+        when(element.process(any(Mediator.class))).thenAnswer(new Answer<Mediator>() {
+            @Override
+            public Mediator answer(InvocationOnMock invocation) throws Throwable {
+                Mediator input = (Mediator) invocation.getArguments()[0];
+                return input.createNext(element, input.getData() + suffix);
+            }
+        });
+        return element;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        observer = mock(ElementObserver.class);
+        controller = mock(ModelController.class);
+
+        first = appending("1");
+        when(first.getObservers()).thenReturn(Collections.singleton(observer));
+
+        second = appending("2");
+        when(second.getController()).thenReturn(controller);
+
+        workflow = mock(Workflow.class);
+        when(workflow.getChildren()).thenReturn(Arrays.asList(first, second));
+    }
+
+    @Test
+    public void testProcess() throws Exception {
+        Mediator input = Mediator.createEmpty().createNext(first, "0");
+        Mediator output = ExecutionPlan.compile(workflow).process(input);
+
+        assertEquals("012", output.getData());
+        NotificationBus.getShared().flush();
+        verify(observer).handleProcessedData(output.getPrevious());
+        verify(controller).handleProcessedData(output);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullOutputIsRejected() throws Exception {
+        when(workflow.getChildren()).thenReturn(Arrays.asList(first, mock(Element.class)));
+        ExecutionPlan.compile(workflow).process(Mediator.createEmpty().createNext(first, "0"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testMutableWorkflowIsRejected() throws Exception {
+        when(workflow.isMutable()).thenReturn(true);
+        ExecutionPlan.compile(workflow);
+    }
+
+    @Test
+    public void testMutationMakesPlanOutOfDate() throws Exception {
+        ExecutionPlan plan = ExecutionPlan.compile(workflow);
+        assertTrue(plan.isCurrent());
+
+        new MockElement().setAsCurrentVersion();
+        assertFalse(plan.isCurrent());
+        assertTrue(ExecutionPlan.compile(workflow).isCurrent());
+    }
+
+    @Test
+    public void testStagesAreRecorded() throws Exception {
+        FrameContext context = FrameContext.withBudget(0);
+        ExecutionPlan.compile(workflow).process(Mediator.createEmpty(context).createNext(first, "0"));
+
+        assertEquals(2, context.getStageRecords().size());
+        assertSame(first, context.getStageRecords().get(0).getProcessor());
+        assertSame(second, context.getStageRecords().get(1).getProcessor());
+    }
+
+    @Test
+    public void testCancelledFrameIsAbandoned() throws Exception {
+        FrameContext context = FrameContext.withBudget(0);
+        context.cancel();
+
+        try {
+            ExecutionPlan.compile(workflow).process(Mediator.createEmpty(context).createNext(first, "0"));
+            fail();
+        } catch (FrameAbandonedException e) {
+            assertSame(first, e.getAbandonedAt());
+        }
+        verify(first, never()).process(any(Mediator.class));
+    }
+
+    @Test
+    public void testFrameThatCantMeetBudgetIsAbandonedEarly() throws Exception {
+        final Element slow = mock(Element.class);
+        doAnswer(new Answer<Mediator>() {
+            @Override
+            public Mediator answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(50);
+                Mediator input = (Mediator) invocation.getArguments()[0];
+                return input.createNext(slow, input.getData());
+            }
+        }).when(slow).process(any(Mediator.class));
+        when(workflow.getChildren()).thenReturn(Arrays.asList(first, slow));
+        ExecutionPlan plan = ExecutionPlan.compile(workflow);
+
+        // The first frame has no estimate to go on, so overruns its budget.
+        plan.process(Mediator.createEmpty(FrameContext.withBudget(20)).createNext(first, "0"));
+
+        // The next is abandoned before even starting, since the slow element won't fit.
+        FrameContext context = FrameContext.withBudget(20);
+        try {
+            plan.process(Mediator.createEmpty(context).createNext(first, "0"));
+            fail();
+        } catch (FrameAbandonedException e) {
+            assertSame(first, e.getAbandonedAt());
+        }
+        assertTrue(context.getStageRecords().isEmpty());
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.Element;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static junit.framework.TestCase.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link FrameContext}.
+ */
+public class FrameContextTest {
+
+    private final Element element = mock(Element.class);
+
+    @Test
+    public void testContextIsCarriedByMediators() throws Exception {
+        FrameContext context = FrameContext.withBudget(100);
+        Mediator first = Mediator.createEmpty(context).createNext(element, 1);
+        Mediator joined = first.join(element, Arrays.asList(first));
+
+        assertSame(context, first.getContext());
+        assertSame(context, joined.getContext());
+        assertSame(FrameContext.NONE, Mediator.createEmpty().createNext(element, 1).getContext());
+    }
+
+    @Test
+    public void testCheckpointPassesWithinBudget() throws Exception {
+        FrameContext context = FrameContext.withBudget(10000);
+        context.checkpoint(element);
+        context.checkpoint(element, 1000);
+        FrameContext.NONE.checkpoint(element, Long.MAX_VALUE);
+    }
+
+    @Test(expected = FrameAbandonedException.class)
+    public void testCheckpointFailsAfterDeadline() throws Exception {
+        FrameContext context = FrameContext.withBudget(1);
+        Thread.sleep(5);
+        context.checkpoint(element);
+    }
+
+    @Test(expected = FrameAbandonedException.class)
+    public void testCheckpointFailsIfEstimateDoesntFit() throws Exception {
+        FrameContext.withBudget(1000).checkpoint(element, 2000 * 1000000L);
+    }
+
+    @Test
+    public void testNoneCantBeCancelledAndRecordsNothing() throws Exception {
+        FrameContext.NONE.cancel();
+        FrameContext.NONE.recordStage(element, 1);
+
+        assertFalse(FrameContext.NONE.isCancelled());
+        assertTrue(FrameContext.NONE.getStageRecords().isEmpty());
+    }
+}
@@ -0,0 +1,172 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Workflow;
+import io.github.samwright.framework.model.WorkflowContainer;
+import io.github.samwright.framework.model.common.SinkElement;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link FrameParallelStream}.
+ */
+public class FrameParallelStreamTest {
+
+    private static final int frames = 40;
+
+    private Workflow workflow;
+    private Element source, slowDoubler;
+    private SinkElement sink;
+    private AtomicInteger frameCount, busyDoublers, maxBusyDoublers;
+    private List<Object> sunk, outputs;
+    private List<RuntimeException> exceptions;
+    private CountDownLatch allOutputs;
+
+    @Before
+    public void setUp() throws Exception {
+        frameCount = new AtomicInteger();
+        busyDoublers = new AtomicInteger();
+        maxBusyDoublers = new AtomicInteger();
+        sunk = Collections.synchronizedList(new ArrayList<>());
+        outputs = Collections.synchronizedList(new ArrayList<>());
+        exceptions = Collections.synchronizedList(new ArrayList<RuntimeException>());
+        allOutputs = new CountDownLatch(frames);
+
+        source = mock(Element.class);
+        when(source.process(any(Mediator.class))).thenAnswer(new Answer<Mediator>() {
+            @Override
+            public Mediator answer(InvocationOnMock invocation) throws Throwable {
+                Mediator input = (Mediator) invocation.getArguments()[0];
+                return input.createNext(source, frameCount.incrementAndGet());
+            }
+        });
+
+        final Random random = new Random(0);
+        slowDoubler = mock(Element.class);
+        when(slowDoubler.process(any(Mediator.class))).thenAnswer(new Answer<Mediator>() {
+            @Override
+            public Mediator answer(InvocationOnMock invocation) throws Throwable {
+                int busy = busyDoublers.incrementAndGet();
+                synchronized (maxBusyDoublers) {
+                    maxBusyDoublers.set(Math.max(busy, maxBusyDoublers.get()));
+                }
+
+                int sleep;
+                synchronized (random) {
+                    sleep = random.nextInt(10);
+                }
+                Thread.sleep(sleep);
+
+                busyDoublers.decrementAndGet();
+                Mediator input = (Mediator) invocation.getArguments()[0];
+                return input.createNext(slowDoubler, 2 * (Integer) input.getData());
+            }
+        });
+
+        sink = mock(SinkElement.class);
+        when(sink.process(any(Mediator.class))).thenAnswer(new Answer<Mediator>() {
+            @Override
+            public Mediator answer(InvocationOnMock invocation) throws Throwable {
+                Mediator input = (Mediator) invocation.getArguments()[0];
+                sunk.add(input.getData());
+                return input.createNext(sink, input.getData());
+            }
+        });
+
+        workflow = mock(Workflow.class);
+        when(workflow.getChildren()).thenReturn(Arrays.asList(source, slowDoubler, sink));
+    }
+
+    private FrameParallelStream createStream(int workerCount) {
+        return new FrameParallelStream(workflow, workerCount) {
+            @Override
+            protected void handleOutput(Mediator output) {
+                outputs.add(output.getData());
+                allOutputs.countDown();
+            }
+
+            @Override
+            protected void handleException(RuntimeException e) {
+                exceptions.add(e);
+            }
+        };
+    }
+
+    private static List<Object> firstFrames(List<Object> list) {
+        synchronized (list) {
+            return new ArrayList<>(list.subList(0, frames));
+        }
+    }
+
+    @Test
+    public void testSinkSeesFramesInCaptureOrder() throws Exception {
+        FrameParallelStream stream = createStream(4);
+        stream.start();
+        assertTrue(allOutputs.await(10, TimeUnit.SECONDS));
+        stream.stop();
+
+        List<Object> expected = new ArrayList<>();
+        for (int i = 1; i <= frames; ++i)
+            expected.add(2 * i);
+
+        assertEquals(expected, firstFrames(sunk));
+        assertEquals(expected, firstFrames(outputs));
+        assertTrue(exceptions.isEmpty());
+        assertTrue(maxBusyDoublers.get() > 1);
+    }
+
+    @Test
+    public void testFailedFramesAreSkipped() throws Exception {
+        doAnswer(new Answer<Mediator>() {
+            @Override
+            public Mediator answer(InvocationOnMock invocation) throws Throwable {
+                Mediator input = (Mediator) invocation.getArguments()[0];
+                int data = (Integer) input.getData();
+                if (data % 3 == 0)
+                    throw new IllegalArgumentException();
+                return input.createNext(slowDoubler, 2 * data);
+            }
+        }).when(slowDoubler).process(any(Mediator.class));
+
+        FrameParallelStream stream = createStream(3);
+        stream.start();
+        assertTrue(allOutputs.await(10, TimeUnit.SECONDS));
+        stream.stop();
+
+        List<Object> expected = new ArrayList<>();
+        for (int i = 1; expected.size() < frames; ++i)
+            if (i % 3 != 0)
+                expected.add(2 * i);
+
+        assertEquals(expected, firstFrames(outputs));
+        assertFalse(exceptions.isEmpty());
+    }
+
+    @Test
+    public void testContainsSink() throws Exception {
+        Workflow innerWorkflow = mock(Workflow.class);
+        WorkflowContainer container = mock(WorkflowContainer.class);
+        when(container.getChildren()).thenReturn(Arrays.asList(innerWorkflow));
+
+        when(innerWorkflow.getChildren()).thenReturn(Arrays.asList(source));
+        assertFalse(FrameParallelStream.containsSink(container));
+
+        when(innerWorkflow.getChildren()).thenReturn(Arrays.asList(source, sink));
+        assertTrue(FrameParallelStream.containsSink(container));
+        assertTrue(FrameParallelStream.containsSink(sink));
+        assertFalse(FrameParallelStream.containsSink(slowDoubler));
+    }
+}
@@ -0,0 +1,155 @@
+package io.github.samwright.framework.model.helper;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.github.samwright.framework.model.Processor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link FrameQueue}.
+ */
+public class FrameQueueTest {
+
+    private Processor processor;
+    private CountDownLatch firstFrameStarted, releaseFirstFrame;
+
+    @Before
+    public void setUp() throws Exception {
+        processor = mock(Processor.class);
+        firstFrameStarted = new CountDownLatch(1);
+        releaseFirstFrame = new CountDownLatch(1);
+    }
+
+    /**
+     * Creates a queue which holds up processing the first frame until {@code releaseFirstFrame}
+     * is counted down, and which doubles the data of each frame.
+     */
+    private FrameQueue createQueue(BackpressurePolicy policy, int capacity) {
+        return new FrameQueue(policy, capacity) {
+            @Override
+            protected Mediator processFrame(Mediator input) {
+                if (firstFrameStarted.getCount() > 0) {
+                    firstFrameStarted.countDown();
+                    try {
+                        releaseFirstFrame.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                Integer data = (Integer) input.getData();
+                if (data < 0)
+                    throw new IllegalArgumentException("negative frame");
+                return input.createNext(processor, 2 * data);
+            }
+        };
+    }
+
+    private ListenableFuture<Mediator> submit(FrameQueue queue, int data) {
+        return queue.submit(Mediator.createEmpty().createNext(processor, data));
+    }
+
+    private List<ListenableFuture<Mediator>> submitFiveWhileBusy(FrameQueue queue)
+            throws Exception {
+        List<ListenableFuture<Mediator>> futures = new ArrayList<>();
+        futures.add(submit(queue, 0));
+        assertTrue(firstFrameStarted.await(5, TimeUnit.SECONDS));
+
+        for (int i = 1; i < 5; ++i)
+            futures.add(submit(queue, i));
+
+        releaseFirstFrame.countDown();
+        futures.get(4).get(5, TimeUnit.SECONDS);
+        return futures;
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        FrameQueue queue = createQueue(BackpressurePolicy.DROP_OLDEST, 2);
+        List<ListenableFuture<Mediator>> futures = submitFiveWhileBusy(queue);
+
+        assertEquals(0, futures.get(0).get().getData());
+        assertTrue(futures.get(1).isCancelled());
+        assertTrue(futures.get(2).isCancelled());
+        assertEquals(6, futures.get(3).get().getData());
+        assertEquals(8, futures.get(4).get().getData());
+    }
+
+    @Test
+    public void testLatestOnly() throws Exception {
+        FrameQueue queue = createQueue(BackpressurePolicy.LATEST_ONLY, 10);
+        assertEquals(1, queue.getCapacity());
+
+        List<ListenableFuture<Mediator>> futures = submitFiveWhileBusy(queue);
+
+        assertEquals(0, futures.get(0).get().getData());
+        for (int i = 1; i < 4; ++i)
+            assertTrue(futures.get(i).isCancelled());
+        assertEquals(8, futures.get(4).get().getData());
+    }
+
+    @Test(timeout = 5000)
+    public void testBlockProcessesEveryFrame() throws Exception {
+        final FrameQueue queue = createQueue(BackpressurePolicy.BLOCK, 1);
+        final List<ListenableFuture<Mediator>> futures = new ArrayList<>();
+
+        Thread submitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 5; ++i)
+                    futures.add(submit(queue, i));
+            }
+        });
+        submitter.start();
+
+        assertTrue(firstFrameStarted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertTrue(submitter.isAlive());
+        assertEquals(1, queue.size());
+
+        releaseFirstFrame.countDown();
+        submitter.join();
+
+        for (int i = 0; i < 5; ++i)
+            assertEquals(2 * i, futures.get(i).get().getData());
+    }
+
+    @Test
+    public void testExceptionFailsFuture() throws Exception {
+        releaseFirstFrame.countDown();
+        FrameQueue queue = createQueue(BackpressurePolicy.BLOCK, 1);
+
+        try {
+            submit(queue, -1).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        assertEquals(4, submit(queue, 2).get(5, TimeUnit.SECONDS).getData());
+    }
+
+    @Test
+    public void testClearCancelsWaitingFrames() throws Exception {
+        FrameQueue queue = createQueue(BackpressurePolicy.BLOCK, 2);
+        ListenableFuture<Mediator> first = submit(queue, 1);
+        assertTrue(firstFrameStarted.await(5, TimeUnit.SECONDS));
+        ListenableFuture<Mediator> second = submit(queue, 2);
+
+        queue.clear();
+        releaseFirstFrame.countDown();
+
+        assertEquals(2, first.get(5, TimeUnit.SECONDS).getData());
+        assertTrue(second.isCancelled());
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,220 @@
+package io.github.samwright.framework.model.helper;
+
+import com.google.common.collect.MapMaker;
+import io.github.samwright.framework.model.Processor;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+/**
+ * Measures the heap used by the {@link History} trees of the bundled hand detection models
+ * (in /xml), and how much more would be used if every node eagerly allocated its maps of next
+ * histories (as {@link HistoryImpl} used to).  This isn't a unit test - run it with:
+ * <p/>
+ * {@code java -cp <test classpath> io.github.samwright.framework.model.helper.HistoryHeapBenchmark
+ * [versions]}
+ * <p/>
+ * The models' elements need OpenCV and their training images, so rather than training them,
+ * the benchmark extends histories the same way their workflows, split/join containers and
+ * optimisers do while training.  Each model is built the given number of times (default 2000),
+ * as if it had been edited and retrained that many times while the old versions are still
+ * referenced.
+ */
+public class HistoryHeapBenchmark {
+
+    private static final String[] MODELS = {
+            "/xml/hand detection.xml",
+            "/xml/optimised hand detection.xml",
+            "/xml/optimised hand detection with keyboard actions.xml"
+    };
+
+    private static final InvocationHandler STUB = new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("equals"))
+                return proxy == args[0];
+            if (method.getName().equals("hashCode"))
+                return System.identityHashCode(proxy);
+            if (method.getName().equals("toString"))
+                return "stub processor";
+            return null;
+        }
+    };
+
+    /**
+     * A stub for each element of the model, so every version of the model extends histories
+     * with the same creators (apart from the root).
+     */
+    private final Map<Element, Processor> creators = new HashMap<>();
+    private int nodes;
+
+    public static void main(String[] args) throws Exception {
+        int versions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        for (String model : MODELS)
+            new HistoryHeapBenchmark().run(model, versions);
+    }
+
+    private void run(String model, int versions) throws Exception {
+        Element root = parse(model);
+
+        // Count the nodes in one version of the tree.
+        build(root);
+        int nodesPerVersion = nodes;
+
+        long before = usedHeap();
+        List<Set<History>> trees = new ArrayList<>();
+        for (int i = 0; i < versions; ++i)
+            trees.add(build(root));
+        long compact = usedHeap() - before;
+
+        // The maps each node used to allocate up front.
+        before = usedHeap();
+        List<Object> eagerMaps = new ArrayList<>();
+        for (int i = 0; i < versions * nodesPerVersion; ++i) {
+            eagerMaps.add(new MapMaker().weakKeys().weakValues().makeMap());
+            eagerMaps.add(new MapMaker().weakValues().makeMap());
+        }
+        long eager = usedHeap() - before;
+
+        int totalNodes = versions * nodesPerVersion;
+        System.out.printf("%s: %d nodes per version, %d versions%n", model, nodesPerVersion,
+                          versions);
+        System.out.printf("  compact nodes:   %,d bytes (%d bytes per node)%n", compact,
+                          compact / totalNodes);
+        System.out.printf("  eager maps add:  %,d bytes (%d bytes per node)%n", eager,
+                          eager / totalNodes);
+
+        // Keep everything reachable until it has been measured.
+        if (trees.size() + eagerMaps.size() < 0)
+            throw new AssertionError();
+    }
+
+    private static Element parse(String model) throws Exception {
+        try (InputStream in = HistoryHeapBenchmark.class.getResourceAsStream(model)) {
+            if (in == null)
+                throw new RuntimeException("Can't find bundled model: " + model);
+            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+            return doc.getDocumentElement();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; ++i) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Builds a new version of the model's history tree, from a new root.
+     *
+     * @return the histories of the model's training outputs (which keep the tree alive).
+     */
+    private Set<History> build(Element model) {
+        nodes = 0;
+        History start = History.getEpoch().createNext(stub());
+        ++nodes;
+        return process(model, Collections.singleton(start));
+    }
+
+    private Processor stub() {
+        return (Processor) Proxy.newProxyInstance(Processor.class.getClassLoader(),
+                                                  new Class<?>[]{Processor.class}, STUB);
+    }
+
+    private Processor creatorOf(Element element) {
+        Processor creator = creators.get(element);
+        if (creator == null) {
+            creator = stub();
+            creators.put(element, creator);
+        }
+        return creator;
+    }
+
+    private Set<History> process(Element element, Set<History> inputs) {
+        String type = element.getAttribute("model");
+        Processor creator = creatorOf(element);
+
+        if (element.getTagName().equals("Workflow")) {
+            for (Element child : children(element))
+                inputs = process(child, inputs);
+            return extend(inputs, creator);
+        }
+
+        if (!element.getTagName().equals("WorkflowContainer"))
+            return extend(inputs, creator);
+
+        if (type.endsWith("TopWorkflowContainer") || type.endsWith("Optimiser")) {
+            // Every workflow processes every input.
+            Set<History> outputs = new HashSet<>();
+            for (Element workflow : children(element))
+                outputs.addAll(process(workflow, inputs));
+            return type.endsWith("Optimiser") ? extend(outputs, creator) : outputs;
+        }
+
+        // A split/join joins every combination of its workflows' outputs for each input.
+        Set<History> outputs = new HashSet<>();
+        for (History input : inputs) {
+            List<Set<History>> branches = new ArrayList<>();
+            for (Element workflow : children(element))
+                branches.add(process(workflow, Collections.singleton(input)));
+
+            for (Set<History> combination : combinations(branches)) {
+                History joined = input.join(creator, combination);
+                outputs.add(joined.createNext(creator));
+                nodes += 2;
+            }
+        }
+        return outputs;
+    }
+
+    private Set<History> extend(Set<History> inputs, Processor creator) {
+        Set<History> outputs = new HashSet<>();
+        for (History input : inputs)
+            outputs.add(input.createNext(creator));
+        nodes += outputs.size();
+        return outputs;
+    }
+
+    private static List<Set<History>> combinations(List<Set<History>> branches) {
+        List<Set<History>> combinations = new ArrayList<>();
+        combinations.add(new HashSet<History>());
+
+        for (Set<History> branch : branches) {
+            List<Set<History>> extended = new ArrayList<>();
+            for (Set<History> combination : combinations) {
+                for (History history : branch) {
+                    Set<History> next = new HashSet<>(combination);
+                    next.add(history);
+                    extended.add(next);
+                }
+            }
+            combinations = extended;
+        }
+        return combinations;
+    }
+
+    private static List<Element> children(Element element) {
+        List<Element> children = new ArrayList<>();
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && ((Element) node).getTagName().equals("Children")) {
+                for (Node child = node.getFirstChild(); child != null;
+                     child = child.getNextSibling()) {
+                    if (child instanceof Element)
+                        children.add((Element) child);
+                }
+            }
+        }
+        return children;
+    }
+}
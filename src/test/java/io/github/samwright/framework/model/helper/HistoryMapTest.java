@@ -0,0 +1,69 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.Processor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.TestCase.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link HistoryMap}.
+ */
+public class HistoryMapTest {
+
+    private List<History> histories;
+    private HistoryMap<Integer> map;
+
+    @Before
+    public void setUp() throws Exception {
+        histories = new ArrayList<>();
+        History history = History.getEpoch();
+        // Enough to make the map resize a few times.
+        for (int i = 0; i < 100; ++i) {
+            history = history.createNext(mock(Processor.class));
+            histories.add(history);
+        }
+        map = new HistoryMap<>();
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        for (int i = 0; i < histories.size(); ++i)
+            assertNull(map.put(histories.get(i), i));
+
+        assertEquals(histories.size(), map.size());
+        for (int i = 0; i < histories.size(); ++i)
+            assertEquals(Integer.valueOf(i), map.get(histories.get(i)));
+
+        assertEquals(Integer.valueOf(3), map.put(histories.get(3), -3));
+        assertEquals(Integer.valueOf(-3), map.get(histories.get(3)));
+        assertEquals(histories.size(), map.size());
+
+        assertNull(map.get(History.getEpoch()));
+        assertNull(map.get("not a history"));
+    }
+
+    @Test
+    public void testEqualsHashMapWithSameMappings() throws Exception {
+        Map<History, Integer> expected = new HashMap<>();
+        for (int i = 0; i < histories.size(); i += 3) {
+            map.put(histories.get(i), i);
+            expected.put(histories.get(i), i);
+        }
+
+        assertEquals(expected, map);
+        assertEquals(expected, new HashMap<>(map));
+        assertEquals(map, new HistoryMap<>(expected));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullValueIsRejected() throws Exception {
+        map.put(histories.get(0), null);
+    }
+}
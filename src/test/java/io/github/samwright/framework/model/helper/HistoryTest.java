@@ -7,11 +7,12 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.*;
 
 import static junit.framework.TestCase.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 /**
  * User: Sam Wright Date: 11/07/2013 Time: 13:13
@@ -78,6 +79,25 @@ public class HistoryTest {
         assertEquals(null, epoch.getPrevious());
     }
 
+    @Test
+    public void testVersionsOfACreatorExtendTheSameHistory() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        Processor version1 = mock(Processor.class), version2 = mock(Processor.class);
+        when(version1.getUUID()).thenReturn(uuid);
+        when(version2.getUUID()).thenReturn(uuid);
+
+        // The only next history of h3a...
+        History next = h3a.createNext(version1);
+        assertSame(next, h3a.createNext(version2));
+        assertSame(version1, next.getCreator());
+
+        // ...and one of many next histories of h2a.
+        next = h2a.createNext(version2);
+        assertSame(next, h2a.createNext(version1));
+        assertSame(h3a, h2a.createNext(p3a));
+        assertSame(version2, next.getCreator());
+    }
+
     @Test
     public void testDiscardFutureFrom() throws Exception {
         h2a.discardFutureFrom(p3a);
@@ -109,4 +129,66 @@ public class HistoryTest {
         Set<Processor> allCreators = new HashSet<>(Arrays.asList(p1, p2a, p2b, p3a, p3b, p4));
         assertEquals(allCreators, History.getAllCreators(h4));
     }
+
+    @Test
+    public void testIdsAreUnique() throws Exception {
+        assertEquals(0, epoch.getId());
+
+        Set<Integer> ids = new HashSet<>();
+        for (History history : Arrays.asList(epoch, h1, h2a, h3a, h2b, h3b, h4))
+            assertTrue(ids.add(history.getId()));
+    }
+
+    @Test(timeout = 5000)
+    public void testConcurrentCreateNextGivesSameHistory() throws Exception {
+        final Processor creator = p2a;
+        final History previous = h3b;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<History>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 8; ++i) {
+            futures.add(executor.submit(new Callable<History>() {
+                @Override
+                public History call() throws Exception {
+                    start.await();
+                    return previous.createNext(creator);
+                }
+            }));
+        }
+        start.countDown();
+
+        for (Future<History> future : futures)
+            assertSame(futures.get(0).get(), future.get());
+        executor.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void testConcurrentFanOutKeepsEveryHistory() throws Exception {
+        final History previous = h3a.createNext(p4);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Processor> creators = new ArrayList<>();
+        List<Future<History>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 16; ++i) {
+            final Processor creator = mock(Processor.class);
+            creators.add(creator);
+            futures.add(executor.submit(new Callable<History>() {
+                @Override
+                public History call() throws Exception {
+                    start.await();
+                    return previous.createNext(creator);
+                }
+            }));
+        }
+        start.countDown();
+
+        for (int i = 0; i < creators.size(); ++i) {
+            History next = futures.get(i).get();
+            assertSame(creators.get(i), next.getCreator());
+            assertSame(next, previous.createNext(creators.get(i)));
+        }
+        executor.shutdown();
+    }
 }
@@ -1,10 +1,21 @@
 package io.github.samwright.framework.model.helper;
 
+import io.github.samwright.framework.controller.ModelController;
+import io.github.samwright.framework.model.Processor;
 import io.github.samwright.framework.model.helper.mock.MockProcessor;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static junit.framework.TestCase.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
 
 /**
  * User: Sam Wright Date: 10/07/2013 Time: 17:16
@@ -180,4 +191,93 @@ public class MutabilityHelperTest {
         first.discardNext();
         first.replaceWith(first.createMutableClone());
     }
+
+    /**
+     * Starts a thread that mutates 'first', and waits until that mutation is holding its tree's
+     * lock (until 'release' is counted down).
+     */
+    private void startBlockedMutation(final CountDownLatch release) throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final ModelController controller = mock(ModelController.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await();
+                return null;
+            }
+        }).when(controller).proposeModel(any(Processor.class));
+
+        new Thread() {
+            @Override
+            public void run() {
+                first.setController(controller);
+            }
+        }.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 5000)
+    public void testSeparateModelsCanBeMutatedAtOnce() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        startBlockedMutation(release);
+
+        MockProcessor other = new MockProcessor();
+        MockProcessor otherNext = other.createMutableClone();
+        other.replaceWith(otherNext);
+        assertSame(otherNext, other.getNext());
+
+        release.countDown();
+    }
+
+    @Test(timeout = 5000)
+    public void testVersionsOfSameModelAreMutatedInTurn() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        startBlockedMutation(release);
+
+        second = first.createMutableClone();
+        final CountDownLatch replaced = new CountDownLatch(1);
+        new Thread() {
+            @Override
+            public void run() {
+                first.replaceWith(second);
+                replaced.countDown();
+            }
+        }.start();
+
+        assertFalse(replaced.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(replaced.await(5, TimeUnit.SECONDS));
+        assertSame(second, first.getNext());
+    }
+
+    @Test(timeout = 5000)
+    public void testMutationCannotJoinAnotherThreadsTree() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        startBlockedMutation(release);
+
+        // Mutating 'other' mutates 'first' part way through, while another thread has first's tree.
+        ModelController controller = mock(ModelController.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                first.setUUID(UUID.randomUUID());
+                return null;
+            }
+        }).when(controller).proposeModel(any(Processor.class));
+
+        MockProcessor other = new MockProcessor();
+        try {
+            other.setController(controller);
+            fail("Mutated a tree that another thread was mutating");
+        } catch (IllegalStateException e) {
+            // Expected
+        } finally {
+            release.countDown();
+        }
+
+        // The failed mutation didn't keep other's tree locked.
+        other.setController(null);
+        assertNull(other.getController());
+    }
 }
@@ -0,0 +1,126 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.controller.ModelController;
+import io.github.samwright.framework.model.Processor;
+import io.github.samwright.framework.model.common.ElementObserver;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link NotificationBus}.
+ */
+public class NotificationBusTest {
+
+    private NotificationBus bus;
+    private List<Mediator> frames;
+    private List<Object> observed, controlled;
+    private ElementObserver observer;
+    private ModelController controller;
+    private CountDownLatch firstDeliveryStarted, releaseFirstDelivery;
+
+    @Before
+    public void setUp() throws Exception {
+        bus = new NotificationBus(2);
+        observed = Collections.synchronizedList(new ArrayList<>());
+        controlled = Collections.synchronizedList(new ArrayList<>());
+        firstDeliveryStarted = new CountDownLatch(1);
+        releaseFirstDelivery = new CountDownLatch(1);
+
+        Processor processor = mock(Processor.class);
+        frames = new ArrayList<>();
+        for (int i = 0; i < 5; ++i)
+            frames.add(Mediator.createEmpty().createNext(processor, i));
+
+        // Holds up the first delivery until released, then records the data it's given.
+        Answer<Void> recordingAnswer = new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                if (firstDeliveryStarted.getCount() > 0) {
+                    firstDeliveryStarted.countDown();
+                    releaseFirstDelivery.await();
+                }
+
+                Mediator data = (Mediator) invocation.getArguments()[0];
+                if (invocation.getMock() == observer)
+                    observed.add(data.getData());
+                else
+                    controlled.add(data.getData());
+                return null;
+            }
+        };
+
+        observer = mock(ElementObserver.class);
+        doAnswer(recordingAnswer).when(observer).handleProcessedData(any(Mediator.class));
+        controller = mock(ModelController.class);
+        doAnswer(recordingAnswer).when(controller).handleProcessedData(any(Mediator.class));
+    }
+
+    @Test(timeout = 5000)
+    public void testEveryDeliversAllInOrder() throws Exception {
+        final Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (Mediator frame : frames)
+                    bus.publish(observer, frame, NotificationBus.Policy.EVERY);
+            }
+        });
+        publisher.start();
+
+        // Once the buffer fills up, the publisher has to wait.
+        assertTrue(firstDeliveryStarted.await(5, TimeUnit.SECONDS));
+        while (bus.size() < 2)
+            Thread.sleep(5);
+        Thread.sleep(20);
+        assertTrue(publisher.isAlive());
+
+        releaseFirstDelivery.countDown();
+        publisher.join();
+        bus.flush();
+
+        assertEquals(5, observed.size());
+        for (int i = 0; i < 5; ++i)
+            assertEquals(i, observed.get(i));
+    }
+
+    @Test(timeout = 5000)
+    public void testLatestIsCoalesced() throws Exception {
+        bus.publish(controller, frames.get(0), NotificationBus.Policy.LATEST);
+        assertTrue(firstDeliveryStarted.await(5, TimeUnit.SECONDS));
+
+        for (int i = 1; i < 5; ++i)
+            bus.publish(controller, frames.get(i), NotificationBus.Policy.LATEST);
+
+        releaseFirstDelivery.countDown();
+        bus.flush();
+
+        assertEquals(2, controlled.size());
+        assertEquals(0, controlled.get(0));
+        assertEquals(4, controlled.get(1));
+    }
+
+    @Test(timeout = 5000)
+    public void testFailingSubscriberDoesntStopDelivery() throws Exception {
+        releaseFirstDelivery.countDown();
+        ElementObserver failing = mock(ElementObserver.class);
+        doThrow(new IllegalStateException("expected by test")).when(failing)
+                .handleProcessedData(any(Mediator.class));
+
+        bus.publish(failing, frames.get(0), NotificationBus.Policy.EVERY);
+        bus.publish(observer, frames.get(1), NotificationBus.Policy.EVERY);
+        bus.flush();
+
+        assertEquals(1, observed.size());
+    }
+}
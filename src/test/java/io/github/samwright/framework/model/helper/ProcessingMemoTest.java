@@ -0,0 +1,188 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.AbstractElement;
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Workflow;
+import io.github.samwright.framework.model.WorkflowImpl;
+import io.github.samwright.framework.model.common.NativeMemoryUser;
+import io.github.samwright.framework.model.common.StaticSource;
+import io.github.samwright.framework.model.mock.MockElement;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link ProcessingMemo}.
+ */
+public class ProcessingMemoTest {
+
+    private static final AtomicInteger counted = new AtomicInteger();
+
+    private ProcessingMemo memo;
+    private Element element;
+
+    /**
+     * Always outputs the same image.
+     */
+    public static class Source extends MockElement implements StaticSource {
+        private static final Object IMAGE = "image";
+
+        public Source() {
+            super();
+        }
+
+        public Source(AbstractElement oldElement) {
+            super(oldElement);
+        }
+
+        @Override
+        public Mediator process(Mediator input) {
+            return input.createNext(this, IMAGE);
+        }
+
+        @Override
+        public boolean hasStaticOutput() {
+            return true;
+        }
+
+        @Override
+        public Element createMutableClone() {
+            return new Source(this);
+        }
+    }
+
+    /**
+     * Counts how many times it processes.
+     */
+    public static class Counter extends MockElement {
+        public Counter() {
+            super();
+        }
+
+        public Counter(AbstractElement oldElement) {
+            super(oldElement);
+        }
+
+        @Override
+        public Mediator process(Mediator input) {
+            counted.incrementAndGet();
+            return super.process(input);
+        }
+
+        @Override
+        public Element createMutableClone() {
+            return new Counter(this);
+        }
+    }
+
+    private static class Image implements NativeMemoryUser {
+        @Override
+        public long getNativeBytes() {
+            return 10;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        memo = new ProcessingMemo(25);
+        element = mock(Element.class);
+        counted.set(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ProcessingMemo.setShared(null);
+    }
+
+    private Mediator staticInput(Object data) {
+        Mediator input = Mediator.createEmpty().createNext(element, data);
+        memo.markStatic(input);
+        return input;
+    }
+
+    @Test
+    public void testOnlyStaticInputsAreCached() throws Exception {
+        List<Mediator> liveInput = Arrays.asList(Mediator.createEmpty().createNext(element, "live"));
+        memo.store(element, liveInput, "output");
+        assertNull(memo.lookup(element, liveInput));
+
+        List<Mediator> staticInput = Arrays.asList(staticInput("static"));
+        memo.store(element, staticInput, "output");
+        assertEquals("output", memo.lookup(element, staticInput));
+        assertNull(memo.lookup(mock(Element.class), staticInput));
+    }
+
+    @Test
+    public void testSingleInputMatchesListOfOne() throws Exception {
+        Mediator input = staticInput("static");
+        memo.store(element, input, "output");
+        assertEquals("output", memo.lookup(element, Arrays.asList(input)));
+
+        memo.store(element, Arrays.asList(input), "other output");
+        assertEquals("other output", memo.lookup(element, input));
+        assertEquals(1, memo.size());
+    }
+
+    @Test
+    public void testClearingModelKeepsOtherModels() throws Exception {
+        Element other = mock(Element.class);
+        Mediator input = staticInput("static");
+        memo.store(element, input, new Image());
+        memo.store(other, input, "other output");
+
+        memo.clear(element);
+        assertNull(memo.lookup(element, input));
+        assertEquals("other output", memo.lookup(other, input));
+        assertEquals(0, memo.getNativeBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvictedOverNativeLimit() throws Exception {
+        List<Mediator> first = Arrays.asList(staticInput("1"));
+        List<Mediator> second = Arrays.asList(staticInput("2"));
+        List<Mediator> third = Arrays.asList(staticInput("3"));
+
+        memo.store(element, first, new Image());
+        memo.store(element, second, new Image());
+        assertNotNull(memo.lookup(element, first));
+
+        memo.store(element, third, new Image());
+        assertEquals(20, memo.getNativeBytes());
+        assertNotNull(memo.lookup(element, first));
+        assertNull(memo.lookup(element, second));
+        assertNotNull(memo.lookup(element, third));
+    }
+
+    @Test
+    public void testPlanOnlyReprocessesFromChangedElement() throws Exception {
+        Workflow workflow = new WorkflowImpl().withChildren(
+                Arrays.<Element>asList(new Source(), new Counter(), new Counter()));
+        workflow.replace(null);
+        ProcessingMemo.setShared(memo);
+
+        Mediator output = ExecutionPlan.compile(workflow).process(Mediator.createEmpty());
+        assertEquals(Source.IMAGE + "11", output.getData());
+        assertEquals(2, counted.get());
+
+        // Replace the last element, which makes a new version of every element in the workflow.
+        List<Element> children = new ArrayList<>(workflow.getChildren());
+        children.set(2, new MockElement());
+        Workflow edited = workflow.withChildren(children);
+        workflow.replaceWith(edited);
+        assertNotSame(workflow.getChildren().get(1), edited.getChildren().get(1));
+
+        // The new version of the counter reuses the old version's output.
+        output = ExecutionPlan.compile(edited).process(Mediator.createEmpty());
+        assertEquals(Source.IMAGE + "11", output.getData());
+        assertEquals(2, counted.get());
+        assertSame(edited.getChildren().get(2), output.getHistory().getCreator());
+    }
+}
@@ -0,0 +1,123 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.AbstractElement;
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Optimiser;
+import io.github.samwright.framework.model.Workflow;
+import io.github.samwright.framework.model.WorkflowImpl;
+import io.github.samwright.framework.model.common.ReadsTrainingPayloads;
+import io.github.samwright.framework.model.helper.SharedPrefixPlanTest.Appender;
+import io.github.samwright.framework.model.helper.SharedPrefixPlanTest.Splitter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static junit.framework.TestCase.*;
+
+/**
+ * Tests for {@link RetentionPolicy}.
+ */
+public class RetentionPolicyTest {
+
+    /**
+     * An appender that reads its training data when trained.
+     */
+    public static class Reader extends Appender implements ReadsTrainingPayloads {
+        public Reader() {
+            super();
+        }
+
+        public Reader(AbstractElement oldElement) {
+            super(oldElement);
+        }
+
+        @Override
+        public Element createMutableClone() {
+            return new Reader(this);
+        }
+    }
+
+    private RetentionPolicy policy;
+    private Mediator input;
+
+    @Before
+    public void setUp() throws Exception {
+        policy = new RetentionPolicy();
+        RetentionPolicy.setShared(policy);
+        input = Mediator.createEmpty().createNext(new Appender(), "x");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RetentionPolicy.setShared(null);
+        TrainingRecord.setShared(null);
+    }
+
+    private static Workflow createWorkflow(Element... elements) {
+        return new WorkflowImpl().withChildren(Arrays.asList(elements));
+    }
+
+    private static Optimiser createOptimiser(Workflow... workflows) {
+        return (Optimiser) new Optimiser().withChildren(Arrays.asList(workflows));
+    }
+
+    @Test
+    public void testConsumedOutputsAreReleased() throws Exception {
+        Workflow workflow = createWorkflow(new Splitter(), new Appender(), new Appender());
+        List<Mediator> outputs = workflow.processTrainingData(input);
+
+        Mediator lastElementOutput = outputs.get(0).getPrevious();
+        assertEquals("xa!!", lastElementOutput.getData());
+        assertTrue(lastElementOutput.getPrevious().isReleased());
+        assertNull(lastElementOutput.getPrevious().getData());
+        assertTrue(lastElementOutput.getPrevious().getPrevious().isReleased());
+        assertFalse(input.isReleased());
+        assertEquals(4, policy.getReleased());
+
+        // Rolling back only needs the identity of each link.
+        Set<Mediator> all = new HashSet<>(outputs);
+        CompletedTrainingBatch rolledBack
+                = workflow.processCompletedTrainingBatch(new CompletedTrainingBatch(all, all));
+        assertEquals(Collections.singleton(input), rolledBack.getAll());
+    }
+
+    @Test
+    public void testPayloadReadersKeepTheirData() throws Exception {
+        Workflow workflow = createWorkflow(new Splitter(), new Reader(), new Appender());
+        workflow.processTrainingData(input);
+        assertEquals(0, policy.getReleased());
+    }
+
+    @Test
+    public void testPayloadReadersInContainersKeepTheirData() throws Exception {
+        // The reader is the first element of a workflow in an optimiser, in another optimiser.
+        Workflow nested = createWorkflow(createOptimiser(createWorkflow(new Reader())));
+        Workflow workflow = createWorkflow(new Splitter(),
+                createOptimiser(createWorkflow(new Appender()), nested));
+        workflow.processTrainingData(input);
+        assertEquals(0, policy.getReleased());
+
+        // Without the reader, the splitter's outputs are released.
+        workflow = createWorkflow(new Splitter(), createOptimiser(createWorkflow(new Appender())));
+        workflow.processTrainingData(input);
+        assertEquals(2, policy.getReleased());
+    }
+
+    @Test
+    public void testReleasedOutputsAreRecomputed() throws Exception {
+        TrainingRecord record = new TrainingRecord();
+        TrainingRecord.setShared(record);
+        Workflow workflow = createWorkflow(new Splitter(), new Appender(), new Appender());
+
+        workflow.processTrainingData(input);
+        // Replace the last element, so it has to process the (released) outputs before it.
+        Workflow edited = createWorkflow(workflow.getChildren().get(0),
+                workflow.getChildren().get(1), new Appender());
+        List<Mediator> outputs = edited.processTrainingData(input);
+
+        assertEquals("xa!!", outputs.get(0).getData());
+        assertEquals("xb!!", outputs.get(1).getData());
+    }
+}
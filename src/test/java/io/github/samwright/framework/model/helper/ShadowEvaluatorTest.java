@@ -0,0 +1,137 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.controller.ModelController;
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Workflow;
+import io.github.samwright.framework.model.WorkflowImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link ShadowEvaluator}.
+ */
+public class ShadowEvaluatorTest {
+
+    private Element source;
+    private ShadowEvaluator evaluator;
+
+    @Before
+    public void setUp() throws Exception {
+        source = mock(Element.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (evaluator != null)
+            evaluator.shutdown();
+    }
+
+    private Element multiplying(final int factor) {
+        final Element element = mock(Element.class);
+        when(element.process(any(Mediator.class))).thenAnswer(new Answer<Mediator>() {
+            @Override
+            public Mediator answer(InvocationOnMock invocation) throws Throwable {
+                Mediator input = (Mediator) invocation.getArguments()[0];
+                return input.createNext(element, factor * (Integer) input.getData());
+            }
+        });
+        return element;
+    }
+
+    private ShadowEvaluator createEvaluator(int workers, Element... candidateStages) {
+        Workflow candidate = mock(Workflow.class);
+        when(candidate.getChildren()).thenReturn(Arrays.asList(candidateStages));
+        evaluator = new ShadowEvaluator(candidate, workers);
+        return evaluator;
+    }
+
+    private Mediator sourceOutput(int frame) {
+        return Mediator.createEmpty(FrameContext.withBudget(0)).createNext(source, frame);
+    }
+
+    private void awaitCompared(int frames) throws InterruptedException {
+        while (evaluator.getComparedFrames() < frames)
+            Thread.sleep(5);
+    }
+
+    @Test(timeout = 5000)
+    public void testAgreementIsRecorded() throws Exception {
+        Element liveDoubler = multiplying(2);
+        // A worker for each frame, so none are shed.
+        createEvaluator(3, source, multiplying(2));
+
+        for (int frame = 1; frame <= 3; ++frame) {
+            Mediator sourceOutput = sourceOutput(frame);
+            evaluator.offer(sourceOutput);
+            Mediator liveOutput = WorkflowImpl.processElement(liveDoubler, sourceOutput);
+            // The live output is 5 for the last frame, so that one disagrees.
+            if (frame == 3)
+                liveOutput = liveOutput.createNext(liveDoubler, 5);
+            evaluator.compare(liveOutput);
+            awaitCompared(frame);
+        }
+
+        assertEquals(3, evaluator.getComparedFrames());
+        assertEquals(2, evaluator.getAgreeingFrames());
+        assertEquals(2. / 3, evaluator.getAgreementRate(), 1e-9);
+
+        List<ShadowEvaluator.StageLatency> latencies = evaluator.getStageLatencies();
+        assertEquals(2, latencies.size());
+        assertEquals(3, latencies.get(0).getLiveFrames());
+        assertEquals(0, latencies.get(0).getShadowFrames());
+        assertEquals(0, latencies.get(1).getLiveFrames());
+        assertEquals(3, latencies.get(1).getShadowFrames());
+    }
+
+    @Test(timeout = 5000)
+    public void testFramesAreShedWhenShadowIsBusy() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        final Element slow = mock(Element.class);
+        when(slow.process(any(Mediator.class))).thenAnswer(new Answer<Mediator>() {
+            @Override
+            public Mediator answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await();
+                Mediator input = (Mediator) invocation.getArguments()[0];
+                return input.createNext(slow, input.getData());
+            }
+        });
+        createEvaluator(1, source, slow);
+
+        evaluator.offer(sourceOutput(1));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        evaluator.offer(sourceOutput(2));
+        assertEquals(1, evaluator.getShedFrames());
+
+        release.countDown();
+    }
+
+    @Test(timeout = 5000)
+    public void testShadowOutputsAreNotPublished() throws Exception {
+        ModelController controller = mock(ModelController.class);
+        Element doubler = multiplying(2);
+        when(doubler.getController()).thenReturn(controller);
+        createEvaluator(1, source, doubler);
+
+        Mediator sourceOutput = sourceOutput(1);
+        evaluator.offer(sourceOutput);
+        evaluator.compare(sourceOutput.createNext(doubler, 2));
+        awaitCompared(1);
+        NotificationBus.getShared().flush();
+
+        assertEquals(1, evaluator.getAgreeingFrames());
+        verify(controller, never()).handleProcessedData(any(Mediator.class));
+    }
+}
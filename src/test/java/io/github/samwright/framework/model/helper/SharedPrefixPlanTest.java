@@ -0,0 +1,170 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.controller.ModelController;
+import io.github.samwright.framework.model.AbstractElement;
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Workflow;
+import io.github.samwright.framework.model.WorkflowImpl;
+import io.github.samwright.framework.model.mock.MockElement;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.*;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link SharedPrefixPlan}.
+ */
+public class SharedPrefixPlanTest {
+
+    private static final AtomicInteger splits = new AtomicInteger();
+
+    /**
+     * Outputs two training data for each input, counting how many inputs it has processed.
+     */
+    public static class Splitter extends MockElement {
+        public Splitter() {
+            super();
+        }
+
+        public Splitter(AbstractElement oldElement) {
+            super(oldElement);
+        }
+
+        @Override
+        public List<Mediator> processTrainingData(Mediator input) {
+            splits.incrementAndGet();
+            return Arrays.asList(input.createNext(this, input.getData() + "a"),
+                    input.createNext(this, input.getData() + "b"));
+        }
+
+        @Override
+        public Element createMutableClone() {
+            return new Splitter(this);
+        }
+    }
+
+    /**
+     * Appends to its training data.
+     */
+    public static class Appender extends MockElement {
+        public Appender() {
+            super();
+        }
+
+        public Appender(AbstractElement oldElement) {
+            super(oldElement);
+        }
+
+        @Override
+        public List<Mediator> processTrainingData(Mediator input) {
+            return Arrays.asList(input.createNext(this, input.getData() + "!"));
+        }
+
+        @Override
+        public Element createMutableClone() {
+            return new Appender(this);
+        }
+    }
+
+    private Workflow first, second, unshared;
+
+    private static Workflow createWorkflow(Element... elements) {
+        return new WorkflowImpl().withChildren(Arrays.asList(elements));
+    }
+
+    private static List<Object> getData(List<Mediator> mediators) {
+        List<Object> data = new ArrayList<>();
+        for (Mediator mediator : mediators)
+            data.add(mediator.getData());
+        return data;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        splits.set(0);
+        first = createWorkflow(new Splitter(), new Splitter(), new Appender());
+        second = createWorkflow(new Splitter(), new Splitter());
+        unshared = createWorkflow(new Appender(), new Splitter());
+    }
+
+    @Test
+    public void testSharedLengths() throws Exception {
+        SharedPrefixPlan plan = SharedPrefixPlan.compile(Arrays.asList(first, second, unshared));
+
+        assertEquals(2, plan.getSharedLength(0));
+        assertEquals(2, plan.getSharedLength(1));
+        assertEquals(0, plan.getSharedLength(2));
+    }
+
+    @Test
+    public void testSharedElementsAreOnlyProcessedOnce() throws Exception {
+        SharedPrefixPlan.Pass pass = SharedPrefixPlan.compile(Arrays.asList(first, second))
+                .startPass(Mediator.createEmpty().createNext(new Appender(), "x"));
+
+        List<Mediator> firstOutputs = pass.processTrainingData(0);
+        List<Mediator> secondOutputs = pass.processTrainingData(1);
+
+        // 1 input to the first splitter, then 2 inputs to the second (and no more for 'second')
+        assertEquals(3, splits.get());
+        assertEquals(Arrays.<Object>asList("xaa!", "xab!", "xba!", "xbb!"), getData(firstOutputs));
+        assertEquals(Arrays.<Object>asList("xaa", "xab", "xba", "xbb"), getData(secondOutputs));
+    }
+
+    @Test
+    public void testSharedOutputsHaveTheirOwnHistory() throws Exception {
+        Mediator input = Mediator.createEmpty().createNext(new Appender(), "x");
+        SharedPrefixPlan.Pass pass = SharedPrefixPlan.compile(Arrays.asList(first, second))
+                .startPass(input);
+
+        // The second workflow processes the shared elements, then the first reuses its outputs
+        pass.processTrainingData(1);
+        List<Mediator> reused = pass.processTrainingData(0);
+        List<Mediator> expected = first.processTrainingData(input);
+
+        Mediator splitterOutput = reused.get(0).getPrevious().getPrevious();
+        assertSame(first.getChildren().get(1), splitterOutput.getHistory().getCreator());
+        assertSame(first.getChildren().get(0),
+                splitterOutput.getPrevious().getHistory().getCreator());
+        assertSame(expected.get(0).getHistory(), reused.get(0).getHistory());
+    }
+
+    @Test(timeout = 5000)
+    public void testFailedSharedStageFailsOtherWorkflows() throws Exception {
+        TrainingRecord.setShared(new TrainingRecord());
+        try {
+            Mediator input = Mediator.createEmpty().createNext(new Appender(), "x");
+            SharedPrefixPlan plan = SharedPrefixPlan.compile(Arrays.asList(first, second));
+            plan.startPass(input).processTrainingData(0);
+
+            // The first workflow reuses its recorded outputs, but fails to notify its controller.
+            ModelController controller = mock(ModelController.class);
+            doThrow(new IllegalStateException("controller failed"))
+                    .when(controller).handleProcessedTrainingData(anyListOf(Mediator.class));
+            first.getChildren().get(0).setController(controller);
+
+            SharedPrefixPlan.Pass pass = plan.startPass(input);
+            try {
+                pass.processTrainingData(0);
+                fail();
+            } catch (IllegalStateException e) {
+                // Expected.
+            }
+
+            // The second workflow would have reused the first workflow's outputs.
+            try {
+                pass.processTrainingData(1);
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("controller failed", e.getMessage());
+            }
+        } finally {
+            TrainingRecord.setShared(null);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Workflow;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link StagePipeline}.
+ */
+public class StagePipelineTest {
+
+    private Workflow workflow;
+    private Element source, doubler;
+    private AtomicInteger frameCount;
+    private volatile boolean sourceFails;
+    private List<Object> outputs;
+    private List<RuntimeException> exceptions;
+    private CountDownLatch tenOutputs;
+
+    @Before
+    public void setUp() throws Exception {
+        frameCount = new AtomicInteger();
+        sourceFails = false;
+        outputs = Collections.synchronizedList(new ArrayList<>());
+        exceptions = Collections.synchronizedList(new ArrayList<RuntimeException>());
+        tenOutputs = new CountDownLatch(10);
+
+        source = mock(Element.class);
+        when(source.process(any(Mediator.class))).thenAnswer(new Answer<Mediator>() {
+            @Override
+            public Mediator answer(InvocationOnMock invocation) throws Throwable {
+                int frame = frameCount.incrementAndGet();
+                if (sourceFails && frame > 3)
+                    throw new IllegalStateException("source failed");
+                Mediator input = (Mediator) invocation.getArguments()[0];
+                return input.createNext(source, frame);
+            }
+        });
+
+        doubler = mock(Element.class);
+        when(doubler.process(any(Mediator.class))).thenAnswer(new Answer<Mediator>() {
+            @Override
+            public Mediator answer(InvocationOnMock invocation) throws Throwable {
+                Mediator input = (Mediator) invocation.getArguments()[0];
+                return input.createNext(doubler, 2 * (Integer) input.getData());
+            }
+        });
+
+        workflow = mock(Workflow.class);
+        when(workflow.getChildren()).thenReturn(Arrays.asList(source, doubler));
+    }
+
+    private StagePipeline createPipeline() {
+        return new StagePipeline(workflow, 1) {
+            @Override
+            protected void handleOutput(Mediator output) {
+                outputs.add(output.getData());
+                tenOutputs.countDown();
+            }
+
+            @Override
+            protected void handleException(RuntimeException e) {
+                exceptions.add(e);
+            }
+        };
+    }
+
+    @Test
+    public void testFramesAreProcessedInOrder() throws Exception {
+        StagePipeline pipeline = createPipeline();
+        pipeline.start();
+        assertTrue(pipeline.isRunning());
+        assertTrue(tenOutputs.await(5, TimeUnit.SECONDS));
+        pipeline.stop();
+        assertFalse(pipeline.isRunning());
+
+        List<Object> firstTen;
+        synchronized (outputs) {
+            firstTen = new ArrayList<>(outputs.subList(0, 10));
+        }
+        assertEquals(Arrays.<Object>asList(2, 4, 6, 8, 10, 12, 14, 16, 18, 20), firstTen);
+        assertTrue(exceptions.isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    public void testSourceFailureStopsPipeline() throws Exception {
+        sourceFails = true;
+        StagePipeline pipeline = createPipeline();
+        pipeline.start();
+
+        while (pipeline.isRunning())
+            Thread.sleep(10);
+
+        assertEquals(1, exceptions.size());
+        assertEquals(4, frameCount.get());
+        pipeline.stop();
+    }
+
+    @Test(timeout = 5000)
+    public void testPublishedVersionIsPickedUpBetweenFrames() throws Exception {
+        final Element incrementer = mock(Element.class);
+        when(incrementer.process(any(Mediator.class))).thenAnswer(new Answer<Mediator>() {
+            @Override
+            public Mediator answer(InvocationOnMock invocation) throws Throwable {
+                Mediator input = (Mediator) invocation.getArguments()[0];
+                return input.createNext(incrementer, 1 + (Integer) input.getData());
+            }
+        });
+        Workflow longer = mock(Workflow.class);
+        when(longer.getChildren()).thenReturn(Arrays.asList(source, doubler, incrementer));
+
+        StagePipeline pipeline = createPipeline();
+        pipeline.start();
+        assertTrue(tenOutputs.await(5, TimeUnit.SECONDS));
+        pipeline.publish(longer);
+        assertSame(longer, pipeline.getWorkflow());
+
+        // The frames in flight finish with the old version, then the old version is released.
+        while (pipeline.getLiveVersions() > 1 || outputs.size() < 20)
+            Thread.sleep(10);
+        pipeline.stop();
+
+        List<Object> all;
+        synchronized (outputs) {
+            all = new ArrayList<>(outputs);
+        }
+        int firstNew = 0;
+        while ((Integer) all.get(firstNew) % 2 == 0)
+            ++firstNew;
+        for (int i = 0; i < all.size(); ++i)
+            assertEquals(i < firstNew ? 2 * (i + 1) : 2 * (i + 1) + 1, all.get(i));
+        assertTrue(exceptions.isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void testTaskRunsBetweenFrames() throws Exception {
+        final AtomicInteger state = new AtomicInteger();
+
+        // The source outputs the state, and the next stages check it hasn't changed since.
+        final Element reader = mock(Element.class);
+        when(reader.process(any(Mediator.class))).thenAnswer(new Answer<Mediator>() {
+            @Override
+            public Mediator answer(InvocationOnMock invocation) throws Throwable {
+                Mediator input = (Mediator) invocation.getArguments()[0];
+                return input.createNext(reader, state.get());
+            }
+        });
+        final Element checker = mock(Element.class);
+        when(checker.process(any(Mediator.class))).thenAnswer(new Answer<Mediator>() {
+            @Override
+            public Mediator answer(InvocationOnMock invocation) throws Throwable {
+                Mediator input = (Mediator) invocation.getArguments()[0];
+                Thread.sleep(1);
+                boolean unchanged = input.getData().equals(state.get());
+                return input.createNext(checker, unchanged ? input.getData() : -1);
+            }
+        });
+        when(workflow.getChildren()).thenReturn(Arrays.asList(reader, checker, checker));
+
+        StagePipeline pipeline = createPipeline();
+        pipeline.start();
+        for (int i = 0; i < 20; ++i) {
+            pipeline.runBetweenFrames(new Runnable() {
+                @Override
+                public void run() {
+                    state.incrementAndGet();
+                }
+            });
+            Thread.sleep(5);
+        }
+        pipeline.stop();
+
+        assertEquals(20, state.get());
+        assertTrue(outputs.size() > 0);
+        assertFalse(outputs.contains(-1));
+        assertTrue(exceptions.isEmpty());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testMutableWorkflowIsRejected() throws Exception {
+        when(workflow.isMutable()).thenReturn(true);
+        createPipeline();
+    }
+}
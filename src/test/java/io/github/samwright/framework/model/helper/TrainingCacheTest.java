@@ -0,0 +1,203 @@
+package io.github.samwright.framework.model.helper;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import io.github.samwright.framework.model.AbstractElement;
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.common.ContentAddressable;
+import io.github.samwright.framework.model.mock.MockElement;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.*;
+
+/**
+ * Tests for {@link TrainingCache}.
+ */
+public class TrainingCacheTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final AtomicInteger processed = new AtomicInteger();
+
+    /**
+     * Outputs two strings for each input, counting how many inputs it has processed.
+     */
+    public static class Splitter extends MockElement {
+        public Splitter() {
+            super();
+        }
+
+        public Splitter(AbstractElement oldElement) {
+            super(oldElement);
+        }
+
+        @Override
+        public List<Mediator> processTrainingData(Mediator input) {
+            processed.incrementAndGet();
+            return Arrays.asList(input.createNext(this, input.getData() + "a"),
+                    input.createNext(this, input.getData() + "b"));
+        }
+
+        @Override
+        public Element createMutableClone() {
+            return new Splitter(this);
+        }
+    }
+
+    /**
+     * Source data, identified by its content.
+     */
+    private static class Source implements ContentAddressable {
+        private final String content;
+
+        private Source(String content) {
+            this.content = content;
+        }
+
+        @Override
+        public String getContentHash() {
+            return content;
+        }
+
+        @Override
+        public String toString() {
+            return content;
+        }
+    }
+
+    /**
+     * Source data loaded from a file, which (like a loaded image) is tagged with the start of
+     * the filename.
+     */
+    private static class TaggedFile implements ContentAddressable {
+        private final File file;
+        private final String tag;
+
+        private TaggedFile(File file) {
+            this.file = file;
+            this.tag = file.getName().substring(0, file.getName().indexOf(' '));
+        }
+
+        @Override
+        public String getContentHash() {
+            try {
+                return TrainingCache.getContentHash(
+                        Files.hash(file, Hashing.sha1()).toString(), tag);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return tag;
+        }
+    }
+
+    private Mediator input;
+
+    @Before
+    public void setUp() throws Exception {
+        processed.set(0);
+        input = Mediator.createEmpty().createNext(new Splitter(), new Source("x"));
+    }
+
+    private TrainingCache createCache() {
+        return new TrainingCache(folder.getRoot());
+    }
+
+    private static List<Object> getData(List<Mediator> mediators) {
+        List<Object> data = new ArrayList<>();
+        for (Mediator mediator : mediators)
+            data.add(mediator.getData());
+        return data;
+    }
+
+    @Test
+    public void testOutputsAreReadFromCacheInLaterRuns() throws Exception {
+        Splitter splitter = new Splitter();
+        List<Mediator> computed = createCache().processTrainingData(splitter, input);
+
+        TrainingCache cache = createCache();
+        List<Mediator> cached = cache.processTrainingData(splitter, input);
+
+        assertEquals(1, processed.get());
+        assertEquals(Arrays.<Object>asList("xa", "xb"), getData(cached));
+        assertSame(splitter, cached.get(0).getHistory().getCreator());
+        assertSame(computed.get(0).getHistory(), cached.get(0).getHistory());
+
+        // Outputs read from the cache have keys, so the next element can be cached too
+        cache.processTrainingData(new Splitter(), cached.get(1));
+        assertEquals(2, processed.get());
+
+        cache = createCache();
+        cached = cache.processTrainingData(splitter, input);
+        List<Mediator> nextCached = cache.processTrainingData(new Splitter(), cached.get(1));
+        assertEquals(Arrays.<Object>asList("xba", "xbb"), getData(nextCached));
+        assertEquals(2, processed.get());
+    }
+
+    @Test
+    public void testKeysDependOnContentAndConfiguration() throws Exception {
+        TrainingCache cache = createCache();
+        Mediator otherInput = Mediator.createEmpty().createNext(new Splitter(), new Source("y"));
+
+        assertNotNull(cache.getKey(input));
+        assertFalse(cache.getKey(input).equals(cache.getKey(otherInput)));
+        assertFalse(cache.getEntryKey(new Splitter(), Arrays.asList(input))
+                .equals(cache.getEntryKey(new MockElement(), Arrays.asList(input))));
+        assertEquals(cache.getEntryKey(new Splitter(), Arrays.asList(input)),
+                cache.getEntryKey(new Splitter(), Arrays.asList(input)));
+    }
+
+    @Test
+    public void testRenamedFileGivesNewTag() throws Exception {
+        File file = folder.newFile("a 1.txt");
+        Files.write("content", file, Charsets.UTF_8);
+        Splitter splitter = new Splitter();
+
+        Mediator loaded = Mediator.createEmpty().createNext(splitter, new TaggedFile(file));
+        createCache().processTrainingData(splitter, loaded);
+
+        File renamed = new File(folder.getRoot(), "b 1.txt");
+        assertTrue(file.renameTo(renamed));
+        loaded = Mediator.createEmpty().createNext(splitter, new TaggedFile(renamed));
+
+        assertEquals(Arrays.<Object>asList("ba", "bb"),
+                getData(createCache().processTrainingData(splitter, loaded)));
+        assertEquals(2, processed.get());
+    }
+
+    @Test
+    public void testPassedOnDataKeepsItsKey() throws Exception {
+        TrainingCache cache = createCache();
+        Mediator output = cache.processTrainingData(new Splitter(), input).get(0);
+        Mediator passedOn = output.createNext(new MockElement(), output.getData());
+
+        assertNotNull(cache.getKey(output));
+        assertEquals(cache.getKey(output), cache.getKey(passedOn));
+    }
+
+    @Test
+    public void testDataWithoutKeyIsNotCached() throws Exception {
+        Mediator unknown = Mediator.createEmpty().createNext(new Splitter(), "x");
+        Splitter splitter = new Splitter();
+
+        createCache().processTrainingData(splitter, unknown);
+        createCache().processTrainingData(splitter, unknown);
+
+        assertNull(createCache().getKey(unknown));
+        assertEquals(2, processed.get());
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.Element;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.*;
+
+import static junit.framework.TestCase.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link TrainingFanOut}.
+ */
+public class TrainingFanOutTest {
+
+    private Element splitter;
+    private List<Mediator> inputs;
+    private Set<Thread> threadsUsed;
+
+    @Before
+    public void setUp() throws Exception {
+        threadsUsed = Collections.synchronizedSet(new HashSet<Thread>());
+
+        // Outputs two mediators for each input: the input's data, and ten times the input's data.
+        splitter = mock(Element.class);
+        when(splitter.processTrainingData(any(Mediator.class))).thenAnswer(new Answer<List<Mediator>>() {
+            @Override
+            public List<Mediator> answer(InvocationOnMock invocation) throws Throwable {
+                threadsUsed.add(Thread.currentThread());
+                Thread.sleep(1);
+                Mediator input = (Mediator) invocation.getArguments()[0];
+                int data = (Integer) input.getData();
+                return Arrays.asList(input.createNext(splitter, data),
+                        input.createNext(splitter, 10 * data));
+            }
+        });
+
+        inputs = new ArrayList<>();
+        for (int i = 0; i < 200; ++i)
+            inputs.add(Mediator.createEmpty().createNext(splitter, i));
+    }
+
+    private static List<Object> getData(List<Mediator> mediators) {
+        List<Object> data = new ArrayList<>();
+        for (Mediator mediator : mediators)
+            data.add(mediator.getData());
+        return data;
+    }
+
+    @Test
+    public void testOutputsAreInInputOrder() throws Exception {
+        List<Object> expected = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); ++i) {
+            expected.add(i);
+            expected.add(10 * i);
+        }
+
+        assertEquals(expected, getData(TrainingFanOut.processAll(splitter, inputs)));
+        if (Runtime.getRuntime().availableProcessors() > 1)
+            assertTrue(threadsUsed.size() > 1);
+    }
+
+    @Test
+    public void testNoInputs() throws Exception {
+        assertTrue(TrainingFanOut.processAll(splitter, new ArrayList<Mediator>()).isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void testNestedFanOut() throws Exception {
+        // Fans out each input into the whole list of inputs, processed by the splitter.
+        final Element nested = mock(Element.class);
+        when(nested.processTrainingData(any(Mediator.class))).thenAnswer(new Answer<List<Mediator>>() {
+            @Override
+            public List<Mediator> answer(InvocationOnMock invocation) throws Throwable {
+                return TrainingFanOut.processAll(splitter, inputs.subList(0, 10));
+            }
+        });
+
+        List<Mediator> outputs = TrainingFanOut.processAll(nested, inputs.subList(0, 20));
+        assertEquals(20 * 10 * 2, outputs.size());
+        assertEquals(getData(TrainingFanOut.processAll(splitter, inputs.subList(0, 10))),
+                getData(outputs.subList(0, 20)));
+    }
+}
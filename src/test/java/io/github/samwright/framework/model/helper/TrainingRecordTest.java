@@ -0,0 +1,207 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.model.AbstractElement;
+import io.github.samwright.framework.model.Element;
+import io.github.samwright.framework.model.Optimiser;
+import io.github.samwright.framework.model.Workflow;
+import io.github.samwright.framework.model.WorkflowImpl;
+import io.github.samwright.framework.model.helper.SharedPrefixPlanTest.Appender;
+import io.github.samwright.framework.model.helper.SharedPrefixPlanTest.Splitter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.*;
+
+/**
+ * Tests for {@link TrainingRecord}.
+ */
+public class TrainingRecordTest {
+
+    private static final AtomicInteger trainings = new AtomicInteger();
+
+    /**
+     * Counts how many times it is trained.
+     */
+    public static class Trainee extends Appender {
+        public Trainee() {
+            super();
+        }
+
+        public Trainee(AbstractElement oldElement) {
+            super(oldElement);
+        }
+
+        @Override
+        public CompletedTrainingBatch processCompletedTrainingBatch(CompletedTrainingBatch completedTrainingBatch) {
+            trainings.incrementAndGet();
+            return super.processCompletedTrainingBatch(completedTrainingBatch);
+        }
+
+        @Override
+        public Element createMutableClone() {
+            return new Trainee(this);
+        }
+    }
+
+    private TrainingRecord record;
+    private Splitter splitter;
+    private Mediator input;
+
+    @Before
+    public void setUp() throws Exception {
+        record = new TrainingRecord();
+        TrainingRecord.setShared(record);
+        trainings.set(0);
+        splitter = new Splitter();
+        input = Mediator.createEmpty().createNext(new Appender(), "x");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TrainingRecord.setShared(null);
+    }
+
+    private List<Mediator> train(Workflow workflow) {
+        return train(workflow, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Trains the workflow, where only its first few outputs are successful.
+     */
+    private List<Mediator> train(Workflow workflow, int successes) {
+        long pass = record.startPass();
+        try {
+            List<Mediator> outputs = workflow.processTrainingData(input);
+            Set<Mediator> all = new HashSet<>(outputs);
+            Set<Mediator> successful
+                    = new HashSet<>(outputs.subList(0, Math.min(successes, outputs.size())));
+            workflow.processCompletedTrainingBatch(new CompletedTrainingBatch(all, successful));
+            return outputs;
+        } finally {
+            record.endPass(pass);
+        }
+    }
+
+    @Test
+    public void testUnchangedElementsAreNotRetrained() throws Exception {
+        Trainee trainee = new Trainee();
+        Workflow workflow = new WorkflowImpl().withChildren(
+                Arrays.<Element>asList(splitter, trainee));
+        List<Mediator> first = train(workflow);
+        List<Mediator> second = train(workflow);
+
+        assertEquals(1, trainings.get());
+        assertSame(first.get(0).getPrevious(), second.get(0).getPrevious());
+    }
+
+    @Test
+    public void testOnlyTheChangedSuffixIsRetrained() throws Exception {
+        Workflow workflow = new WorkflowImpl().withChildren(
+                Arrays.<Element>asList(new Trainee(), splitter, new Trainee()));
+        workflow.replace(null);
+        List<Mediator> first = train(workflow);
+        assertEquals(2, trainings.get());
+
+        // Replacing the splitter makes a new version of every element in the workflow.
+        List<Element> children = new ArrayList<>(workflow.getChildren());
+        children.set(1, new Appender());
+        Workflow edited = workflow.withChildren(children);
+        workflow.replaceWith(edited);
+        assertNotSame(workflow.getChildren().get(0), edited.getChildren().get(0));
+
+        // Only the last element is retrained, with the first element's outputs from last time.
+        List<Mediator> second = train(edited);
+        assertEquals(3, trainings.get());
+        assertEquals(Arrays.<Object>asList("x!!!"), Arrays.asList(second.get(0).getData()));
+        assertEquals(1, second.size());
+        assertSame(first.get(0).getPrevious().getPrevious().getPrevious(),
+                   second.get(0).getPrevious().getPrevious().getPrevious());
+    }
+
+    @Test
+    public void testReusedOutputsCanBeRolledBackByANewVersion() throws Exception {
+        Workflow workflow = new WorkflowImpl().withChildren(
+                Arrays.<Element>asList(new Trainee(), splitter, new Trainee()));
+        workflow.replace(null);
+        train(workflow);
+
+        List<Element> children = new ArrayList<>(workflow.getChildren());
+        children.set(2, new Appender());
+        Workflow edited = workflow.withChildren(children);
+        workflow.replaceWith(edited);
+
+        // The new version of the splitter rolls back a different batch of the outputs that the
+        // old version created.
+        List<Mediator> outputs = train(edited, 1);
+        assertEquals(2, trainings.get());
+        assertNotSame(workflow.getChildren().get(1), edited.getChildren().get(1));
+        assertSame(workflow.getChildren().get(1),
+                   outputs.get(0).getPrevious().getPrevious().getHistory().getCreator());
+    }
+
+    @Test
+    public void testUnchangedTrainedStateIsKeptByNewVersions() throws Exception {
+        List<Workflow> options = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            options.add(new WorkflowImpl().withChildren(Arrays.<Element>asList(new Appender())));
+            options.get(i).replace(null);
+        }
+        Optimiser optimiser = (Optimiser) new Optimiser().withChildren(options);
+        optimiser.replace(null);
+        Workflow workflow = new WorkflowImpl().withChildren(
+                Arrays.<Element>asList(optimiser, new Trainee()));
+        workflow.replace(null);
+
+        // Only the outputs of the optimiser's first workflow are successful.
+        train(workflow, 1);
+        optimiser = (Optimiser) workflow.getChildren().get(0);
+        assertSame(optimiser.getChildren().get(0), optimiser.chooseWorkflow(input));
+
+        List<Element> children = new ArrayList<>(workflow.getChildren());
+        children.set(1, new Appender());
+        Workflow edited = workflow.withChildren(children);
+        workflow.replaceWith(edited);
+
+        // The new version of the optimiser isn't retrained, but still chooses its first workflow.
+        train(edited, 1);
+        Optimiser newOptimiser = (Optimiser) edited.getChildren().get(0);
+        assertNotSame(optimiser, newOptimiser);
+        assertSame(newOptimiser.getChildren().get(0), newOptimiser.chooseWorkflow(input));
+        assertEquals(new HashSet<>(newOptimiser.getChildren()),
+                     newOptimiser.getSuccessRates().keySet());
+    }
+
+    @Test
+    public void testUnusedElementsAreForgotten() throws Exception {
+        Workflow workflow = new WorkflowImpl().withChildren(
+                Arrays.<Element>asList(splitter, new Trainee()));
+        workflow.replace(null);
+        train(workflow);
+        assertEquals(2, record.size());
+
+        Workflow edited = workflow.withChildren(workflow.getChildren().subList(0, 1));
+        workflow.replaceWith(edited);
+        train(edited);
+        assertEquals(1, record.size());
+    }
+
+    @Test
+    public void testOtherModelsAreKept() throws Exception {
+        Workflow workflow = new WorkflowImpl().withChildren(
+                Arrays.<Element>asList(splitter, new Trainee()));
+        workflow.replace(null);
+        train(workflow);
+
+        Workflow other = new WorkflowImpl().withChildren(Arrays.<Element>asList(new Trainee()));
+        other.replace(null);
+        train(other);
+        assertEquals(3, record.size());
+
+        record.clear(workflow);
+        assertEquals(1, record.size());
+    }
+}
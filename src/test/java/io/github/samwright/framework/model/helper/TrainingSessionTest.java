@@ -0,0 +1,84 @@
+package io.github.samwright.framework.model.helper;
+
+import io.github.samwright.framework.controller.ModelController;
+import io.github.samwright.framework.model.Processor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.TestCase.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link TrainingSession}.
+ */
+public class TrainingSessionTest {
+
+    private List<String> published;
+    private Processor processor;
+
+    @Before
+    public void setUp() throws Exception {
+        published = new ArrayList<>();
+        processor = mock(Processor.class);
+    }
+
+    private Runnable publishing(final String state) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                published.add(state);
+            }
+        };
+    }
+
+    @Test
+    public void testPublishedImmediatelyWithoutSession() throws Exception {
+        TrainingSession.publish(processor, publishing("a"));
+        assertEquals(Arrays.asList("a"), published);
+    }
+
+    @Test
+    public void testPublishedInOrderWhenSessionFinishes() throws Exception {
+        ModelController controller = mock(ModelController.class);
+        when(processor.getController()).thenReturn(controller);
+
+        TrainingSession session = TrainingSession.start(processor);
+        try {
+            TrainingSession.publish(processor, publishing("a"));
+            TrainingSession.publish(processor, publishing("b"));
+            assertTrue(published.isEmpty());
+            verify(controller, never()).handleTrained();
+        } finally {
+            session.finish();
+        }
+
+        assertEquals(Arrays.asList("a", "b"), published);
+        verify(controller, times(2)).handleTrained();
+
+        TrainingSession.publish(processor, publishing("c"));
+        assertEquals(Arrays.asList("a", "b", "c"), published);
+    }
+
+    @Test
+    public void testOtherModelsArePublishedImmediately() throws Exception {
+        Processor otherProcessor = mock(Processor.class);
+
+        TrainingSession session = TrainingSession.start(processor);
+        try {
+            TrainingSession.publish(otherProcessor, publishing("a"));
+            assertEquals(Arrays.asList("a"), published);
+
+            // Another model can be trained at the same time.
+            TrainingSession otherSession = TrainingSession.start(otherProcessor);
+            TrainingSession.publish(otherProcessor, publishing("b"));
+            otherSession.finish();
+            assertEquals(Arrays.asList("a", "b"), published);
+        } finally {
+            session.finish();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package io.github.samwright.framework.model.helper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.TestCase.*;
+
+/**
+ * Tests for {@link VersionPublisher}.
+ */
+public class VersionPublisherTest {
+
+    private List<String> released;
+    private VersionPublisher<String> publisher;
+
+    @Before
+    public void setUp() throws Exception {
+        released = new ArrayList<>();
+        publisher = new VersionPublisher<String>("a") {
+            @Override
+            protected void handleReleased(String version) {
+                released.add(version);
+            }
+        };
+    }
+
+    @Test
+    public void testOldVersionIsReleasedWhenLastLeaseIs() throws Exception {
+        VersionPublisher.Lease<String> first = publisher.acquire();
+        VersionPublisher.Lease<String> second = publisher.acquire();
+
+        publisher.publish("b");
+        assertEquals("b", publisher.getCurrent());
+        assertEquals("a", first.get());
+        assertEquals(2, publisher.getLiveVersions());
+
+        first.release();
+        assertTrue(released.isEmpty());
+        second.release();
+        assertEquals(Arrays.asList("a"), released);
+        assertEquals(1, publisher.getLiveVersions());
+
+        VersionPublisher.Lease<String> third = publisher.acquire();
+        assertEquals("b", third.get());
+        third.release();
+        assertEquals(Arrays.asList("a"), released);
+    }
+
+    @Test
+    public void testUnleasedVersionIsReleasedWhenReplaced() throws Exception {
+        publisher.publish("b");
+        publisher.publish("b");
+        publisher.publish("c");
+
+        assertEquals(Arrays.asList("a", "b"), released);
+        assertEquals(1, publisher.getLiveVersions());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleasingTwiceIsRejected() throws Exception {
+        VersionPublisher.Lease<String> lease = publisher.acquire();
+        publisher.publish("b");
+        lease.release();
+        lease.release();
+    }
+}
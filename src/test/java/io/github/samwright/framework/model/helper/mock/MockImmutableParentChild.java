@@ -33,7 +33,7 @@ public class MockImmutableParentChild extends MockProcessor
 
     @Override
     public MockImmutableParentChild getParent() {
-        return parentManager.getParent();
+        return parentManager == null ? null : parentManager.getParent();
     }
 
     @Override